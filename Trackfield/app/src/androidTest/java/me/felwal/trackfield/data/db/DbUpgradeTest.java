@@ -0,0 +1,112 @@
+package me.felwal.trackfield.data.db;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import me.felwal.trackfield.data.db.DbContract.DistanceEntry;
+import me.felwal.trackfield.data.db.DbContract.DistanceLimitEntry;
+import me.felwal.trackfield.data.db.DbContract.ExerciseEntry;
+import me.felwal.trackfield.data.db.DbContract.PlaceEntry;
+import me.felwal.trackfield.data.db.DbContract.RecordEntry;
+import me.felwal.trackfield.data.db.DbContract.RouteEntry;
+import me.felwal.trackfield.data.prefs.Prefs;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Opens a database of version 1 holding exercises, and checks that it is migrated to the target version with the
+ * derived tables built from them. Runs on a database file of its own, so that the database of the app under test is
+ * untouched.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DbUpgradeTest {
+
+    private static final String DATABASE_NAME = "upgrade_test.db";
+
+    private static final int ROUTE_ID = 1;
+    private static final int EXERCISE_COUNT = 5;
+    private static final int DISTANCE = 5_000;
+
+    private Context c;
+
+    @Before
+    public void setUp() {
+        c = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        Prefs.setUpAndLoad(c);
+        c.deleteDatabase(DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        c.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void onUpgrade_fromVersion1() {
+        createVersion1();
+
+        DbWriter writer = new DbWriter(c, DATABASE_NAME);
+        SQLiteDatabase db = writer.db;
+
+        assertEquals(DbHelper.DATABASE_TARGET_VERSION, db.getVersion());
+        assertEquals(1, DatabaseUtils.queryNumEntries(db, DistanceLimitEntry.TABLE_NAME));
+
+        // the derived tables are built from the exercises already stored
+        assertEquals(EXERCISE_COUNT, DatabaseUtils.longForQuery(db, "SELECT " + RouteEntry.COLUMN_AMOUNT +
+            " FROM " + RouteEntry.TABLE_NAME + " WHERE " + RouteEntry._ID + " = " + ROUTE_ID, null));
+        assertEquals(RecordEntry.RANKS, countRecords(db, RecordEntry.KIND_ROUTE, ROUTE_ID));
+        assertEquals(RecordEntry.RANKS, countRecords(db, RecordEntry.KIND_DISTANCE, DISTANCE));
+
+        writer.close();
+    }
+
+    // build
+
+    /**
+     * Creates the schema of version 1, whose tables are unchanged since, and stores exercises of one route and a
+     * distance they count for.
+     */
+    private void createVersion1() {
+        SQLiteDatabase db = c.openOrCreateDatabase(DATABASE_NAME, Context.MODE_PRIVATE, null);
+
+        db.execSQL(ExerciseEntry.CREATE_TABLE);
+        db.execSQL(RouteEntry.CREATE_TABLE);
+        db.execSQL(DistanceEntry.CREATE_TABLE);
+        db.execSQL(PlaceEntry.CREATE_TABLE);
+
+        db.execSQL("INSERT INTO " + RouteEntry.TABLE_NAME + " (" + RouteEntry._ID + ", " + RouteEntry.COLUMN_NAME +
+            ", " + RouteEntry.COLUMN_HIDDEN + ") VALUES (?, ?, 0)", new Object[] { ROUTE_ID, "Route" });
+        db.execSQL("INSERT INTO " + DistanceEntry.TABLE_NAME + " (" + DistanceEntry.COLUMN_DISTANCE + ", " +
+            DistanceEntry.COLUMN_GOAL_PACE + ") VALUES (?, 0)", new Object[] { DISTANCE });
+
+        for (int i = 0; i < EXERCISE_COUNT; i++) {
+            db.execSQL("INSERT INTO " + ExerciseEntry.TABLE_NAME + " (" + ExerciseEntry.COLUMN_TYPE + ", " +
+                ExerciseEntry.COLUMN_DATE + ", " + ExerciseEntry.COLUMN_ROUTE_ID + ", " +
+                ExerciseEntry.COLUMN_ROUTE_VAR + ", " + ExerciseEntry.COLUMN_INTERVAL + ", " +
+                ExerciseEntry.COLUMN_DISTANCE + ", " + ExerciseEntry.COLUMN_EFFECTIVE_DISTANCE + ", " +
+                ExerciseEntry.COLUMN_TIME + ", " + ExerciseEntry.COLUMN_TRAIL_HIDDEN + ")" +
+                " VALUES ('Run', ?, ?, '', '', ?, ?, ?, 0)",
+                new Object[] { 1_500_000_000L + i * 86_400L, ROUTE_ID, DISTANCE, DISTANCE, 1_500f + i * 10 });
+        }
+
+        db.setVersion(1);
+        db.close();
+    }
+
+    // tools
+
+    private static long countRecords(SQLiteDatabase db, int kind, int groupKey) {
+        return DatabaseUtils.queryNumEntries(db, RecordEntry.TABLE_NAME, RecordEntry.COLUMN_KIND + " = ? AND " +
+            RecordEntry.COLUMN_GROUP_KEY + " = ?", new String[] { Integer.toString(kind), Integer.toString(groupKey) });
+    }
+
+}
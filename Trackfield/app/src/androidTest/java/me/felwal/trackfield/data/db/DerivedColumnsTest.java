@@ -0,0 +1,354 @@
+package me.felwal.trackfield.data.db;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import me.felwal.trackfield.data.db.DbContract.DistanceEntry;
+import me.felwal.trackfield.data.db.DbContract.ExerciseEntry;
+import me.felwal.trackfield.data.db.DbContract.RecordEntry;
+import me.felwal.trackfield.data.db.DbContract.RouteEntry;
+import me.felwal.trackfield.data.db.model.Distance;
+import me.felwal.trackfield.data.db.model.Exercise;
+import me.felwal.trackfield.data.db.model.Route;
+import me.felwal.trackfield.data.prefs.Prefs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs random inserts, updates and deletes of exercises, changes of distances and changes of the distance limits
+ * through an in-memory {@link DbWriter}, and after each compares the columns maintained by triggers to the same values
+ * computed by brute force: the summaries of {@link RouteEntry}, the bests of {@link DistanceEntry} and the ranks of
+ * {@link RecordEntry}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DerivedColumnsTest {
+
+    private static final long SEED = 20_211_017L;
+    private static final int OPERATIONS = 400;
+    private static final int ROUTE_COUNT = 6;
+    private static final int[] DISTANCES = { 1_000, 1_609, 3_000, 5_000, 10_000, 21_097 };
+    private static final String[] TYPES = { "Run", "Walk" };
+    private static final double DELTA = 1e-6;
+
+    private Context c;
+    private DbWriter writer;
+    private Random random;
+    private int lowerLimit;
+    private int upperLimit;
+
+    // the stravaIds of the stored exercises, by which they are fetched
+    private final ArrayList<Long> stravaIds = new ArrayList<>();
+    private final TreeSet<Integer> distances = new TreeSet<>();
+    private long nextStravaId = 1;
+
+    @Before
+    public void setUp() {
+        c = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        Prefs.setUpAndLoad(c);
+        lowerLimit = Prefs.getDistanceLowerLimit();
+        upperLimit = Prefs.getDistanceUpperLimit();
+
+        writer = new DbWriter(c, null);
+        random = new Random(SEED);
+    }
+
+    @After
+    public void tearDown() {
+        // the limits are saved to the prefs of the app under test
+        Prefs.setDistanceLowerLimit(lowerLimit);
+        Prefs.setDistanceUpperLimit(upperLimit);
+        writer.close();
+    }
+
+    @Test
+    public void derivedColumns_matchBruteForce() {
+        for (int i = 0; i < 3; i++) addDistance();
+
+        for (int i = 0; i < OPERATIONS; i++) {
+            int op = random.nextInt(20);
+            String description;
+
+            if (op < 8 || stravaIds.isEmpty()) description = addExercise();
+            else if (op < 14) description = updateExercise();
+            else if (op < 17) description = deleteExercise();
+            else if (op < 19) description = random.nextBoolean() ? addDistance() : deleteDistance();
+            else description = changeLimits();
+
+            assertMatchesBruteForce("operation " + i + ", " + description);
+        }
+    }
+
+    // operations
+
+    private String addExercise() {
+        long stravaId = nextStravaId++;
+        Exercise e = new Exercise(Exercise.ID_NONE, stravaId, Exercise.ID_NONE, randomType(), "",
+            LocalDateTime.of(2020, 1, 1, 12, 0).plusDays(stravaId), Route.ID_NON_EXISTANT, randomRoute(),
+            randomRouteVar(), "", "", "", "", randomDistance(), randomTime(), 0, null, false);
+
+        assertTrue(writer.addExercise(e, c));
+        stravaIds.add(stravaId);
+        return "add " + stravaId;
+    }
+
+    private String updateExercise() {
+        long stravaId = stravaIds.get(random.nextInt(stravaIds.size()));
+        Exercise e = writer.getExercise(stravaId, c);
+        assertNotNull(e);
+
+        switch (random.nextInt(4)) {
+            case 0:
+                e.setDistance(randomDistance());
+                break;
+            case 1:
+                e.setTime(randomTime());
+                break;
+            case 2:
+                e.setRoute(randomRoute());
+                e.setRouteId((int) writer.addRoute(new Route(e.getRoute()), c));
+                break;
+            default:
+                e.setRouteVar(randomRouteVar());
+                e.setType(randomType());
+                break;
+        }
+
+        assertTrue(writer.updateExercise(e, c));
+        return "update " + stravaId;
+    }
+
+    private String deleteExercise() {
+        long stravaId = stravaIds.remove(random.nextInt(stravaIds.size()));
+        Exercise e = writer.getExercise(stravaId, c);
+        assertNotNull(e);
+
+        assertTrue(writer.deleteExercise(e, c));
+        return "delete " + stravaId;
+    }
+
+    private String addDistance() {
+        int distance = DISTANCES[random.nextInt(DISTANCES.length)];
+        if (!distances.add(distance)) return "keep distance " + distance;
+
+        assertTrue(writer.addDistance(new Distance(-1, distance)));
+        return "add distance " + distance;
+    }
+
+    private String deleteDistance() {
+        if (distances.isEmpty()) return "no distance";
+        int distance = new ArrayList<>(distances).get(random.nextInt(distances.size()));
+        distances.remove(distance);
+
+        assertTrue(writer.deleteDistance(new Distance(-1, distance)));
+        return "delete distance " + distance;
+    }
+
+    private String changeLimits() {
+        int lower = random.nextInt(1_000);
+        int upper = random.nextInt(1_000);
+        Prefs.setDistanceLowerLimit(lower);
+        Prefs.setDistanceUpperLimit(upper);
+
+        writer.updateDistanceLimits();
+        return "limits " + lower + ", " + upper;
+    }
+
+    // brute force
+
+    private void assertMatchesBruteForce(String message) {
+        ArrayList<long[]> exercises = new ArrayList<>();
+        ArrayList<Double> times = new ArrayList<>();
+
+        Cursor cursor = writer.db.query(ExerciseEntry.TABLE_NAME, new String[] { ExerciseEntry._ID,
+            ExerciseEntry.COLUMN_ROUTE_ID, ExerciseEntry.COLUMN_EFFECTIVE_DISTANCE, ExerciseEntry.COLUMN_TIME },
+            null, null, null, null, null);
+        while (cursor.moveToNext()) {
+            exercises.add(new long[] { cursor.getLong(0), cursor.getLong(1), cursor.getLong(2) });
+            times.add(cursor.getDouble(3));
+        }
+        cursor.close();
+
+        assertRouteSummaries(message, exercises, times);
+        assertDistanceBests(message, exercises, times);
+        assertRecords(message, exercises, times);
+    }
+
+    private void assertRouteSummaries(String message, ArrayList<long[]> exercises, ArrayList<Double> times) {
+        Cursor cursor = writer.db.query(RouteEntry.TABLE_NAME, new String[] { RouteEntry._ID,
+            RouteEntry.COLUMN_AMOUNT, RouteEntry.COLUMN_AVG_DISTANCE, RouteEntry.COLUMN_BEST_PACE },
+            null, null, null, null, null);
+
+        while (cursor.moveToNext()) {
+            long routeId = cursor.getLong(0);
+            int amount = 0;
+            long distanceSum = 0;
+            Double bestPace = null;
+
+            for (int i = 0; i < exercises.size(); i++) {
+                long[] e = exercises.get(i);
+                if (e[1] != routeId) continue;
+
+                amount++;
+                distanceSum += e[2];
+                if (times.get(i) > 0 && e[2] > 0) bestPace = min(bestPace, times.get(i) / e[2] * 1000);
+            }
+
+            String route = message + ": route " + routeId;
+            assertEquals(route + " amount", amount, cursor.getInt(1));
+            assertNullableEquals(route + " avg distance", amount != 0 ? (double) distanceSum / amount : null,
+                cursor, 2);
+            assertNullableEquals(route + " best pace", bestPace, cursor, 3);
+        }
+        cursor.close();
+    }
+
+    private void assertDistanceBests(String message, ArrayList<long[]> exercises, ArrayList<Double> times) {
+        Cursor cursor = writer.db.query(DistanceEntry.TABLE_NAME, new String[] { DistanceEntry.COLUMN_DISTANCE,
+            DistanceEntry.COLUMN_BEST_TIME, DistanceEntry.COLUMN_BEST_PACE }, null, null, null, null, null);
+
+        while (cursor.moveToNext()) {
+            int distance = cursor.getInt(0);
+            Double bestTime = null;
+            Double bestPace = null;
+
+            for (int i = 0; i < exercises.size(); i++) {
+                long effectiveDistance = exercises.get(i)[2];
+                double time = times.get(i);
+                if (time == 0 || effectiveDistance <= 0 || effectiveDistance < distance - getLowerLimit()) continue;
+
+                bestPace = min(bestPace, 1000 * time / effectiveDistance);
+                if (effectiveDistance <= distance + getUpperLimit()) bestTime = min(bestTime, time);
+            }
+
+            String ofDistance = message + ": distance " + distance;
+            assertNullableEquals(ofDistance + " best time", bestTime, cursor, 1);
+            assertNullableEquals(ofDistance + " best pace", bestPace, cursor, 2);
+        }
+        cursor.close();
+    }
+
+    private void assertRecords(String message, ArrayList<long[]> exercises, ArrayList<Double> times) {
+        // groups by kind and key, holding the ids of the records by rank
+        TreeMap<String, ArrayList<Long>> expected = new TreeMap<>();
+
+        HashSet<Long> routeIds = new HashSet<>();
+        for (long[] e : exercises) routeIds.add(e[1]);
+        for (long routeId : routeIds) {
+            putGroup(expected, RecordEntry.KIND_ROUTE, routeId, exercises, times, e -> e[1] == routeId);
+        }
+        for (int distance : distances) {
+            putGroup(expected, RecordEntry.KIND_DISTANCE, distance, exercises, times,
+                e -> e[2] >= distance - getLowerLimit());
+        }
+
+        TreeMap<String, ArrayList<Long>> actual = new TreeMap<>();
+        Cursor cursor = writer.db.query(RecordEntry.TABLE_NAME, new String[] { RecordEntry.COLUMN_KIND,
+            RecordEntry.COLUMN_GROUP_KEY, RecordEntry.COLUMN_EXERCISE_ID }, null, null, null, null,
+            RecordEntry.COLUMN_KIND + ", " + RecordEntry.COLUMN_GROUP_KEY + ", " + RecordEntry.COLUMN_RANK);
+        while (cursor.moveToNext()) {
+            String group = cursor.getInt(0) + ":" + cursor.getLong(1);
+            if (!actual.containsKey(group)) actual.put(group, new ArrayList<>());
+            actual.get(group).add(cursor.getLong(2));
+        }
+        cursor.close();
+
+        assertEquals(message + ": records", expected, actual);
+
+        // ranks are consecutive from 1
+        cursor = writer.db.rawQuery("SELECT count(*) FROM " + RecordEntry.TABLE_NAME + " AS r WHERE r." +
+            RecordEntry.COLUMN_RANK + " != (SELECT count(*) FROM " + RecordEntry.TABLE_NAME + " AS r2 WHERE r2." +
+            RecordEntry.COLUMN_KIND + " = r." + RecordEntry.COLUMN_KIND + " AND r2." + RecordEntry.COLUMN_GROUP_KEY +
+            " = r." + RecordEntry.COLUMN_GROUP_KEY + " AND r2." + RecordEntry.COLUMN_RANK + " <= r." +
+            RecordEntry.COLUMN_RANK + ")", null);
+        cursor.moveToFirst();
+        assertEquals(message + ": ranks", 0, cursor.getInt(0));
+        cursor.close();
+    }
+
+    /**
+     * Puts the ids of the {@link RecordEntry#RANKS} fastest exercises of a group, ordered by pace and then id, unless
+     * none of the group has a pace.
+     */
+    private static void putGroup(TreeMap<String, ArrayList<Long>> groups, int kind, long key,
+        ArrayList<long[]> exercises, ArrayList<Double> times, Member member) {
+
+        ArrayList<double[]> paces = new ArrayList<>();
+        for (int i = 0; i < exercises.size(); i++) {
+            long[] e = exercises.get(i);
+            if (times.get(i) == 0 || e[2] == 0 || !member.isIn(e)) continue;
+            paces.add(new double[] { 1000 * (times.get(i) / e[2]), e[0] });
+        }
+        if (paces.isEmpty()) return;
+
+        Collections.sort(paces, (p1, p2) -> p1[0] != p2[0] ? Double.compare(p1[0], p2[0])
+            : Double.compare(p1[1], p2[1]));
+
+        ArrayList<Long> ids = new ArrayList<>();
+        for (int i = 0; i < Math.min(RecordEntry.RANKS, paces.size()); i++) ids.add((long) paces.get(i)[1]);
+        groups.put(kind + ":" + key, ids);
+    }
+
+    // tools
+
+    private int randomDistance() {
+        return random.nextInt(6) == 0 ? Exercise.DISTANCE_DRIVEN : 500 + random.nextInt(22_000);
+    }
+
+    private float randomTime() {
+        return random.nextInt(10) == 0 ? 0 : 300 + random.nextInt(7_200);
+    }
+
+    private String randomRoute() {
+        return "Route " + random.nextInt(ROUTE_COUNT);
+    }
+
+    private String randomRouteVar() {
+        return random.nextBoolean() ? "" : "Var";
+    }
+
+    private String randomType() {
+        return TYPES[random.nextInt(TYPES.length)];
+    }
+
+    private static int getLowerLimit() {
+        return Prefs.getDistanceLowerLimit();
+    }
+
+    private static int getUpperLimit() {
+        return Prefs.getDistanceUpperLimit();
+    }
+
+    private static Double min(Double current, double value) {
+        return current == null || value < current ? value : current;
+    }
+
+    private static void assertNullableEquals(String message, Double expected, Cursor cursor, int column) {
+        if (expected == null) assertTrue(message + " is not null", cursor.isNull(column));
+        else assertEquals(message, expected, cursor.getDouble(column), DELTA * Math.max(1, expected));
+    }
+
+    private interface Member {
+
+        boolean isIn(long[] exercise);
+
+    }
+
+}
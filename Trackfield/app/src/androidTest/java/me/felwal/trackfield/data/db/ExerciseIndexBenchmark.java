@@ -0,0 +1,220 @@
+package me.felwal.trackfield.data.db;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.time.LocalDateTime;
+
+import me.felwal.trackfield.data.db.DbContract.ExerciseEntry;
+import me.felwal.trackfield.data.db.DbContract.RouteEntry;
+import me.felwal.trackfield.utils.DateUtils;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Times the queries the indices of database version 3 were matched to, on a large synthetic dataset, first without
+ * and then with the indices. Runs on an in-memory database, so that the database of the app under test is untouched.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ExerciseIndexBenchmark {
+
+    private static final String TAG = "ExerciseIndexBenchmark";
+
+    private static final int EXERCISE_COUNT = 100_000;
+    private static final int ROUTE_COUNT = 2_000;
+    private static final int ROUNDS = 50;
+
+    private static final String[] QUERY_NAMES = {
+        "route_id = ? ORDER BY date",
+        "strava_id = ?",
+        "date range ORDER BY date",
+        "effective_distance range",
+        "first 50 by date",
+        "routes.name = ?"
+    };
+
+    private static final LocalDateTime START = LocalDateTime.of(2000, 1, 1, 12, 0);
+
+    private SQLiteDatabase db;
+
+    @Before
+    public void setUp() {
+        db = SQLiteDatabase.create(null);
+        db.execSQL(ExerciseEntry.CREATE_TABLE);
+        db.execSQL(RouteEntry.CREATE_TABLE);
+        insertSyntheticData();
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void indices_speedUpReaderQueries() {
+        long[] rowsBefore = new long[QUERY_NAMES.length];
+        long[] nanosBefore = new long[QUERY_NAMES.length];
+        long[] rowsAfter = new long[QUERY_NAMES.length];
+        long[] nanosAfter = new long[QUERY_NAMES.length];
+
+        timeQueries(rowsBefore, nanosBefore);
+
+        for (String createIndex : ExerciseEntry.CREATE_INDICES) {
+            db.execSQL(createIndex);
+        }
+        db.execSQL(RouteEntry.CREATE_INDEX_NAME);
+        db.execSQL("ANALYZE");
+
+        timeQueries(rowsAfter, nanosAfter);
+
+        for (int i = 0; i < QUERY_NAMES.length; i++) {
+            Log.i(TAG, QUERY_NAMES[i] + ": " + millis(nanosBefore[i]) + " ms -> " + millis(nanosAfter[i]) + " ms");
+        }
+
+        // the indices may only change the plans, not the results
+        for (int i = 0; i < QUERY_NAMES.length; i++) {
+            assertEquals(QUERY_NAMES[i], rowsBefore[i], rowsAfter[i]);
+        }
+    }
+
+    // time
+
+    /**
+     * Runs every query {@link #ROUNDS} times.
+     *
+     * @param rows Filled with the rows read per run of each query
+     * @param nanos Filled with the mean duration of each query
+     */
+    private void timeQueries(long[] rows, long[] nanos) {
+        for (int i = 0; i < QUERY_NAMES.length; i++) {
+            // warm up the page cache and the statement cache
+            rows[i] = runQuery(i, 0);
+
+            long start = System.nanoTime();
+            for (int round = 0; round < ROUNDS; round++) {
+                runQuery(i, round);
+            }
+            nanos[i] = (System.nanoTime() - start) / ROUNDS;
+        }
+    }
+
+    /**
+     * @param round Varies the arguments between runs, so that no single lookup is favored; 0 gives the reference run
+     * @return The number of rows read
+     */
+    private long runQuery(int query, int round) {
+        String exerlite = ExerciseEntry.toString(ExerciseEntry.COLUMNS_EXERLITE);
+
+        switch (query) {
+            case 0:
+                return count("SELECT " + exerlite + " FROM " + ExerciseEntry.TABLE_NAME +
+                    " WHERE " + ExerciseEntry.COLUMN_ROUTE_ID + " = ?" +
+                    " ORDER BY " + ExerciseEntry.COLUMN_DATE + " DESC", (round * 37) % ROUTE_COUNT + 1);
+            case 1:
+                return count("SELECT " + ExerciseEntry._ID + " FROM " + ExerciseEntry.TABLE_NAME +
+                    " WHERE " + ExerciseEntry.COLUMN_STRAVA_ID + " = ?", stravaId((round * 7919) % EXERCISE_COUNT));
+            case 2:
+                long from = epochSecond((round * 997) % (EXERCISE_COUNT - 365));
+                return count("SELECT " + exerlite + " FROM " + ExerciseEntry.TABLE_NAME +
+                    " WHERE " + ExerciseEntry.COLUMN_DATE + " BETWEEN ? AND ?" +
+                    " ORDER BY " + ExerciseEntry.COLUMN_DATE + " DESC", from, from + 365L * 24 * 60 * 60);
+            case 3:
+                int min = 3_000 + (round * 13) % 6_000;
+                return count("SELECT " + exerlite + " FROM " + ExerciseEntry.TABLE_NAME +
+                    " WHERE " + ExerciseEntry.COLUMN_EFFECTIVE_DISTANCE + " >= ?" +
+                    " AND " + ExerciseEntry.COLUMN_EFFECTIVE_DISTANCE + " <= ?", min, min + 50);
+            case 4:
+                return count("SELECT " + exerlite + " FROM " + ExerciseEntry.TABLE_NAME +
+                    " ORDER BY " + ExerciseEntry.COLUMN_DATE + " DESC LIMIT 50");
+            case 5:
+            default:
+                return count("SELECT " + RouteEntry._ID + " FROM " + RouteEntry.TABLE_NAME +
+                    " WHERE " + RouteEntry.COLUMN_NAME + " = ?", routeName((round * 37) % ROUTE_COUNT));
+        }
+    }
+
+    // build
+
+    private void insertSyntheticData() {
+        db.beginTransaction();
+        try {
+            SQLiteStatement insertRoute = db.compileStatement("INSERT INTO " + RouteEntry.TABLE_NAME + " (" +
+                RouteEntry._ID + ", " + RouteEntry.COLUMN_NAME + ") VALUES (?, ?)");
+            for (int i = 0; i < ROUTE_COUNT; i++) {
+                insertRoute.bindLong(1, i + 1);
+                insertRoute.bindString(2, routeName(i));
+                insertRoute.executeInsert();
+            }
+
+            SQLiteStatement insertExercise = db.compileStatement("INSERT INTO " + ExerciseEntry.TABLE_NAME + " (" +
+                ExerciseEntry.COLUMN_STRAVA_ID + ", " + ExerciseEntry.COLUMN_TYPE + ", " +
+                ExerciseEntry.COLUMN_DATE + ", " + ExerciseEntry.COLUMN_ROUTE_ID + ", " +
+                ExerciseEntry.COLUMN_ROUTE_VAR + ", " + ExerciseEntry.COLUMN_INTERVAL + ", " +
+                ExerciseEntry.COLUMN_DISTANCE + ", " + ExerciseEntry.COLUMN_EFFECTIVE_DISTANCE + ", " +
+                ExerciseEntry.COLUMN_TIME + ", " + ExerciseEntry.COLUMN_START_LAT + ", " +
+                ExerciseEntry.COLUMN_START_LNG + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+            for (int i = 0; i < EXERCISE_COUNT; i++) {
+                int distance = 3_000 + (i * 7919 % 7_000);
+                insertExercise.bindLong(1, stravaId(i));
+                insertExercise.bindString(2, "Run");
+                insertExercise.bindLong(3, epochSecond(i));
+                insertExercise.bindLong(4, (i * 31) % ROUTE_COUNT + 1);
+                insertExercise.bindString(5, "");
+                insertExercise.bindString(6, "");
+                insertExercise.bindLong(7, distance);
+                insertExercise.bindLong(8, distance);
+                insertExercise.bindDouble(9, distance * 0.3);
+                insertExercise.bindDouble(10, 59.3 + (i % 100) * 0.001);
+                insertExercise.bindDouble(11, 18.0 + (i % 100) * 0.001);
+                insertExercise.executeInsert();
+            }
+
+            db.setTransactionSuccessful();
+        }
+        finally {
+            db.endTransaction();
+        }
+    }
+
+    // tools
+
+    private long count(String sql, Object... args) {
+        String[] selectionArgs = new String[args.length];
+        for (int i = 0; i < args.length; i++) {
+            selectionArgs[i] = String.valueOf(args[i]);
+        }
+
+        long rows = 0;
+        try (Cursor cursor = db.rawQuery(sql, selectionArgs)) {
+            while (cursor.moveToNext()) rows++;
+        }
+        return rows;
+    }
+
+    private static long stravaId(int i) {
+        return 1_000_000_000L + i;
+    }
+
+    private static long epochSecond(int i) {
+        // one exercise per day
+        return DateUtils.toEpochSecond(START.plusDays(i));
+    }
+
+    private static String routeName(int i) {
+        return "Route " + i;
+    }
+
+    private static String millis(long nanos) {
+        return String.valueOf(nanos / 1000 / 1000f);
+    }
+
+}
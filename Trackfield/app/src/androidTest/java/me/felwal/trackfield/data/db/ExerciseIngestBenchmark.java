@@ -0,0 +1,105 @@
+package me.felwal.trackfield.data.db;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+
+import me.felwal.trackfield.data.db.DbContract.ExerciseEntry;
+import me.felwal.trackfield.data.db.model.Exercise;
+import me.felwal.trackfield.data.db.model.Route;
+import me.felwal.trackfield.data.prefs.Prefs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the throughput of adding 1,000 exercises one by one with {@link DbWriter#addExercise(Exercise, Context)}
+ * and in bulk with {@link DbWriter#addExercises(ArrayList)}, and reports it. Each run writes to an in-memory database
+ * of its own, so that the database of the app under test is untouched.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ExerciseIngestBenchmark {
+
+    private static final String TAG = "ExerciseIngestBenchmark";
+
+    private static final int EXERCISE_COUNT = 1_000;
+    private static final int ROUTE_COUNT = 50;
+    // every nth exercise is driven, so that effective distances are resolved
+    private static final int DRIVEN_EVERY = 5;
+
+    private Context c;
+
+    @Before
+    public void setUp() {
+        c = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        Prefs.setUpAndLoad(c);
+    }
+
+    @Test
+    public void addExercises_matchesLoop() {
+        DbWriter loopWriter = new DbWriter(c, null);
+        long loopStart = System.nanoTime();
+        for (Exercise e : buildExercises()) {
+            loopWriter.addExercise(e, c);
+        }
+        long loopNanos = System.nanoTime() - loopStart;
+
+        DbWriter bulkWriter = new DbWriter(c, null);
+        long bulkStart = System.nanoTime();
+        assertTrue(bulkWriter.addExercises(buildExercises()));
+        long bulkNanos = System.nanoTime() - bulkStart;
+
+        Log.i(TAG, "ingest of " + EXERCISE_COUNT + " exercises: loop " + perSecond(loopNanos) + " /s, bulk " +
+            perSecond(bulkNanos) + " /s");
+
+        // same result, driven distances included
+        assertEquals(EXERCISE_COUNT, countExercises(bulkWriter));
+        assertEquals(countExercises(loopWriter), countExercises(bulkWriter));
+        assertEquals(sumEffectiveDistance(loopWriter), sumEffectiveDistance(bulkWriter));
+
+        loopWriter.close();
+        bulkWriter.close();
+    }
+
+    // build
+
+    private static ArrayList<Exercise> buildExercises() {
+        ArrayList<Exercise> exercises = new ArrayList<>();
+        LocalDateTime start = LocalDateTime.of(2015, 1, 1, 12, 0);
+
+        for (int i = 0; i < EXERCISE_COUNT; i++) {
+            int distance = i % DRIVEN_EVERY == 0 ? Exercise.DISTANCE_DRIVEN : 3_000 + (i * 7919 % 7_000);
+            exercises.add(new Exercise(Exercise.ID_NONE, Exercise.ID_NONE, Exercise.ID_NONE, "Run", "",
+                start.plusDays(i), Route.ID_NON_EXISTANT, "Route " + (i % ROUTE_COUNT), "", "", "", "", "",
+                distance, 1_200 + (i % 600), 0, null, false));
+        }
+
+        return exercises;
+    }
+
+    // tools
+
+    private static long countExercises(DbWriter writer) {
+        return DatabaseUtils.queryNumEntries(writer.db, ExerciseEntry.TABLE_NAME);
+    }
+
+    private static long sumEffectiveDistance(DbWriter writer) {
+        return DatabaseUtils.longForQuery(writer.db, "SELECT total(" +
+            ExerciseEntry.COLUMN_EFFECTIVE_DISTANCE + ") FROM " + ExerciseEntry.TABLE_NAME, null);
+    }
+
+    private static long perSecond(long nanos) {
+        return EXERCISE_COUNT * 1_000_000_000L / Math.max(nanos, 1);
+    }
+
+}
@@ -0,0 +1,207 @@
+package me.felwal.trackfield.data.db;
+
+import androidx.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * What a committed write changed, as published by {@link DbWriter} once per outermost transaction. Exercises are
+ * listed by id as inserted, updated or deleted; routes and places by the ids, and distances by the lengths, of those
+ * touched. Writes that may change anything, such as recreating the database or rebuilding derived data, are published
+ * as {@link #isAll()}.
+ * <p>Every exercise change also touches the routes of the exercise, which are listed, and the bests of distances and
+ * exercises of places, which are not; subscribers to those should treat any exercise change as touching them.</p>
+ *
+ * @see DbWriter#addChangeListener(Listener)
+ */
+public class DbChange {
+
+    private final boolean all;
+    private final Set<Integer> insertedExercises;
+    private final Set<Integer> updatedExercises;
+    private final Set<Integer> deletedExercises;
+    private final Set<Integer> routes;
+    private final Set<Integer> places;
+    private final Set<Integer> distances;
+
+    //
+
+    private DbChange(@NonNull Builder builder) {
+        all = builder.all;
+        insertedExercises = Collections.unmodifiableSet(builder.insertedExercises);
+        updatedExercises = Collections.unmodifiableSet(builder.updatedExercises);
+        deletedExercises = Collections.unmodifiableSet(builder.deletedExercises);
+        routes = Collections.unmodifiableSet(builder.routes);
+        places = Collections.unmodifiableSet(builder.places);
+        distances = Collections.unmodifiableSet(builder.distances);
+    }
+
+    // get
+
+    /**
+     * @return True if anything may have changed, in which case the sets are not exhaustive
+     */
+    public boolean isAll() {
+        return all;
+    }
+
+    @NonNull
+    public Set<Integer> getInsertedExercises() {
+        return insertedExercises;
+    }
+
+    @NonNull
+    public Set<Integer> getUpdatedExercises() {
+        return updatedExercises;
+    }
+
+    @NonNull
+    public Set<Integer> getDeletedExercises() {
+        return deletedExercises;
+    }
+
+    // has
+
+    public boolean hasExercises() {
+        return all || !insertedExercises.isEmpty() || !updatedExercises.isEmpty() || !deletedExercises.isEmpty();
+    }
+
+    /**
+     * @return True if exercises were only updated, none of them inserted or deleted
+     */
+    public boolean hasOnlyUpdatedExercises() {
+        return !all && insertedExercises.isEmpty() && deletedExercises.isEmpty();
+    }
+
+    public boolean hasRoutes() {
+        return all || !routes.isEmpty();
+    }
+
+    public boolean hasPlaces() {
+        return all || !places.isEmpty();
+    }
+
+    public boolean hasDistances() {
+        return all || !distances.isEmpty();
+    }
+
+    // touches
+
+    public boolean touchesExercise(int exerciseId) {
+        return all || insertedExercises.contains(exerciseId) || updatedExercises.contains(exerciseId)
+            || deletedExercises.contains(exerciseId);
+    }
+
+    public boolean touchesRoute(int routeId) {
+        return all || routes.contains(routeId);
+    }
+
+    public boolean touchesPlace(int placeId) {
+        return all || places.contains(placeId);
+    }
+
+    /**
+     * @param distance The length of the distance
+     */
+    public boolean touchesDistance(int distance) {
+        return all || distances.contains(distance);
+    }
+
+    // builder
+
+    /**
+     * Collects the changes of a transaction. An exercise inserted and then updated is listed as inserted, and one
+     * inserted and then deleted is not listed at all.
+     */
+    static class Builder {
+
+        private boolean all = false;
+        private Set<Integer> insertedExercises = new HashSet<>();
+        private Set<Integer> updatedExercises = new HashSet<>();
+        private Set<Integer> deletedExercises = new HashSet<>();
+        private Set<Integer> routes = new HashSet<>();
+        private Set<Integer> places = new HashSet<>();
+        private Set<Integer> distances = new HashSet<>();
+
+        Builder all() {
+            all = true;
+            return this;
+        }
+
+        Builder insertExercise(int exerciseId) {
+            insertedExercises.add(exerciseId);
+            return this;
+        }
+
+        Builder updateExercise(int exerciseId) {
+            if (!insertedExercises.contains(exerciseId)) updatedExercises.add(exerciseId);
+            return this;
+        }
+
+        Builder deleteExercise(int exerciseId) {
+            if (!insertedExercises.remove(exerciseId)) {
+                updatedExercises.remove(exerciseId);
+                deletedExercises.add(exerciseId);
+            }
+            return this;
+        }
+
+        Builder touchRoute(int routeId) {
+            routes.add(routeId);
+            return this;
+        }
+
+        Builder touchPlace(int placeId) {
+            places.add(placeId);
+            return this;
+        }
+
+        Builder touchDistance(int distance) {
+            distances.add(distance);
+            return this;
+        }
+
+        boolean isEmpty() {
+            return !all && insertedExercises.isEmpty() && updatedExercises.isEmpty() && deletedExercises.isEmpty()
+                && routes.isEmpty() && places.isEmpty() && distances.isEmpty();
+        }
+
+        /**
+         * Builds the change, and clears the builder for the next transaction.
+         */
+        @NonNull
+        DbChange build() {
+            DbChange change = new DbChange(this);
+            clear();
+            return change;
+        }
+
+        /**
+         * Clears the builder, e.g. of what a rolled back transaction recorded.
+         */
+        void clear() {
+            all = false;
+            insertedExercises = new HashSet<>();
+            updatedExercises = new HashSet<>();
+            deletedExercises = new HashSet<>();
+            routes = new HashSet<>();
+            places = new HashSet<>();
+            distances = new HashSet<>();
+        }
+
+    }
+
+    // interface
+
+    public interface Listener {
+
+        /**
+         * Called on the main thread once a write has been committed.
+         */
+        void onDbChange(@NonNull DbChange change);
+
+    }
+
+}
@@ -2,6 +2,11 @@ package me.felwal.trackfield.data.db;
 
 import android.provider.BaseColumns;
 
+import androidx.annotation.Nullable;
+
+import me.felwal.trackfield.data.db.model.Exercise;
+import me.felwal.trackfield.data.db.model.Route;
+import me.felwal.trackfield.data.prefs.Prefs;
 import me.felwal.trackfield.ui.common.model.SorterItem;
 
 public final class DbContract {
@@ -74,6 +79,27 @@ public final class DbContract {
             COLUMN_POLYLINE + " TEXT," +
             COLUMN_TRAIL_HIDDEN + " INTEGER)";
 
+        // indices, matched to the predicates and orderings used in DbReader
+
+        public static final String INDEX_ROUTE = "idx_" + TABLE_NAME + "_" + COLUMN_ROUTE_ID;
+        public static final String INDEX_STRAVA_ID = "idx_" + TABLE_NAME + "_" + COLUMN_STRAVA_ID;
+        public static final String INDEX_EFFECTIVE_DISTANCE = "idx_" + TABLE_NAME + "_" + COLUMN_EFFECTIVE_DISTANCE;
+        public static final String INDEX_EXERLITE_BY_DATE = "idx_" + TABLE_NAME + "_exerlite_" + COLUMN_DATE;
+
+        /**
+         * Creates indices for route and routeVar lookups, strava id lookups, distance ranges and a covering index of
+         * {@link #COLUMNS_EXERLITE} ordered by date, which also serves date ranges. All are idempotent.
+         */
+        public static final String[] CREATE_INDICES = {
+            createIndex(INDEX_ROUTE, TABLE_NAME, COLUMN_ROUTE_ID, COLUMN_ROUTE_VAR),
+            createIndex(INDEX_STRAVA_ID, TABLE_NAME, COLUMN_STRAVA_ID),
+            createIndex(INDEX_EFFECTIVE_DISTANCE, TABLE_NAME, COLUMN_EFFECTIVE_DISTANCE),
+            // _id is the rowid and thus implicitly part of every index
+            createIndex(INDEX_EXERLITE_BY_DATE, TABLE_NAME, COLUMN_DATE, COLUMN_TYPE, COLUMN_ROUTE_ID,
+                COLUMN_ROUTE_VAR, COLUMN_INTERVAL, COLUMN_DISTANCE, COLUMN_EFFECTIVE_DISTANCE, COLUMN_TIME,
+                COLUMN_START_LAT, COLUMN_START_LNG)
+        };
+
         public static final String ALTER_TO_VER_2 = "ALTER TABLE " + TABLE_NAME + " ADD COLUMN (" +
             COLUMN_STRAVA_ID + " INTEGER," +
             COLUMN_EFFECTIVE_DISTANCE + " INTEGER);";
@@ -97,24 +123,480 @@ public final class DbContract {
          * @see DbReader#orderBy(SorterItem.Mode, boolean)
          */
         public static String sortColumn(SorterItem.Mode sortMode) {
+            return toString(sortColumns(sortMode));
+        }
+
+        /**
+         * Converts a {@link SorterItem.Mode} to the terms of a SQL ORDER BY clause. All but the last term are sorted
+         * ascending; only the last is affected by sort order.
+         *
+         * @param sortMode Mode to sort by
+         * @return The terms, e.g. {"time=0", "time"}
+         *
+         * @see #sortColumn(SorterItem.Mode)
+         */
+        public static String[] sortColumns(SorterItem.Mode sortMode) {
             // column=0, column: sorts all with column = 0 last
             switch (sortMode) {
                 case DISTANCE:
-                    return COLUMN_EFFECTIVE_DISTANCE + "=0, " + COLUMN_EFFECTIVE_DISTANCE;
+                    return new String[] { COLUMN_EFFECTIVE_DISTANCE + "=0", COLUMN_EFFECTIVE_DISTANCE };
                 case TIME:
-                    return COLUMN_TIME + "=0, " + COLUMN_TIME;
+                    return new String[] { COLUMN_TIME + "=0", COLUMN_TIME };
                 case PACE:
-                    return COLUMN_TIME + "=0 OR " + COLUMN_EFFECTIVE_DISTANCE + "=0, " + SELECTION_PACE;
+                    return new String[] { COLUMN_TIME + "=0 OR " + COLUMN_EFFECTIVE_DISTANCE + "=0", SELECTION_PACE };
                 case NAME:
-                    return COLUMN_ROUTE;
+                    return new String[] { COLUMN_ROUTE };
                 case START_LAT:
-                    return COLUMN_START_LAT;
+                    return new String[] { COLUMN_START_LAT };
                 case START_LNG:
-                    return COLUMN_START_LNG;
+                    return new String[] { COLUMN_START_LNG };
                 case DATE:
                 default:
-                    return COLUMN_DATE;
+                    return new String[] { COLUMN_DATE };
+            }
+        }
+
+    }
+
+    /**
+     * Derived table holding the resolved driven distance of each (route, routeVar, type) that has driven exercises.
+     * Maintained by {@link DbWriter}; never written to directly.
+     */
+    public static class DrivenDistanceEntry {
+
+        public static final String TABLE_NAME = "driven_distances";
+        public static final String COLUMN_ROUTE_ID = "route_id";
+        public static final String COLUMN_ROUTE_VAR = "route_var";
+        public static final String COLUMN_TYPE = "type";
+        public static final String COLUMN_DISTANCE = "distance";
+
+        public static final String DELETE_TABLE = "DROP TABLE IF EXISTS " + TABLE_NAME;
+        public static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " (" +
+            COLUMN_ROUTE_ID + " INTEGER," +
+            COLUMN_ROUTE_VAR + " TEXT," +
+            COLUMN_TYPE + " TEXT," +
+            COLUMN_DISTANCE + " INTEGER," +
+            "PRIMARY KEY (" + COLUMN_ROUTE_ID + ", " + COLUMN_ROUTE_VAR + ", " + COLUMN_TYPE + "))";
+
+        /**
+         * Builds a set-based statement resolving the driven distance of every key with driven exercises. Mirrors the
+         * priority of {@link DbReader#getDrivenDistance(int, String, String)}:
+         * <ol>
+         *     <li>route and routevar and type</li>
+         *     <li>route and routevar</li>
+         *     <li>route and type</li>
+         *     <li>route</li>
+         * </ol>
+         *
+         * @param preferSameType Value of {@link Prefs#preferSameTypeWhenDriving()}
+         * @param fallBackToRoute Value of {@link Prefs#fallBackToRouteWhenDriving()}
+         * @param routeId Route to limit the statement to, or {@link Route#ID_NON_EXISTANT} for all routes
+         * @return The INSERT statement
+         */
+        public static String insertResolved(boolean preferSameType, boolean fallBackToRoute, int routeId) {
+            final String ex = ExerciseEntry.TABLE_NAME;
+            final String k = "k";
+
+            String byRouteVar = "(" + (fallBackToRoute ? 0 : 1) + " OR " +
+                existsNotDriven(k, true, false) + ")";
+            String byType = "(" + (preferSameType ? 1 : 0) + " AND ((" + byRouteVar + " AND " +
+                existsNotDriven(k, true, true) + ") OR " + existsNotDriven(k, false, true) + "))";
+
+            String resolved = "CAST(ifnull(CASE" +
+                " WHEN " + byRouteVar + " AND " + byType + " THEN " + avgNotDriven(k, true, true) +
+                " WHEN " + byRouteVar + " THEN " + avgNotDriven(k, true, false) +
+                " WHEN " + byType + " THEN " + avgNotDriven(k, false, true) +
+                " ELSE " + avgNotDriven(k, false, false) + " END, 0) AS INTEGER)";
+
+            return "INSERT OR REPLACE INTO " + TABLE_NAME +
+                " (" + COLUMN_ROUTE_ID + ", " + COLUMN_ROUTE_VAR + ", " + COLUMN_TYPE + ", " + COLUMN_DISTANCE + ")" +
+                " SELECT " + k + "." + ExerciseEntry.COLUMN_ROUTE_ID + ", " + k + "." + ExerciseEntry.COLUMN_ROUTE_VAR +
+                ", " + k + "." + ExerciseEntry.COLUMN_TYPE + ", " + resolved +
+                " FROM (SELECT DISTINCT " + ExerciseEntry.COLUMN_ROUTE_ID + ", " + ExerciseEntry.COLUMN_ROUTE_VAR +
+                ", " + ExerciseEntry.COLUMN_TYPE + " FROM " + ex +
+                " WHERE " + ExerciseEntry.COLUMN_DISTANCE + " = " + Exercise.DISTANCE_DRIVEN + routeFilter(routeId) +
+                ") AS " + k;
+        }
+
+        /**
+         * Builds a statement copying resolved driven distances into {@link ExerciseEntry#COLUMN_EFFECTIVE_DISTANCE}.
+         *
+         * @param routeId Route to limit the statement to, or {@link Route#ID_NON_EXISTANT} for all routes
+         * @return The UPDATE statement
+         */
+        public static String updateEffectiveDistances(int routeId) {
+            final String ex = ExerciseEntry.TABLE_NAME;
+
+            return "UPDATE " + ex + " SET " + ExerciseEntry.COLUMN_EFFECTIVE_DISTANCE + " = ifnull((" +
+                "SELECT " + COLUMN_DISTANCE + " FROM " + TABLE_NAME +
+                " WHERE " + TABLE_NAME + "." + COLUMN_ROUTE_ID + " = " + ex + "." + ExerciseEntry.COLUMN_ROUTE_ID +
+                " AND " + TABLE_NAME + "." + COLUMN_ROUTE_VAR + " = " + ex + "." + ExerciseEntry.COLUMN_ROUTE_VAR +
+                " AND " + TABLE_NAME + "." + COLUMN_TYPE + " = " + ex + "." + ExerciseEntry.COLUMN_TYPE + "), 0)" +
+                " WHERE " + ExerciseEntry.COLUMN_DISTANCE + " = " + Exercise.DISTANCE_DRIVEN + routeFilter(routeId);
+        }
+
+        public static String deleteResolved(int routeId) {
+            return "DELETE FROM " + TABLE_NAME +
+                (routeId != Route.ID_NON_EXISTANT ? " WHERE " + COLUMN_ROUTE_ID + " = " + routeId : "");
+        }
+
+        private static String routeFilter(int routeId) {
+            return routeId != Route.ID_NON_EXISTANT ? " AND " + ExerciseEntry.COLUMN_ROUTE_ID + " = " + routeId : "";
+        }
+
+        private static String notDrivenWhere(String keyAlias, boolean byRouteVar, boolean byType) {
+            final String e = "e";
+            return " FROM " + ExerciseEntry.TABLE_NAME + " AS " + e +
+                " WHERE " + col(e, ExerciseEntry.COLUMN_ROUTE_ID) + " = " +
+                col(keyAlias, ExerciseEntry.COLUMN_ROUTE_ID) +
+                (byRouteVar ? " AND " + col(e, ExerciseEntry.COLUMN_ROUTE_VAR) + " = " +
+                    col(keyAlias, ExerciseEntry.COLUMN_ROUTE_VAR) : "") +
+                (byType ? " AND " + col(e, ExerciseEntry.COLUMN_TYPE) + " = " +
+                    col(keyAlias, ExerciseEntry.COLUMN_TYPE) : "") +
+                " AND " + col(e, ExerciseEntry.COLUMN_DISTANCE) + " != " + Exercise.DISTANCE_DRIVEN;
+        }
+
+        private static String existsNotDriven(String keyAlias, boolean byRouteVar, boolean byType) {
+            return "EXISTS (SELECT 1" + notDrivenWhere(keyAlias, byRouteVar, byType) + ")";
+        }
+
+        private static String avgNotDriven(String keyAlias, boolean byRouteVar, boolean byType) {
+            return "(SELECT avg(" + col("e", ExerciseEntry.COLUMN_DISTANCE) + ")" +
+                notDrivenWhere(keyAlias, byRouteVar, byType) +
+                " AND " + col("e", ExerciseEntry.COLUMN_DISTANCE) + " != 0)";
+        }
+
+        private static String col(String table, String column) {
+            return table + "." + column;
+        }
+
+    }
+
+    /**
+     * Full-text index over the searchable text of {@link ExerciseEntry}, keyed by docid = exercise id. Kept in sync by
+     * triggers on the exercises table; never written to directly. The date is indexed as "yyyy-mm-dd", which the
+     * tokenizer splits into year, month and day.
+     */
+    public static class SearchEntry {
+
+        public static final String TABLE_NAME = "exercises_search";
+        public static final String COLUMN_DOCID = "docid";
+        public static final String COLUMN_DATE = ExerciseEntry.COLUMN_DATE;
+
+        /**
+         * The columns of {@link ExerciseEntry} indexed as is.
+         */
+        public static final String[] COLUMNS_TEXT = {
+            ExerciseEntry.COLUMN_ROUTE, ExerciseEntry.COLUMN_ROUTE_VAR, ExerciseEntry.COLUMN_INTERVAL,
+            ExerciseEntry.COLUMN_DEVICE, ExerciseEntry.COLUMN_RECORDING_METHOD, ExerciseEntry.COLUMN_NOTE,
+            ExerciseEntry.COLUMN_TYPE, ExerciseEntry.COLUMN_LABEL
+        };
+
+        private static final String TRIGGER_INSERT = "trg_" + TABLE_NAME + "_insert";
+        private static final String TRIGGER_UPDATE = "trg_" + TABLE_NAME + "_update";
+        private static final String TRIGGER_DELETE = "trg_" + TABLE_NAME + "_delete";
+
+        public static final String DELETE_TABLE = "DROP TABLE IF EXISTS " + TABLE_NAME;
+        public static final String CREATE_TABLE = "CREATE VIRTUAL TABLE IF NOT EXISTS " + TABLE_NAME + " USING fts4(" +
+            COLUMN_DATE + ", " + ExerciseEntry.toString(COLUMNS_TEXT) + ", tokenize=unicode61)";
+
+        /**
+         * Triggers mirroring inserts, deletes and updates of searchable columns. Updates of other columns, e.g. when
+         * effective distances are resolved, don't touch the index.
+         */
+        public static final String[] CREATE_TRIGGERS = {
+            "CREATE TRIGGER IF NOT EXISTS " + TRIGGER_INSERT + " AFTER INSERT ON " + ExerciseEntry.TABLE_NAME +
+                " BEGIN " + insertRow("new") + "; END",
+            "CREATE TRIGGER IF NOT EXISTS " + TRIGGER_UPDATE + " AFTER UPDATE OF " + COLUMN_DATE + ", " +
+                ExerciseEntry.toString(COLUMNS_TEXT) + " ON " + ExerciseEntry.TABLE_NAME +
+                " BEGIN " + deleteRow("old") + "; " + insertRow("new") + "; END",
+            "CREATE TRIGGER IF NOT EXISTS " + TRIGGER_DELETE + " AFTER DELETE ON " + ExerciseEntry.TABLE_NAME +
+                " BEGIN " + deleteRow("old") + "; END"
+        };
+
+        public static final String DELETE_ALL = "DELETE FROM " + TABLE_NAME;
+
+        /**
+         * Statement indexing all exercises, used when creating the index for an existing table.
+         */
+        public static final String INSERT_ALL = "INSERT INTO " + TABLE_NAME + " (" + COLUMN_DOCID + ", " +
+            COLUMN_DATE + ", " + ExerciseEntry.toString(COLUMNS_TEXT) + ") SELECT " + ExerciseEntry._ID + ", " +
+            dateText(ExerciseEntry.COLUMN_DATE) + ", " + ExerciseEntry.toString(COLUMNS_TEXT) +
+            " FROM " + ExerciseEntry.TABLE_NAME;
+
+        /**
+         * Converts a search string to an FTS query matching rows containing all of its words, the last of which may
+         * be incomplete. Any characters but letters and digits separate words, as in the tokenizer.
+         *
+         * @param search The search string as typed
+         * @return The MATCH query, or an empty string if the search contains no words
+         */
+        public static String matchQuery(String search) {
+            StringBuilder query = new StringBuilder();
+
+            for (String word : search.split("[^\\p{L}\\p{N}]+")) {
+                if (word.isEmpty()) continue;
+                if (query.length() > 0) query.append(" ");
+                // prefix match every word, quoted to not be taken for operators
+                query.append("\"").append(word).append("*\"");
             }
+            return query.toString();
+        }
+
+        private static String insertRow(String ref) {
+            StringBuilder values = new StringBuilder();
+            for (String column : COLUMNS_TEXT) values.append(", ").append(ref).append(".").append(column);
+
+            return "INSERT INTO " + TABLE_NAME + " (" + COLUMN_DOCID + ", " + COLUMN_DATE + ", " +
+                ExerciseEntry.toString(COLUMNS_TEXT) + ") VALUES (" + ref + "." + ExerciseEntry._ID + ", " +
+                dateText(ref + "." + ExerciseEntry.COLUMN_DATE) + values + ")";
+        }
+
+        private static String deleteRow(String ref) {
+            return "DELETE FROM " + TABLE_NAME + " WHERE " + COLUMN_DOCID + " = " + ref + "." + ExerciseEntry._ID;
+        }
+
+        private static String dateText(String dateColumn) {
+            // dates are stored as local date time in epoch seconds
+            return "strftime('%Y-%m-%d', " + dateColumn + ", 'unixepoch')";
+        }
+
+    }
+
+    /**
+     * Spatial index over the start and end points of {@link ExerciseEntry}, as degenerate boxes. Each exercise has up
+     * to two entries, with id 2 * exercise id for the start and 2 * exercise id + 1 for the end. Kept in sync by
+     * triggers on the exercises table; never written to directly.
+     *
+     * <p>Backed by an R*Tree if the rtree module is available, which is not guaranteed on all devices, and otherwise
+     * by a table indexed on latitude. Both are queried the same way.</p>
+     */
+    public static class PointEntry {
+
+        public static final String TABLE_NAME = "exercise_points";
+        public static final String COLUMN_ID = "id";
+        public static final String COLUMN_MIN_LAT = "min_lat";
+        public static final String COLUMN_MAX_LAT = "max_lat";
+        public static final String COLUMN_MIN_LNG = "min_lng";
+        public static final String COLUMN_MAX_LNG = "max_lng";
+
+        private static final String INDEX_LAT = "idx_" + TABLE_NAME + "_" + COLUMN_MIN_LAT;
+        private static final String TRIGGER_INSERT = "trg_" + TABLE_NAME + "_insert";
+        private static final String TRIGGER_UPDATE = "trg_" + TABLE_NAME + "_update";
+        private static final String TRIGGER_DELETE = "trg_" + TABLE_NAME + "_delete";
+
+        public static final String DELETE_TABLE = "DROP TABLE IF EXISTS " + TABLE_NAME;
+        public static final String CREATE_TABLE_RTREE = "CREATE VIRTUAL TABLE IF NOT EXISTS " + TABLE_NAME +
+            " USING rtree(" + COLUMN_ID + ", " + COLUMN_MIN_LAT + ", " + COLUMN_MAX_LAT + ", " +
+            COLUMN_MIN_LNG + ", " + COLUMN_MAX_LNG + ")";
+
+        /**
+         * Fallback for when the rtree module is unavailable.
+         */
+        public static final String[] CREATE_TABLE_INDEXED = {
+            "CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " (" +
+                COLUMN_ID + " INTEGER PRIMARY KEY," +
+                COLUMN_MIN_LAT + " REAL," +
+                COLUMN_MAX_LAT + " REAL," +
+                COLUMN_MIN_LNG + " REAL," +
+                COLUMN_MAX_LNG + " REAL)",
+            createIndex(INDEX_LAT, TABLE_NAME, COLUMN_MIN_LAT, COLUMN_MIN_LNG)
+        };
+
+        public static final String[] CREATE_TRIGGERS = {
+            "CREATE TRIGGER IF NOT EXISTS " + TRIGGER_INSERT + " AFTER INSERT ON " + ExerciseEntry.TABLE_NAME +
+                " BEGIN " + insertPoints("new") + " END",
+            "CREATE TRIGGER IF NOT EXISTS " + TRIGGER_UPDATE + " AFTER UPDATE OF " +
+                ExerciseEntry.COLUMN_START_LAT + ", " + ExerciseEntry.COLUMN_START_LNG + ", " +
+                ExerciseEntry.COLUMN_END_LAT + ", " + ExerciseEntry.COLUMN_END_LNG + " ON " + ExerciseEntry.TABLE_NAME +
+                " BEGIN " + deletePoints("old") + " " + insertPoints("new") + " END",
+            "CREATE TRIGGER IF NOT EXISTS " + TRIGGER_DELETE + " AFTER DELETE ON " + ExerciseEntry.TABLE_NAME +
+                " BEGIN " + deletePoints("old") + " END"
+        };
+
+        public static final String DELETE_ALL = "DELETE FROM " + TABLE_NAME;
+
+        /**
+         * Statements indexing all exercises, used when creating the index for an existing table.
+         */
+        public static final String[] INSERT_ALL = {
+            insertPoint(ExerciseEntry.TABLE_NAME, ExerciseEntry.TABLE_NAME, ExerciseEntry.COLUMN_START_LAT,
+                ExerciseEntry.COLUMN_START_LNG, 0),
+            insertPoint(ExerciseEntry.TABLE_NAME, ExerciseEntry.TABLE_NAME, ExerciseEntry.COLUMN_END_LAT,
+                ExerciseEntry.COLUMN_END_LNG, 1)
+        };
+
+        /**
+         * Builds a subquery of the ids of exercises with a start or end point inside the bounding box.
+         *
+         * @return The SELECT statement, binding south, north, west and east in that order
+         */
+        public static String selectExerciseIdsInBounds() {
+            return "SELECT " + COLUMN_ID + " / 2 FROM " + TABLE_NAME +
+                " WHERE " + COLUMN_MAX_LAT + " >= ? AND " + COLUMN_MIN_LAT + " <= ?" +
+                " AND " + COLUMN_MAX_LNG + " >= ? AND " + COLUMN_MIN_LNG + " <= ?";
+        }
+
+        private static String insertPoints(String ref) {
+            return insertPoint(null, ref, ExerciseEntry.COLUMN_START_LAT, ExerciseEntry.COLUMN_START_LNG, 0) + "; " +
+                insertPoint(null, ref, ExerciseEntry.COLUMN_END_LAT, ExerciseEntry.COLUMN_END_LNG, 1) + ";";
+        }
+
+        /**
+         * @param fromTable Table to select from, or null to select from the row of a trigger
+         * @param ref Table or trigger row reference, e.g. "new"
+         * @param offset 0 for start points and 1 for end points
+         */
+        private static String insertPoint(@Nullable String fromTable, String ref, String latColumn, String lngColumn,
+            int offset) {
+
+            String lat = ref + "." + latColumn;
+            String lng = ref + "." + lngColumn;
+
+            return "INSERT INTO " + TABLE_NAME + " (" + COLUMN_ID + ", " + COLUMN_MIN_LAT + ", " +
+                COLUMN_MAX_LAT + ", " + COLUMN_MIN_LNG + ", " + COLUMN_MAX_LNG + ")" +
+                " SELECT " + ref + "." + ExerciseEntry._ID + " * 2 + " + offset + ", " +
+                lat + ", " + lat + ", " + lng + ", " + lng +
+                (fromTable != null ? " FROM " + fromTable : "") +
+                " WHERE " + lat + " IS NOT NULL AND " + lng + " IS NOT NULL";
+        }
+
+        private static String deletePoints(String ref) {
+            String id = ref + "." + ExerciseEntry._ID;
+            return "DELETE FROM " + TABLE_NAME + " WHERE " + COLUMN_ID + " IN (" + id + " * 2, " + id + " * 2 + 1);";
+        }
+
+    }
+
+    public static class DailyTotalEntry {
+
+        public static final String TABLE_NAME = "daily_totals";
+        public static final String COLUMN_DAY = "day";
+        public static final String COLUMN_TYPE = "type";
+        public static final String COLUMN_LABEL = "label";
+        public static final String COLUMN_DISTANCE = "distance";
+        public static final String COLUMN_TIME = "time";
+        public static final String COLUMN_COUNT = "count";
+        private static final String COLUMNS = COLUMN_DAY + ", " + COLUMN_TYPE + ", " + COLUMN_LABEL + ", " +
+            COLUMN_DISTANCE + ", " + COLUMN_TIME + ", " + COLUMN_COUNT;
+
+        private static final String INDEX_DAY = "idx_" + TABLE_NAME + "_" + COLUMN_DAY;
+        private static final String TRIGGER_INSERT = "trg_" + TABLE_NAME + "_insert";
+        private static final String TRIGGER_UPDATE = "trg_" + TABLE_NAME + "_update";
+        private static final String TRIGGER_DELETE = "trg_" + TABLE_NAME + "_delete";
+
+        private static final int SECONDS_PER_DAY = 86400;
+
+        public static final String DELETE_TABLE = "DROP TABLE IF EXISTS " + TABLE_NAME;
+        public static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " (" +
+            COLUMN_DAY + " INTEGER," +
+            COLUMN_TYPE + " TEXT," +
+            COLUMN_LABEL + " TEXT," +
+            COLUMN_DISTANCE + " INTEGER," +
+            COLUMN_TIME + " REAL," +
+            COLUMN_COUNT + " INTEGER)";
+        public static final String CREATE_INDEX_DAY =
+            createIndex(INDEX_DAY, TABLE_NAME, COLUMN_DAY, COLUMN_TYPE, COLUMN_LABEL);
+
+        // type and label are matched with IS, so that rows with null values are also kept unique
+        public static final String[] CREATE_TRIGGERS = {
+            "CREATE TRIGGER IF NOT EXISTS " + TRIGGER_INSERT + " AFTER INSERT ON " + ExerciseEntry.TABLE_NAME +
+                " BEGIN " + insertEmptyRow("new") + " " + addToRow("new", "+") + " END",
+            "CREATE TRIGGER IF NOT EXISTS " + TRIGGER_UPDATE + " AFTER UPDATE OF " +
+                ExerciseEntry.COLUMN_DATE + ", " + ExerciseEntry.COLUMN_TYPE + ", " + ExerciseEntry.COLUMN_LABEL + ", " +
+                ExerciseEntry.COLUMN_EFFECTIVE_DISTANCE + ", " + ExerciseEntry.COLUMN_TIME +
+                " ON " + ExerciseEntry.TABLE_NAME +
+                " BEGIN " + addToRow("old", "-") + " " + deleteEmptyRow("old") + " " +
+                insertEmptyRow("new") + " " + addToRow("new", "+") + " END",
+            "CREATE TRIGGER IF NOT EXISTS " + TRIGGER_DELETE + " AFTER DELETE ON " + ExerciseEntry.TABLE_NAME +
+                " BEGIN " + addToRow("old", "-") + " " + deleteEmptyRow("old") + " END"
+        };
+
+        public static final String DELETE_ALL = "DELETE FROM " + TABLE_NAME;
+        public static final String INSERT_ALL = "INSERT INTO " + TABLE_NAME + " (" + COLUMNS + ")" +
+            " SELECT " + day(ExerciseEntry.TABLE_NAME) + " AS " + COLUMN_DAY + ", " + ExerciseEntry.COLUMN_TYPE + ", " +
+            ExerciseEntry.COLUMN_LABEL + ", " +
+            "sum(ifnull(" + ExerciseEntry.COLUMN_EFFECTIVE_DISTANCE + ", 0)), " +
+            "sum(ifnull(" + ExerciseEntry.COLUMN_TIME + ", 0)), count(*)" +
+            " FROM " + ExerciseEntry.TABLE_NAME +
+            " GROUP BY " + COLUMN_DAY + ", " + ExerciseEntry.COLUMN_TYPE + ", " + ExerciseEntry.COLUMN_LABEL;
+
+        /**
+         * Converts an epoch second column to an epoch day, flooring also for dates before 1970, to match
+         * {@link java.time.LocalDate#toEpochDay()}.
+         *
+         * @param ref Table or trigger row reference, e.g. "new"
+         */
+        private static String day(String ref) {
+            String date = ref + "." + ExerciseEntry.COLUMN_DATE;
+            return "(" + date + " / " + SECONDS_PER_DAY +
+                " - (" + date + " < 0 AND " + date + " % " + SECONDS_PER_DAY + " != 0))";
+        }
+
+        private static String matchRow(String ref) {
+            return COLUMN_DAY + " = " + day(ref) +
+                " AND " + COLUMN_TYPE + " IS " + ref + "." + ExerciseEntry.COLUMN_TYPE +
+                " AND " + COLUMN_LABEL + " IS " + ref + "." + ExerciseEntry.COLUMN_LABEL;
+        }
+
+        private static String insertEmptyRow(String ref) {
+            return "INSERT INTO " + TABLE_NAME + " (" + COLUMNS + ")" +
+                " SELECT " + day(ref) + ", " + ref + "." + ExerciseEntry.COLUMN_TYPE + ", " +
+                ref + "." + ExerciseEntry.COLUMN_LABEL + ", 0, 0, 0" +
+                " WHERE NOT EXISTS (SELECT 1 FROM " + TABLE_NAME + " WHERE " + matchRow(ref) + ");";
+        }
+
+        /**
+         * @param sign "+" to add the exercise, "-" to subtract it
+         */
+        private static String addToRow(String ref, String sign) {
+            return "UPDATE " + TABLE_NAME + " SET " +
+                COLUMN_DISTANCE + " = " + COLUMN_DISTANCE + " " + sign +
+                " ifnull(" + ref + "." + ExerciseEntry.COLUMN_EFFECTIVE_DISTANCE + ", 0), " +
+                COLUMN_TIME + " = " + COLUMN_TIME + " " + sign + " ifnull(" + ref + "." + ExerciseEntry.COLUMN_TIME +
+                ", 0), " +
+                COLUMN_COUNT + " = " + COLUMN_COUNT + " " + sign + " 1" +
+                " WHERE " + matchRow(ref) + ";";
+        }
+
+        private static String deleteEmptyRow(String ref) {
+            return "DELETE FROM " + TABLE_NAME + " WHERE " + matchRow(ref) + " AND " + COLUMN_COUNT + " <= 0;";
+        }
+
+    }
+
+    /**
+     * Temporary table of the days whose {@link DailyTotalEntry} rows changed, filled by temporary triggers and drained
+     * by {@link DbWriter} after each write. Temporary objects are local to the connection that created them, so only
+     * writes through the writer are recorded.
+     */
+    public static class ChangedDayEntry {
+
+        public static final String TABLE_NAME = "changed_days";
+        public static final String COLUMN_DAY = "day";
+
+        private static final String TRIGGER_INSERT = "trg_" + TABLE_NAME + "_insert";
+        private static final String TRIGGER_UPDATE = "trg_" + TABLE_NAME + "_update";
+        private static final String TRIGGER_DELETE = "trg_" + TABLE_NAME + "_delete";
+
+        public static final String CREATE_TABLE = "CREATE TEMP TABLE IF NOT EXISTS " + TABLE_NAME + " (" +
+            COLUMN_DAY + " INTEGER PRIMARY KEY)";
+
+        // the day of a daily totals row is never updated, only its values
+        public static final String[] CREATE_TRIGGERS = {
+            "CREATE TEMP TRIGGER IF NOT EXISTS " + TRIGGER_INSERT + " AFTER INSERT ON " + DailyTotalEntry.TABLE_NAME +
+                " BEGIN " + insertDay("new") + " END",
+            "CREATE TEMP TRIGGER IF NOT EXISTS " + TRIGGER_UPDATE + " AFTER UPDATE ON " + DailyTotalEntry.TABLE_NAME +
+                " BEGIN " + insertDay("new") + " END",
+            "CREATE TEMP TRIGGER IF NOT EXISTS " + TRIGGER_DELETE + " AFTER DELETE ON " + DailyTotalEntry.TABLE_NAME +
+                " BEGIN " + insertDay("old") + " END"
+        };
+
+        public static final String DELETE_ALL = "DELETE FROM " + TABLE_NAME;
+
+        private static String insertDay(String ref) {
+            return "INSERT OR IGNORE INTO " + TABLE_NAME + " (" + COLUMN_DAY + ") VALUES (" +
+                ref + "." + DailyTotalEntry.COLUMN_DAY + ");";
         }
 
     }
@@ -135,6 +617,323 @@ public final class DbContract {
             COLUMN_BEST_PACE + " REAL," +
             COLUMN_GOAL_PACE + " REAL)";
 
+        private static final String TRIGGER_BESTS_INSERT = "trg_" + TABLE_NAME + "_bests_insert";
+        private static final String TRIGGER_BESTS_UPDATE = "trg_" + TABLE_NAME + "_bests_update";
+        private static final String TRIGGER_BESTS_DELETE = "trg_" + TABLE_NAME + "_bests_delete";
+        private static final String TRIGGER_BESTS_DISTANCE = "trg_" + TABLE_NAME + "_bests_distance";
+
+        // the limits in prefs, as stored in DistanceLimitEntry
+        private static final String LOWER_LIMIT = "(SELECT " + DistanceLimitEntry.COLUMN_LOWER + " FROM " +
+            DistanceLimitEntry.TABLE_NAME + ")";
+        private static final String UPPER_LIMIT = "(SELECT " + DistanceLimitEntry.COLUMN_UPPER + " FROM " +
+            DistanceLimitEntry.TABLE_NAME + ")";
+
+        /**
+         * The best pace of a distance is over all exercises at least as long as its lower limit, and the best time
+         * over those within its limits. An added exercise can only lower the bests, while a removed exercise only
+         * requires recomputing the bests it set.
+         */
+        public static final String[] CREATE_TRIGGERS = {
+            "CREATE TRIGGER IF NOT EXISTS " + TRIGGER_BESTS_INSERT + " AFTER INSERT ON " + ExerciseEntry.TABLE_NAME +
+                " BEGIN " + addToBests("new") + " END",
+            "CREATE TRIGGER IF NOT EXISTS " + TRIGGER_BESTS_UPDATE + " AFTER UPDATE OF " +
+                ExerciseEntry.COLUMN_EFFECTIVE_DISTANCE + ", " + ExerciseEntry.COLUMN_TIME +
+                " ON " + ExerciseEntry.TABLE_NAME +
+                " BEGIN " + removeFromBests("old") + " " + addToBests("new") + " END",
+            "CREATE TRIGGER IF NOT EXISTS " + TRIGGER_BESTS_DELETE + " AFTER DELETE ON " + ExerciseEntry.TABLE_NAME +
+                " BEGIN " + removeFromBests("old") + " END",
+            "CREATE TRIGGER IF NOT EXISTS " + TRIGGER_BESTS_DISTANCE + " AFTER INSERT ON " + TABLE_NAME +
+                " BEGIN " + updateBests(_ID + " = new." + _ID) + " END"
+        };
+
+        public static final String UPDATE_ALL_BESTS = updateBests(null);
+
+        private static String paceOf(String ref) {
+            return "1000 * " + ref + "." + ExerciseEntry.COLUMN_TIME + " / " +
+                ref + "." + ExerciseEntry.COLUMN_EFFECTIVE_DISTANCE;
+        }
+
+        private static String countsForPace(String ref) {
+            String distance = ref + "." + ExerciseEntry.COLUMN_EFFECTIVE_DISTANCE;
+            return ref + "." + ExerciseEntry.COLUMN_TIME + " != 0 AND " + distance + " > 0" +
+                " AND " + distance + " >= " + TABLE_NAME + "." + COLUMN_DISTANCE + " - " + LOWER_LIMIT;
+        }
+
+        private static String countsForTime(String ref) {
+            String distance = ref + "." + ExerciseEntry.COLUMN_EFFECTIVE_DISTANCE;
+            return countsForPace(ref) +
+                " AND " + distance + " <= " + TABLE_NAME + "." + COLUMN_DISTANCE + " + " + UPPER_LIMIT;
+        }
+
+        private static String addToBests(String ref) {
+            String pace = paceOf(ref);
+            String time = ref + "." + ExerciseEntry.COLUMN_TIME;
+            return "UPDATE " + TABLE_NAME + " SET " +
+                COLUMN_BEST_PACE + " = min(ifnull(" + COLUMN_BEST_PACE + ", " + pace + "), " + pace + ")" +
+                " WHERE " + countsForPace(ref) + ";" +
+                " UPDATE " + TABLE_NAME + " SET " +
+                COLUMN_BEST_TIME + " = min(ifnull(" + COLUMN_BEST_TIME + ", " + time + "), " + time + ")" +
+                " WHERE " + countsForTime(ref) + ";";
+        }
+
+        private static String removeFromBests(String ref) {
+            return updateBests(countsForPace(ref) + " AND (" + COLUMN_BEST_PACE + " >= " + paceOf(ref) +
+                " OR " + COLUMN_BEST_TIME + " >= " + ref + "." + ExerciseEntry.COLUMN_TIME + ")");
+        }
+
+        /**
+         * @param where Distances to recompute, or null to recompute all
+         */
+        private static String updateBests(@Nullable String where) {
+            String ofDistance = " FROM " + ExerciseEntry.TABLE_NAME + " AS e WHERE " + countsForPace("e");
+            return "UPDATE " + TABLE_NAME + " SET " +
+                COLUMN_BEST_PACE + " = (SELECT min(" + paceOf("e") + ")" + ofDistance + "), " +
+                COLUMN_BEST_TIME + " = (SELECT min(e." + ExerciseEntry.COLUMN_TIME + ")" + ofDistance +
+                " AND e." + ExerciseEntry.COLUMN_EFFECTIVE_DISTANCE + " <= " + TABLE_NAME + "." + COLUMN_DISTANCE +
+                " + " + UPPER_LIMIT + ")" +
+                (where != null ? " WHERE " + where + ";" : "");
+        }
+
+    }
+
+    /**
+     * Single row holding the distance limits of prefs, which the distance best triggers of {@link DistanceEntry} read.
+     * Written by {@link DbWriter#updateDistanceLimits()}, which recomputes all bests when the limits change.
+     */
+    public static class DistanceLimitEntry {
+
+        public static final String TABLE_NAME = "distance_limits";
+        public static final String COLUMN_LOWER = "lower_limit";
+        public static final String COLUMN_UPPER = "upper_limit";
+
+        public static final String DELETE_TABLE = "DROP TABLE IF EXISTS " + TABLE_NAME;
+        public static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " (" +
+            COLUMN_LOWER + " INTEGER," +
+            COLUMN_UPPER + " INTEGER)";
+
+        public static final String DELETE_ALL = "DELETE FROM " + TABLE_NAME;
+
+    }
+
+    public static class RecordEntry {
+
+        public static final String TABLE_NAME = "personal_records";
+        public static final String COLUMN_KIND = "kind";
+        public static final String COLUMN_GROUP_KEY = "group_key";
+        public static final String COLUMN_RANK = "rank";
+        public static final String COLUMN_EXERCISE_ID = "exercise_id";
+        public static final String COLUMN_PACE = "pace";
+        private static final String COLUMNS = COLUMN_KIND + ", " + COLUMN_GROUP_KEY + ", " + COLUMN_RANK + ", " +
+            COLUMN_EXERCISE_ID + ", " + COLUMN_PACE;
+
+        /** Grouped by route id */
+        public static final int KIND_ROUTE = 0;
+        /** Grouped by distance, over all exercises at least as long as its lower limit */
+        public static final int KIND_DISTANCE = 1;
+
+        public static final int RANKS = 3;
+        // rank of rows inserted since the group was last ranked
+        private static final int RANK_UNRANKED = RANKS + 1;
+
+        private static final String INDEX_GROUP = "idx_" + TABLE_NAME + "_" + COLUMN_GROUP_KEY;
+        private static final String INDEX_EXERCISE = "idx_" + TABLE_NAME + "_" + COLUMN_EXERCISE_ID;
+        private static final String TRIGGER_INSERT = "trg_" + TABLE_NAME + "_insert";
+        private static final String TRIGGER_UPDATE = "trg_" + TABLE_NAME + "_update";
+        private static final String TRIGGER_DELETE = "trg_" + TABLE_NAME + "_delete";
+        private static final String TRIGGER_DISTANCE_INSERT = "trg_" + TABLE_NAME + "_distance_insert";
+        private static final String TRIGGER_DISTANCE_UPDATE = "trg_" + TABLE_NAME + "_distance_update";
+        private static final String TRIGGER_DISTANCE_DELETE = "trg_" + TABLE_NAME + "_distance_delete";
+
+        private static final String DISTANCE = "d." + DistanceEntry.COLUMN_DISTANCE;
+
+        public static final String DELETE_TABLE = "DROP TABLE IF EXISTS " + TABLE_NAME;
+        public static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " (" +
+            COLUMN_KIND + " INTEGER," +
+            COLUMN_GROUP_KEY + " INTEGER," +
+            COLUMN_RANK + " INTEGER," +
+            COLUMN_EXERCISE_ID + " INTEGER," +
+            COLUMN_PACE + " REAL)";
+        public static final String[] CREATE_INDICES = {
+            createIndex(INDEX_GROUP, TABLE_NAME, COLUMN_KIND, COLUMN_GROUP_KEY),
+            createIndex(INDEX_EXERCISE, TABLE_NAME, COLUMN_EXERCISE_ID)
+        };
+
+        /**
+         * Keeps the {@link #RANKS} fastest exercises of each route and distance, ordered by pace and then id. An
+         * added exercise only enters the groups where it beats the slowest record, while a removed exercise leaves a
+         * gap in the groups it held a record in, which is filled with the fastest exercise not already ranked. Only
+         * the groups of the changed exercise are ranked again, and hold at most one row more than {@link #RANKS}.
+         */
+        public static final String[] CREATE_TRIGGERS = {
+            "CREATE TRIGGER IF NOT EXISTS " + TRIGGER_INSERT + " AFTER INSERT ON " + ExerciseEntry.TABLE_NAME +
+                " BEGIN " + addToRecords("new") + " " + rankGroupsOf("new", "new") + " END",
+            "CREATE TRIGGER IF NOT EXISTS " + TRIGGER_UPDATE + " AFTER UPDATE OF " +
+                ExerciseEntry.COLUMN_ROUTE_ID + ", " + ExerciseEntry.COLUMN_EFFECTIVE_DISTANCE + ", " +
+                ExerciseEntry.COLUMN_TIME + " ON " + ExerciseEntry.TABLE_NAME +
+                " BEGIN " + removeFromRecords("old") + " " + addToRecords("new") + " " + rankGroupsOf("old", "new") +
+                " END",
+            "CREATE TRIGGER IF NOT EXISTS " + TRIGGER_DELETE + " AFTER DELETE ON " + ExerciseEntry.TABLE_NAME +
+                " BEGIN " + removeFromRecords("old") + " " + rankGroupsOf("old", "old") + " END",
+            "CREATE TRIGGER IF NOT EXISTS " + TRIGGER_DISTANCE_INSERT + " AFTER INSERT ON " +
+                DistanceEntry.TABLE_NAME + " BEGIN " + insertDistanceRecords(DistanceEntry._ID + " = new." +
+                DistanceEntry._ID) + "; " + rank(group(KIND_DISTANCE, "new." + DistanceEntry.COLUMN_DISTANCE)) +
+                "; END",
+            "CREATE TRIGGER IF NOT EXISTS " + TRIGGER_DISTANCE_UPDATE + " AFTER UPDATE OF " +
+                DistanceEntry.COLUMN_DISTANCE + " ON " + DistanceEntry.TABLE_NAME +
+                " BEGIN DELETE FROM " + TABLE_NAME + " WHERE " +
+                group(KIND_DISTANCE, "old." + DistanceEntry.COLUMN_DISTANCE) + "; " +
+                insertDistanceRecords(DistanceEntry._ID + " = new." + DistanceEntry._ID) + "; " +
+                rank(group(KIND_DISTANCE, "new." + DistanceEntry.COLUMN_DISTANCE)) + "; END",
+            "CREATE TRIGGER IF NOT EXISTS " + TRIGGER_DISTANCE_DELETE + " AFTER DELETE ON " +
+                DistanceEntry.TABLE_NAME + " BEGIN DELETE FROM " + TABLE_NAME + " WHERE " +
+                group(KIND_DISTANCE, "old." + DistanceEntry.COLUMN_DISTANCE) + "; END"
+        };
+
+        public static final String DELETE_ALL = "DELETE FROM " + TABLE_NAME;
+        public static final String DELETE_DISTANCES = "DELETE FROM " + TABLE_NAME +
+            " WHERE " + COLUMN_KIND + " = " + KIND_DISTANCE;
+        // iterates the groups rather than the exercises, since window functions are not available before API 30
+        public static final String INSERT_ROUTES = "INSERT INTO " + TABLE_NAME + " (" + COLUMNS + ")" +
+            " SELECT " + KIND_ROUTE + ", g." + ExerciseEntry.COLUMN_ROUTE_ID + ", " + RANK_UNRANKED + ", e." +
+            ExerciseEntry._ID + ", " + paceOf("e") +
+            " FROM (SELECT DISTINCT " + ExerciseEntry.COLUMN_ROUTE_ID + " FROM " + ExerciseEntry.TABLE_NAME +
+            ") AS g, " + ExerciseEntry.TABLE_NAME + " AS e" +
+            " WHERE e." + ExerciseEntry._ID + " IN (" + fastest("e2." + ExerciseEntry.COLUMN_ROUTE_ID + " = g." +
+            ExerciseEntry.COLUMN_ROUTE_ID, RANKS) + ")";
+        public static final String INSERT_DISTANCES = insertDistanceRecords(null);
+        public static final String RANK_ALL = rank(null);
+
+        /**
+         * @param ref Table or trigger row reference, e.g. "new"
+         */
+        private static String paceOf(String ref) {
+            return "1000*(" + ref + "." + ExerciseEntry.COLUMN_TIME + "/" +
+                ref + "." + ExerciseEntry.COLUMN_EFFECTIVE_DISTANCE + ")";
+        }
+
+        // as marked by DbReader
+        private static String hasPace(String ref) {
+            return ref + "." + ExerciseEntry.COLUMN_TIME + " != 0 AND " +
+                ref + "." + ExerciseEntry.COLUMN_EFFECTIVE_DISTANCE + " != 0";
+        }
+
+        private static String countsForDistance(String ref, String distance) {
+            return ref + "." + ExerciseEntry.COLUMN_EFFECTIVE_DISTANCE + " >= " + distance + " - " +
+                DistanceEntry.LOWER_LIMIT;
+        }
+
+        private static String group(int kind, String key) {
+            return COLUMN_KIND + " = " + kind + " AND " + COLUMN_GROUP_KEY + " = " + key;
+        }
+
+        /**
+         * @param where Exercises of the group, referencing the exercises table as "e2"
+         * @return The ids of the fastest exercises of the group
+         */
+        private static String fastest(String where, int limit) {
+            return "SELECT e2." + ExerciseEntry._ID + " FROM " + ExerciseEntry.TABLE_NAME + " AS e2" +
+                " WHERE " + hasPace("e2") + " AND " + where +
+                " ORDER BY " + paceOf("e2") + ", e2." + ExerciseEntry._ID + " LIMIT " + limit;
+        }
+
+        private static String notRanked(String id, int kind, String key) {
+            return id + " NOT IN (SELECT " + COLUMN_EXERCISE_ID + " FROM " + TABLE_NAME +
+                " WHERE " + group(kind, key) + ")";
+        }
+
+        private static String hasGap(int kind, String key) {
+            return "(SELECT count(*) FROM " + TABLE_NAME + " WHERE " + group(kind, key) + ") < " + RANKS;
+        }
+
+        private static String beatsRecords(String ref, int kind, String key) {
+            return notRanked(ref + "." + ExerciseEntry._ID, kind, key) +
+                " AND (" + hasGap(kind, key) + " OR (" + paceOf(ref) + ", " + ref + "." + ExerciseEntry._ID + ")" +
+                " < (SELECT " + COLUMN_PACE + ", " + COLUMN_EXERCISE_ID + " FROM " + TABLE_NAME +
+                " WHERE " + group(kind, key) +
+                " ORDER BY " + COLUMN_PACE + " DESC, " + COLUMN_EXERCISE_ID + " DESC LIMIT 1))";
+        }
+
+        private static String addToRecords(String ref) {
+            String route = ref + "." + ExerciseEntry.COLUMN_ROUTE_ID;
+            return "INSERT INTO " + TABLE_NAME + " (" + COLUMNS + ")" +
+                " SELECT " + KIND_ROUTE + ", " + route + ", " + RANK_UNRANKED + ", " + ref + "." + ExerciseEntry._ID +
+                ", " + paceOf(ref) +
+                " WHERE " + hasPace(ref) + " AND " + beatsRecords(ref, KIND_ROUTE, route) + ";" +
+                " INSERT INTO " + TABLE_NAME + " (" + COLUMNS + ")" +
+                " SELECT " + KIND_DISTANCE + ", " + DISTANCE + ", " + RANK_UNRANKED + ", " +
+                ref + "." + ExerciseEntry._ID + ", " + paceOf(ref) +
+                " FROM " + DistanceEntry.TABLE_NAME + " AS d" +
+                " WHERE " + hasPace(ref) + " AND " + countsForDistance(ref, DISTANCE) +
+                " AND " + beatsRecords(ref, KIND_DISTANCE, DISTANCE) + ";";
+        }
+
+        private static String removeFromRecords(String ref) {
+            String route = ref + "." + ExerciseEntry.COLUMN_ROUTE_ID;
+            return "DELETE FROM " + TABLE_NAME +
+                " WHERE " + COLUMN_EXERCISE_ID + " = " + ref + "." + ExerciseEntry._ID + ";" +
+                // fill the gaps, which may be left without a candidate. the candidates are selected in the result
+                // columns, so that they are only searched for when there is a gap
+                " INSERT INTO " + TABLE_NAME + " (" + COLUMNS + ")" +
+                " SELECT " + KIND_ROUTE + ", " + route + ", " + RANK_UNRANKED + ", (" +
+                fastest("e2." + ExerciseEntry.COLUMN_ROUTE_ID + " = " + route +
+                " AND " + notRanked("e2." + ExerciseEntry._ID, KIND_ROUTE, route), 1) + "), NULL" +
+                " WHERE " + hasPace(ref) + " AND " + hasGap(KIND_ROUTE, route) + ";" +
+                " INSERT INTO " + TABLE_NAME + " (" + COLUMNS + ")" +
+                " SELECT " + KIND_DISTANCE + ", " + DISTANCE + ", " + RANK_UNRANKED + ", (" +
+                fastest(countsForDistance("e2", DISTANCE) +
+                " AND " + notRanked("e2." + ExerciseEntry._ID, KIND_DISTANCE, DISTANCE), 1) + "), NULL" +
+                " FROM " + DistanceEntry.TABLE_NAME + " AS d" +
+                " WHERE " + hasPace(ref) + " AND " + countsForDistance(ref, DISTANCE) +
+                " AND " + hasGap(KIND_DISTANCE, DISTANCE) + ";" +
+                " DELETE FROM " + TABLE_NAME + " WHERE " + COLUMN_EXERCISE_ID + " IS NULL;" +
+                " UPDATE " + TABLE_NAME + " SET " + COLUMN_PACE + " = (SELECT " + paceOf("e") +
+                " FROM " + ExerciseEntry.TABLE_NAME + " AS e" +
+                " WHERE e." + ExerciseEntry._ID + " = " + TABLE_NAME + "." + COLUMN_EXERCISE_ID + ")" +
+                " WHERE " + COLUMN_PACE + " IS NULL;";
+        }
+
+        /**
+         * @param where Distances to insert the records of, or null for all
+         */
+        private static String insertDistanceRecords(@Nullable String where) {
+            return "INSERT INTO " + TABLE_NAME + " (" + COLUMNS + ")" +
+                " SELECT " + KIND_DISTANCE + ", " + DISTANCE + ", " + RANK_UNRANKED + ", e." + ExerciseEntry._ID +
+                ", " + paceOf("e") +
+                " FROM " + DistanceEntry.TABLE_NAME + " AS d, " + ExerciseEntry.TABLE_NAME + " AS e" +
+                " WHERE e." + ExerciseEntry._ID + " IN (" +
+                fastest(countsForDistance("e2", DISTANCE), RANKS) + ")" +
+                (where != null ? " AND d." + where : "");
+        }
+
+        /**
+         * Ranks the groups of an exercise before and after it changed, and drops the rows ranked below {@link #RANKS}.
+         */
+        private static String rankGroupsOf(String ref1, String ref2) {
+            String route1 = ref1 + "." + ExerciseEntry.COLUMN_ROUTE_ID;
+            String route2 = ref2 + "." + ExerciseEntry.COLUMN_ROUTE_ID;
+            return rank(COLUMN_KIND + " = " + KIND_ROUTE + " AND " + COLUMN_GROUP_KEY + " IN (" + route1 + ", " +
+                route2 + ")") + ";" +
+                " " + rank(COLUMN_KIND + " = " + KIND_DISTANCE + " AND " + COLUMN_GROUP_KEY + " IN (" +
+                "SELECT " + DISTANCE + " FROM " + DistanceEntry.TABLE_NAME + " AS d WHERE " +
+                countsForDistance(ref1, DISTANCE) + " OR " + countsForDistance(ref2, DISTANCE) + ")") + ";" +
+                " DELETE FROM " + TABLE_NAME + " WHERE " + COLUMN_RANK + " > " + RANKS + ";";
+        }
+
+        /**
+         * Ranks the rows of groups by pace and then id.
+         *
+         * @param where Rows of the groups to rank, or null for all
+         */
+        private static String rank(@Nullable String where) {
+            return "UPDATE " + TABLE_NAME + " SET " + COLUMN_RANK + " = (SELECT count(*) FROM " + TABLE_NAME +
+                " AS r WHERE r." + COLUMN_KIND + " = " + TABLE_NAME + "." + COLUMN_KIND +
+                " AND r." + COLUMN_GROUP_KEY + " = " + TABLE_NAME + "." + COLUMN_GROUP_KEY +
+                " AND (r." + COLUMN_PACE + " < " + TABLE_NAME + "." + COLUMN_PACE +
+                " OR r." + COLUMN_PACE + " = " + TABLE_NAME + "." + COLUMN_PACE +
+                " AND r." + COLUMN_EXERCISE_ID + " <= " + TABLE_NAME + "." + COLUMN_EXERCISE_ID + "))" +
+                (where != null ? " WHERE " + where : "");
+        }
+
     }
 
     public static class RouteEntry implements BaseColumns {
@@ -147,7 +946,10 @@ public final class DbContract {
         public static final String COLUMN_GOAL_PACE = "goal_pace";
         public static final String COLUMN_HIDDEN = "hidden";
 
+        public static final String INDEX_NAME = "idx_" + TABLE_NAME + "_" + COLUMN_NAME;
+
         public static final String DELETE_TABLE = "DROP TABLE IF EXISTS " + TABLE_NAME;
+        public static final String CREATE_INDEX_NAME = createIndex(INDEX_NAME, TABLE_NAME, COLUMN_NAME);
         public static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " (" +
             _ID + " INTEGER PRIMARY KEY," +
             COLUMN_NAME + " TEXT," +
@@ -157,6 +959,49 @@ public final class DbContract {
             COLUMN_GOAL_PACE + " REAL," +
             COLUMN_HIDDEN + " INTEGER)";
 
+        private static final String TRIGGER_SUMMARY_INSERT = "trg_" + TABLE_NAME + "_summary_insert";
+        private static final String TRIGGER_SUMMARY_UPDATE = "trg_" + TABLE_NAME + "_summary_update";
+        private static final String TRIGGER_SUMMARY_DELETE = "trg_" + TABLE_NAME + "_summary_delete";
+        private static final String TRIGGER_SUMMARY_ROUTE = "trg_" + TABLE_NAME + "_summary_route";
+
+        // the summary columns amount, avg_distance and best_pace are derived from the exercises of each route, and
+        // recomputed for the affected routes on every write; each recomputation is an index range on route_id. amount
+        // is the reference count of the route, which lets empty routes be deleted without reading their exercises
+        public static final String[] CREATE_TRIGGERS = {
+            "CREATE TRIGGER IF NOT EXISTS " + TRIGGER_SUMMARY_INSERT + " AFTER INSERT ON " + ExerciseEntry.TABLE_NAME +
+                " BEGIN " + updateSummaries("new." + ExerciseEntry.COLUMN_ROUTE_ID) + " END",
+            "CREATE TRIGGER IF NOT EXISTS " + TRIGGER_SUMMARY_UPDATE + " AFTER UPDATE OF " +
+                ExerciseEntry.COLUMN_ROUTE_ID + ", " + ExerciseEntry.COLUMN_EFFECTIVE_DISTANCE + ", " +
+                ExerciseEntry.COLUMN_TIME + " ON " + ExerciseEntry.TABLE_NAME +
+                " BEGIN " + updateSummaries("old." + ExerciseEntry.COLUMN_ROUTE_ID + ", new." +
+                ExerciseEntry.COLUMN_ROUTE_ID) + " END",
+            "CREATE TRIGGER IF NOT EXISTS " + TRIGGER_SUMMARY_DELETE + " AFTER DELETE ON " + ExerciseEntry.TABLE_NAME +
+                " BEGIN " + updateSummaries("old." + ExerciseEntry.COLUMN_ROUTE_ID) + " END",
+            // routes may be added after their exercises, e.g. when importing
+            "CREATE TRIGGER IF NOT EXISTS " + TRIGGER_SUMMARY_ROUTE + " AFTER INSERT ON " + TABLE_NAME +
+                " BEGIN " + updateSummaries("new." + _ID) + " END"
+        };
+
+        public static final String UPDATE_ALL_SUMMARIES = updateSummaries(null);
+
+        /**
+         * @param routeIds Comma separated route ids to update, or null to update all routes
+         */
+        private static String updateSummaries(@Nullable String routeIds) {
+            String tabExercises = ExerciseEntry.TABLE_NAME;
+            String colDistance = ExerciseEntry.COLUMN_EFFECTIVE_DISTANCE;
+            String colTime = ExerciseEntry.COLUMN_TIME;
+            String ofRoute = " FROM " + tabExercises +
+                " WHERE " + ExerciseEntry.COLUMN_ROUTE_ID + " = " + TABLE_NAME + "." + _ID;
+
+            return "UPDATE " + TABLE_NAME + " SET " +
+                COLUMN_AMOUNT + " = (SELECT count(*)" + ofRoute + "), " +
+                COLUMN_AVG_DISTANCE + " = (SELECT avg(" + colDistance + ")" + ofRoute + "), " +
+                COLUMN_BEST_PACE + " = (SELECT min(" + colTime + " / " + colDistance + ") * 1000" + ofRoute +
+                " AND " + colTime + " > 0 AND " + colDistance + " > 0)" +
+                (routeIds != null ? " WHERE " + _ID + " IN (" + routeIds + ");" : "");
+        }
+
     }
 
     public static class PlaceEntry implements BaseColumns {
@@ -179,4 +1024,14 @@ public final class DbContract {
 
     }
 
+    // tools
+
+    /**
+     * Builds an idempotent CREATE INDEX statement.
+     */
+    private static String createIndex(String indexName, String table, String... columns) {
+        return "CREATE INDEX IF NOT EXISTS " + indexName +
+            " ON " + table + " (" + ExerciseEntry.toString(columns) + ")";
+    }
+
 }
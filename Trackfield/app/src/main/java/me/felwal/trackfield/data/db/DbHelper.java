@@ -2,11 +2,18 @@ package me.felwal.trackfield.data.db;
 
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import androidx.annotation.Nullable;
+
+import me.felwal.trackfield.data.db.model.Route;
+import me.felwal.trackfield.data.prefs.Prefs;
+import me.felwal.trackfield.utils.AppLog;
+
 public abstract class DbHelper extends SQLiteOpenHelper {
 
-    public static final int DATABASE_TARGET_VERSION = 1;
+    public static final int DATABASE_TARGET_VERSION = 9;
     public static final String DATABASE_NAME = "Trackfield.db";
 
     protected SQLiteDatabase db;
@@ -14,8 +21,17 @@ public abstract class DbHelper extends SQLiteOpenHelper {
     //
 
     protected DbHelper(Context c) {
+        this(c, DATABASE_NAME);
+    }
+
+    /**
+     * @param name The database file name, or null for an in-memory database, as used by tests
+     */
+    protected DbHelper(Context c, @Nullable String name) {
         // version: the target version. calls onUpgrade or onDowngrade if database is of different version
-        super(c, DATABASE_NAME, null, DATABASE_TARGET_VERSION);
+        super(c, name, null, DATABASE_TARGET_VERSION);
+        // lets read-only connections read concurrently with each other and with writes
+        setWriteAheadLoggingEnabled(true);
     }
 
     // extends SQLiteOpenHelper
@@ -26,6 +42,15 @@ public abstract class DbHelper extends SQLiteOpenHelper {
         db.execSQL(DbContract.RouteEntry.CREATE_TABLE);
         db.execSQL(DbContract.DistanceEntry.CREATE_TABLE);
         db.execSQL(DbContract.PlaceEntry.CREATE_TABLE);
+        db.execSQL(DbContract.DrivenDistanceEntry.CREATE_TABLE);
+        createIndices(db);
+        createSearchIndex(db);
+        createPointIndex(db);
+        createDailyTotals(db);
+        createRouteSummaries(db);
+        createDistanceBests(db);
+        createPersonalRecords(db);
+        rebuildDistanceBests(db);
     }
 
     @Override
@@ -36,11 +61,57 @@ public abstract class DbHelper extends SQLiteOpenHelper {
             db.execSQL(DbContract.RouteEntry.DELETE_TABLE);
             db.execSQL(DbContract.DistanceEntry.DELETE_TABLE);
             db.execSQL(DbContract.PlaceEntry.DELETE_TABLE);
+            db.execSQL(DbContract.DrivenDistanceEntry.DELETE_TABLE);
+            db.execSQL(DbContract.SearchEntry.DELETE_TABLE);
+            db.execSQL(DbContract.PointEntry.DELETE_TABLE);
+            db.execSQL(DbContract.DailyTotalEntry.DELETE_TABLE);
+            db.execSQL(DbContract.DistanceLimitEntry.DELETE_TABLE);
+            db.execSQL(DbContract.RecordEntry.DELETE_TABLE);
             onCreate(db);
+            return;
+        }
+        // onCreate always creates the target schema, so a recreated database may be upgraded again after importing;
+        // migrations must therefore be idempotent.
+        if (oldVersion < 2) {
+            // driven distances table
+            db.execSQL(DbContract.DrivenDistanceEntry.CREATE_TABLE);
+            rebuildDrivenDistances(db, Route.ID_NON_EXISTANT);
+        }
+        if (oldVersion < 3) {
+            // indices
+            createIndices(db);
+            db.execSQL("ANALYZE");
+        }
+        if (oldVersion < 4) {
+            // full-text search index
+            createSearchIndex(db);
+            rebuildSearchIndex(db);
+        }
+        if (oldVersion < 5) {
+            // spatial index
+            createPointIndex(db);
+            rebuildPointIndex(db);
+        }
+        if (oldVersion < 6) {
+            // daily totals rollup
+            createDailyTotals(db);
+            rebuildDailyTotals(db);
+        }
+        if (oldVersion < 7) {
+            // route summary columns
+            createRouteSummaries(db);
+            rebuildRouteSummaries(db);
+        }
+        if (oldVersion < 8) {
+            // distance best columns
+            createDistanceBests(db);
+            rebuildDistanceBests(db);
+        }
+        if (oldVersion < 9) {
+            // personal records table
+            createPersonalRecords(db);
+            rebuildPersonalRecords(db);
         }
-        //if (oldVersion < 2) {
-        //    db.execSQL(Contract.ExerciseEntry.ALTER_TO_VER_2);
-        //}
     }
 
     @Override
@@ -48,7 +119,204 @@ public abstract class DbHelper extends SQLiteOpenHelper {
         db.execSQL(DbContract.ExerciseEntry.DELETE_TABLE);
         db.execSQL(DbContract.RouteEntry.DELETE_TABLE);
         db.execSQL(DbContract.DistanceEntry.DELETE_TABLE);
+        db.execSQL(DbContract.PlaceEntry.DELETE_TABLE);
+        db.execSQL(DbContract.DrivenDistanceEntry.DELETE_TABLE);
+        db.execSQL(DbContract.SearchEntry.DELETE_TABLE);
+        db.execSQL(DbContract.PointEntry.DELETE_TABLE);
+        db.execSQL(DbContract.DailyTotalEntry.DELETE_TABLE);
+        db.execSQL(DbContract.DistanceLimitEntry.DELETE_TABLE);
+        db.execSQL(DbContract.RecordEntry.DELETE_TABLE);
         onCreate(db);
     }
 
+    private void createIndices(SQLiteDatabase db) {
+        for (String createIndex : DbContract.ExerciseEntry.CREATE_INDICES) {
+            db.execSQL(createIndex);
+        }
+        db.execSQL(DbContract.RouteEntry.CREATE_INDEX_NAME);
+    }
+
+    private void createSearchIndex(SQLiteDatabase db) {
+        db.execSQL(DbContract.SearchEntry.CREATE_TABLE);
+        for (String createTrigger : DbContract.SearchEntry.CREATE_TRIGGERS) {
+            db.execSQL(createTrigger);
+        }
+    }
+
+    private void createPointIndex(SQLiteDatabase db) {
+        try {
+            db.execSQL(DbContract.PointEntry.CREATE_TABLE_RTREE);
+        }
+        catch (SQLiteException e) {
+            // rtree module not compiled in
+            AppLog.w("rtree unavailable, falling back to indexed table: " + e.getMessage());
+            for (String createTable : DbContract.PointEntry.CREATE_TABLE_INDEXED) {
+                db.execSQL(createTable);
+            }
+        }
+        for (String createTrigger : DbContract.PointEntry.CREATE_TRIGGERS) {
+            db.execSQL(createTrigger);
+        }
+    }
+
+    private void createDailyTotals(SQLiteDatabase db) {
+        db.execSQL(DbContract.DailyTotalEntry.CREATE_TABLE);
+        db.execSQL(DbContract.DailyTotalEntry.CREATE_INDEX_DAY);
+        for (String createTrigger : DbContract.DailyTotalEntry.CREATE_TRIGGERS) {
+            db.execSQL(createTrigger);
+        }
+    }
+
+    private void createRouteSummaries(SQLiteDatabase db) {
+        for (String createTrigger : DbContract.RouteEntry.CREATE_TRIGGERS) {
+            db.execSQL(createTrigger);
+        }
+    }
+
+    private void createDistanceBests(SQLiteDatabase db) {
+        db.execSQL(DbContract.DistanceLimitEntry.CREATE_TABLE);
+        for (String createTrigger : DbContract.DistanceEntry.CREATE_TRIGGERS) {
+            db.execSQL(createTrigger);
+        }
+    }
+
+    private void createPersonalRecords(SQLiteDatabase db) {
+        db.execSQL(DbContract.RecordEntry.CREATE_TABLE);
+        for (String createIndex : DbContract.RecordEntry.CREATE_INDICES) {
+            db.execSQL(createIndex);
+        }
+        for (String createTrigger : DbContract.RecordEntry.CREATE_TRIGGERS) {
+            db.execSQL(createTrigger);
+        }
+    }
+
+    // derived tables
+
+    /**
+     * Resolves driven distances into {@link DbContract.DrivenDistanceEntry} and copies them to the effective distance
+     * of driven exercises.
+     *
+     * @param routeId Route to rebuild, or {@link Route#ID_NON_EXISTANT} for all routes
+     */
+    protected static void rebuildDrivenDistances(SQLiteDatabase db, int routeId) {
+        db.beginTransaction();
+        try {
+            db.execSQL(DbContract.DrivenDistanceEntry.deleteResolved(routeId));
+            db.execSQL(DbContract.DrivenDistanceEntry.insertResolved(Prefs.preferSameTypeWhenDriving(),
+                Prefs.fallBackToRouteWhenDriving(), routeId));
+            db.execSQL(DbContract.DrivenDistanceEntry.updateEffectiveDistances(routeId));
+            db.setTransactionSuccessful();
+        }
+        finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Sums all exercises per day, type and label into {@link DbContract.DailyTotalEntry}.
+     */
+    protected static void rebuildDailyTotals(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            db.execSQL(DbContract.DailyTotalEntry.DELETE_ALL);
+            db.execSQL(DbContract.DailyTotalEntry.INSERT_ALL);
+            db.setTransactionSuccessful();
+        }
+        finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Recomputes the amount, average distance and best pace of all routes in {@link DbContract.RouteEntry}.
+     */
+    protected static void rebuildRouteSummaries(SQLiteDatabase db) {
+        db.execSQL(DbContract.RouteEntry.UPDATE_ALL_SUMMARIES);
+    }
+
+    /**
+     * Stores the distance limits of prefs in {@link DbContract.DistanceLimitEntry}, and recomputes the best pace and
+     * time of all distances in {@link DbContract.DistanceEntry} with them. Their records must be rebuilt separately
+     * with {@link #rebuildDistanceRecords(SQLiteDatabase)}, since the records table is created in a later version.
+     */
+    protected static void rebuildDistanceBests(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            db.execSQL(DbContract.DistanceLimitEntry.DELETE_ALL);
+            db.execSQL("INSERT INTO " + DbContract.DistanceLimitEntry.TABLE_NAME + " VALUES (?, ?)",
+                new Object[] { Prefs.getDistanceLowerLimit(), Prefs.getDistanceUpperLimit() });
+            db.execSQL(DbContract.DistanceEntry.UPDATE_ALL_BESTS);
+            db.setTransactionSuccessful();
+        }
+        finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Ranks the fastest exercises of all distances into {@link DbContract.RecordEntry} anew, within the distance
+     * limits stored by {@link #rebuildDistanceBests(SQLiteDatabase)}.
+     */
+    protected static void rebuildDistanceRecords(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            db.execSQL(DbContract.RecordEntry.DELETE_DISTANCES);
+            db.execSQL(DbContract.RecordEntry.INSERT_DISTANCES);
+            db.execSQL(DbContract.RecordEntry.RANK_ALL);
+            db.setTransactionSuccessful();
+        }
+        finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Ranks the fastest exercises of all routes and distances into {@link DbContract.RecordEntry}.
+     */
+    protected static void rebuildPersonalRecords(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            db.execSQL(DbContract.RecordEntry.DELETE_ALL);
+            db.execSQL(DbContract.RecordEntry.INSERT_ROUTES);
+            db.execSQL(DbContract.RecordEntry.INSERT_DISTANCES);
+            db.execSQL(DbContract.RecordEntry.RANK_ALL);
+            db.setTransactionSuccessful();
+        }
+        finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Reindexes the start and end points of all exercises into {@link DbContract.PointEntry}.
+     */
+    protected static void rebuildPointIndex(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            db.execSQL(DbContract.PointEntry.DELETE_ALL);
+            for (String insert : DbContract.PointEntry.INSERT_ALL) {
+                db.execSQL(insert);
+            }
+            db.setTransactionSuccessful();
+        }
+        finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Reindexes all exercises into {@link DbContract.SearchEntry}.
+     */
+    protected static void rebuildSearchIndex(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            db.execSQL(DbContract.SearchEntry.DELETE_ALL);
+            db.execSQL(DbContract.SearchEntry.INSERT_ALL);
+            db.setTransactionSuccessful();
+        }
+        finally {
+            db.endTransaction();
+        }
+    }
+
 }
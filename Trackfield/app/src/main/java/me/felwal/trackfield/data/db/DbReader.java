@@ -3,26 +3,39 @@ package me.felwal.trackfield.data.db;
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.database.Cursor;
-import android.location.Location;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import com.mapbox.mapboxsdk.geometry.LatLng;
+import com.mapbox.mapboxsdk.geometry.LatLngBounds;
 
 import java.security.InvalidParameterException;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.TreeMap;
+import java.util.HashSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
+import me.felwal.trackfield.data.db.DbContract.DailyTotalEntry;
 import me.felwal.trackfield.data.db.DbContract.DistanceEntry;
+import me.felwal.trackfield.data.db.DbContract.DrivenDistanceEntry;
 import me.felwal.trackfield.data.db.DbContract.ExerciseEntry;
 import me.felwal.trackfield.data.db.DbContract.PlaceEntry;
+import me.felwal.trackfield.data.db.DbContract.PointEntry;
+import me.felwal.trackfield.data.db.DbContract.RecordEntry;
 import me.felwal.trackfield.data.db.DbContract.RouteEntry;
+import me.felwal.trackfield.data.db.DbContract.SearchEntry;
 import me.felwal.trackfield.data.db.model.Distance;
 import me.felwal.trackfield.data.db.model.Exercise;
 import me.felwal.trackfield.data.db.model.Place;
@@ -36,20 +49,67 @@ import me.felwal.trackfield.ui.main.groupingpager.intervallist.model.IntervalIte
 import me.felwal.trackfield.ui.main.groupingpager.placelist.model.PlaceItem;
 import me.felwal.trackfield.ui.main.groupingpager.routelist.model.RouteItem;
 import me.felwal.trackfield.ui.map.model.Trail;
+import me.felwal.trackfield.ui.widget.graph.Series;
 import me.felwal.trackfield.utils.AppLog;
 import me.felwal.trackfield.utils.DateUtils;
 import me.felwal.trackfield.utils.MathUtils;
-import me.felwal.trackfield.utils.annotation.Unfinished;
 
 public class DbReader extends DbHelper {
 
     private static DbReader instance;
 
+    // prepared statements are cached per connection by sql, so keep queries with varying values bound
+    private static final int SQL_CACHE_SIZE = 50;
+
+    // route id to name dictionary, loaded on first use and invalidated by DbWriter on route mutations
+    @Nullable private static HashMap<Integer, String> routeNames;
+
+    // spatial grid of places, built on first use and invalidated by DbWriter on place mutations. built under the lock,
+    // so that an invalidation during a build is not overwritten by the index of the places read before it
+    private static final Object placeIndexLock = new Object();
+    @Nullable private static PlaceIndex placeIndex;
+
+    // period totals, built on first use and kept current with the days changed by DbWriter
+    private static final Object periodTotalsLock = new Object();
+    @Nullable private static PeriodTotals periodTotals;
+    private static final HashSet<Long> changedDays = new HashSet<>();
+    // above this, reading all days is cheaper, and stays within the bound args limit
+    private static final int MAX_CHANGED_DAYS = 500;
+
+    private static final int DAY_SECONDS = 86400;
+
+    // derived tables and columns
+    private static final String TABLE_TOP3 = "top3";
+    private static final String COLUMN_TOP_ID = "top_id";
+    private static final String COLUMN_PACE_RANK = "pace_rank";
+    private static final String COLUMN_TOP = "top";
+
+    // runtime sqlite features, the same for all connections
+    private static final int[] SQLITE_VERSION_WINDOW_FUNCTIONS = { 3, 25, 0 };
+    @Nullable private static Boolean windowFunctionsSupported;
+
+    // compiled single value lookups, bound anew for each call
+    private final SQLiteStatement routeIdStatement;
+    private final SQLiteStatement stravaIdExistsStatement;
+
     //
 
     private DbReader(Context c) {
         super(c.getApplicationContext());
-        db = getReadableDatabase();
+
+        // create or upgrade through the helper, then read through a read-only handle. in write-ahead logging mode, the
+        // handle pools a few connections and hands each querying thread its own, so that background loads read
+        // concurrently with each other and with writes
+        String path = getReadableDatabase().getPath();
+        close();
+        db = SQLiteDatabase.openDatabase(path, null,
+            SQLiteDatabase.OPEN_READONLY | SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING);
+        db.setMaxSqlCacheSize(SQL_CACHE_SIZE);
+
+        routeIdStatement = db.compileStatement("SELECT " + RouteEntry._ID + " FROM " + RouteEntry.TABLE_NAME +
+            " WHERE " + RouteEntry.COLUMN_NAME + " = ? LIMIT 1");
+        stravaIdExistsStatement = db.compileStatement("SELECT EXISTS (SELECT 1 FROM " + ExerciseEntry.TABLE_NAME +
+            " WHERE " + ExerciseEntry.COLUMN_STRAVA_ID + " = ?)");
     }
 
     @NonNull
@@ -64,6 +124,21 @@ public class DbReader extends DbHelper {
         return db.getVersion();
     }
 
+    /**
+     * Checks whether the runtime SQLite supports window functions, which were added in 3.25. Android bundles 3.25 or
+     * later only from API 30, so this varies within the supported range.
+     *
+     * @return True if window functions are supported
+     */
+    public boolean areWindowFunctionsSupported() {
+        if (windowFunctionsSupported == null) {
+            String version = DatabaseUtils.stringForQuery(db, "SELECT sqlite_version()", null);
+            windowFunctionsSupported = isVersionAtLeast(version, SQLITE_VERSION_WINDOW_FUNCTIONS);
+            AppLog.i("sqlite version: " + version);
+        }
+        return windowFunctionsSupported;
+    }
+
     // get exercises
 
     @Nullable
@@ -139,18 +214,60 @@ public class DbReader extends DbHelper {
         return getFirst(exerlites);
     }
 
+    /**
+     * Gets the page of exerlites following a keyset, ordered by the sort columns and then by id. Seeks directly to the
+     * start of the page, which makes every page equally cheap no matter how far into the list it is.
+     *
+     * @param keyset The position after the previous page, or {@link Keyset#first()}. Advanced past the returned page.
+     * @param pageSize Max number of exerlites to get
+     * @return List of at most pageSize exerlites; empty if the keyset is exhausted
+     */
     @NonNull
     public ArrayList<Exerlite> getExerlites(SorterItem.Mode sortMode, boolean ascending, ExerciseFilter filter,
-        int startIndex, int endIndex) {
+        @NonNull Keyset keyset, int pageSize) {
 
-        String[] select = ExerciseEntry.COLUMNS_EXERLITE;
-        String from = ExerciseEntry.TABLE_NAME;
-        String where = exerciseFilter("", filter);
-        String orderBy = orderBy(sortMode, ascending);
-        String limit = Integer.toString(endIndex);
+        if (keyset.isExhausted()) return new ArrayList<>();
 
-        Cursor cursor = db.query(from, select, where, null, null, null, orderBy, limit);
+        // nulls are compared as 0, since they can't be compared in the keyset filter
+        String[] sortColumns = ExerciseEntry.sortColumns(sortMode);
+        String[] sortKeys = new String[sortColumns.length];
+        for (int i = 0; i < sortColumns.length; i++) {
+            sortKeys[i] = fun("ifnull", sortColumns[i], "0");
+        }
+
+        String[] select = Arrays.copyOf(ExerciseEntry.COLUMNS_EXERLITE,
+            ExerciseEntry.COLUMNS_EXERLITE.length + sortKeys.length);
+        for (int i = 0; i < sortKeys.length; i++) {
+            select[ExerciseEntry.COLUMNS_EXERLITE.length + i] = sortKeys[i] + " AS " + sortKeyAlias(i);
+        }
+
+        String from = ExerciseEntry.TABLE_NAME;
+        String where = keyset.isFirst()
+            ? exerciseFilter("", filter)
+            : keysetFilter(sortKeys, ascending, keyset) + exerciseFilter(" AND", filter);
+        String[] whereArgs = keyset.isFirst()
+            ? bindArgs(exerciseFilterArgs(filter))
+            : bindArgs(keysetFilterArgs(keyset), exerciseFilterArgs(filter));
+        String orderBy = keysetOrderBy(sortKeys, ascending);
+        String limit = Integer.toString(pageSize);
+
+        Cursor cursor = db.query(from, select, where, whereArgs, null, null, orderBy, limit);
         ArrayList<Exerlite> exerlites = unpackLiteCursor(cursor, false);
+
+        // advance keyset to the last row
+        if (cursor.moveToLast()) {
+            Object[] lastSortKeys = new Object[sortKeys.length];
+            for (int i = 0; i < sortKeys.length; i++) {
+                int index = cursor.getColumnIndexOrThrow(sortKeyAlias(i));
+                switch (cursor.getType(index)) {
+                    case Cursor.FIELD_TYPE_INTEGER: lastSortKeys[i] = cursor.getLong(index); break;
+                    case Cursor.FIELD_TYPE_FLOAT: lastSortKeys[i] = cursor.getDouble(index); break;
+                    default: lastSortKeys[i] = cursor.getString(index); break;
+                }
+            }
+            keyset.advance(lastSortKeys, cursor.getInt(cursor.getColumnIndexOrThrow(ExerciseEntry._ID)));
+        }
+        if (exerlites.size() < pageSize) keyset.exhaust();
         cursor.close();
 
         return exerlites;
@@ -161,9 +278,10 @@ public class DbReader extends DbHelper {
         String[] select = ExerciseEntry.COLUMNS_EXERLITE;
         String from = ExerciseEntry.TABLE_NAME;
         String where = exerciseFilter("", filter);
+        String[] whereArgs = bindArgs(exerciseFilterArgs(filter));
         String orderBy = orderBy(sortMode, ascending);
 
-        Cursor cursor = db.query(from, select, where, null, null, null, orderBy);
+        Cursor cursor = db.query(from, select, where, whereArgs, null, null, orderBy);
         ArrayList<Exerlite> exerlites = unpackLiteCursor(cursor, false);
         cursor.close();
 
@@ -171,7 +289,12 @@ public class DbReader extends DbHelper {
     }
 
     /**
-     * Note: when updating this, also update {@link me.felwal.trackfield.R.string#tv_text_empty_search_msg}
+     * Searches exercises by id on the form "#id", or by the words of the search in {@link SearchEntry}. Every word
+     * must prefix match a word of any indexed column.
+     *
+     * <p>Note: when updating this, also update {@link me.felwal.trackfield.R.string#tv_text_empty_search_msg}</p>
+     *
+     * @param sortMode Sort mode, where {@link SorterItem.Mode#RELEVANCE} ranks by occurrences of matched terms
      */
     @NonNull
     public ArrayList<Exerlite> getExerlitesBySearch(String search, SorterItem.Mode sortMode, boolean ascending,
@@ -181,25 +304,63 @@ public class DbReader extends DbHelper {
             return getExerlites(sortMode, ascending, filter);
         }
 
-        String[] select = ExerciseEntry.COLUMNS_EXERLITE;
-        String from = ExerciseEntry.TABLE_NAME;
-        String where =
-            "('#' || " + ExerciseEntry._ID + " = '" + search + "' OR " +
-                ExerciseEntry.COLUMN_DATE + " LIKE " + "'%" + search + "%' OR " +
-                ExerciseEntry.COLUMN_ROUTE + " LIKE " + "'%" + search + "%' OR " +
-                ExerciseEntry.COLUMN_ROUTE_VAR + " LIKE " + "'%" + search + "%' OR " +
-                ExerciseEntry.COLUMN_INTERVAL + " LIKE " + "'%" + search + "%' OR " +
-                ExerciseEntry.COLUMN_DEVICE + " LIKE " + "'%" + search + "%' OR " +
-                ExerciseEntry.COLUMN_RECORDING_METHOD + " LIKE " + "'%" + search + "%' OR " +
-                ExerciseEntry.COLUMN_NOTE + " LIKE " + "'%" + search + "%' OR " +
-                ExerciseEntry.COLUMN_TYPE + " LIKE " + "'%" + search + "%' OR " +
-                ExerciseEntry.COLUMN_LABEL + " LIKE " + "'%" + search + "%')" +
-                exerciseFilter(" AND", filter);
-        String orderBy = orderBy(sortMode, ascending);
+        // search by id
+        if (search.matches("#\\d+")) {
+            String[] select = ExerciseEntry.COLUMNS_EXERLITE;
+            String from = ExerciseEntry.TABLE_NAME;
+            String where = ExerciseEntry._ID + " = ?" + exerciseFilter(" AND", filter);
+            String[] whereArgs = bindArgs(search.substring(1), exerciseFilterArgs(filter));
+
+            Cursor cursor = db.query(from, select, where, whereArgs, null, null, null);
+            ArrayList<Exerlite> exerlites = unpackLiteCursor(cursor, false);
+            cursor.close();
+
+            return exerlites;
+        }
+
+        String matchQuery = SearchEntry.matchQuery(search);
+        if (matchQuery.equals("")) return new ArrayList<>();
+
+        // match in the full-text index and join the matched exercises by id.
+        // the join is wrapped to not make the columns shared with the index ambiguous to the filter and ordering.
+        final String e = "e";
+        final String colRelevance = "relevance";
+        final boolean byRelevance = sortMode == SorterItem.Mode.RELEVANCE;
+
+        String[] matchColumns = Arrays.copyOf(ExerciseEntry.COLUMNS_EXERLITE,
+            ExerciseEntry.COLUMNS_EXERLITE.length + 2);
+        matchColumns[matchColumns.length - 2] = ExerciseEntry.COLUMN_LABEL;
+        matchColumns[matchColumns.length - 1] = ExerciseEntry.COLUMN_ROUTE;
+        String[] matchSelect = new String[matchColumns.length + (byRelevance ? 1 : 0)];
+        for (int i = 0; i < matchColumns.length; i++) {
+            matchSelect[i] = col(e, matchColumns[i]) + " AS " + matchColumns[i];
+        }
+        if (byRelevance) {
+            // the number of occurrences of matched terms, counted from the offset quadruples "col term offset size";
+            // a word matched twice counts twice.
+            // only computed when needed, since it is the most expensive part of broad searches
+            String offsets = "offsets(" + SearchEntry.TABLE_NAME + ")";
+            matchSelect[matchColumns.length] = "(length(" + offsets + ") - length(replace(" + offsets + ", ' ', ''))"
+                + " + 1) / 4 AS " + colRelevance;
+        }
 
-        AppLog.i("search where: " + where);
+        String match = "SELECT " + ExerciseEntry.toString(matchSelect) +
+            " FROM " + SearchEntry.TABLE_NAME +
+            " INNER JOIN " + ExerciseEntry.TABLE_NAME + " AS " + e +
+            " ON " + col(e, ExerciseEntry._ID) + " = " + col(SearchEntry.TABLE_NAME, SearchEntry.COLUMN_DOCID) +
+            " WHERE " + SearchEntry.TABLE_NAME + " MATCH ?";
 
-        Cursor cursor = db.query(from, select, where, null, null, null, orderBy, null);
+        String select = "SELECT " + ExerciseEntry.toString(ExerciseEntry.COLUMNS_EXERLITE);
+        String from = " FROM (" + match + ")";
+        String where = exerciseFilter(" WHERE", filter);
+        String orderBy = " ORDER BY " + (byRelevance
+            ? colRelevance + sortOrder(ascending) + ", " + ExerciseEntry.COLUMN_DATE + sortOrder(false)
+            : orderBy(sortMode, ascending));
+        String query = select + from + where + orderBy;
+
+        AppLog.i("search match: " + matchQuery);
+
+        Cursor cursor = db.rawQuery(query, bindArgs(matchQuery, exerciseFilterArgs(filter)));
         ArrayList<Exerlite> exerlites = unpackLiteCursor(cursor, false);
         cursor.close();
 
@@ -210,13 +371,42 @@ public class DbReader extends DbHelper {
     public ArrayList<Exerlite> getExerlitesByRoute(int routeId, SorterItem.Mode sortMode, boolean ascending,
         @Nullable ExerciseFilter filter) {
 
-        String[] select = ExerciseEntry.COLUMNS_EXERLITE;
-        String from = ExerciseEntry.TABLE_NAME;
-        String where = ExerciseEntry.COLUMN_ROUTE_ID + " = " + routeId + exerciseFilter(" AND", filter);
+        String where = ExerciseEntry.COLUMN_ROUTE_ID + " = ?" + exerciseFilter(" AND", filter);
+        String[] whereArgs = bindArgs(routeId, exerciseFilterArgs(filter));
         String orderBy = orderBy(sortMode, ascending);
 
-        Cursor cursor = db.query(from, select, where, null, null, null, orderBy);
-        ArrayList<Exerlite> exerlites = unpackLiteCursor(cursor, true);
+        // read top 3 from the records if unfiltered, else mark them in sql if supported
+        final boolean recorded = filter == null || !filter.isActive();
+        final boolean windowed = areWindowFunctionsSupported();
+        Cursor cursor;
+
+        if (recorded) {
+            String query = "SELECT " + ExerciseEntry.toString(ExerciseEntry.COLUMNS_EXERLITE) + ", " +
+                selectRecordRank() +
+                " FROM " + ExerciseEntry.TABLE_NAME + joinRecords(RecordEntry.KIND_ROUTE) +
+                " WHERE " + where +
+                " ORDER BY " + orderBy;
+
+            cursor = db.rawQuery(query, bindArgs(routeId, routeId));
+        }
+        else if (windowed) {
+            String query = withTop3ByPace(where) +
+                " SELECT " + ExerciseEntry.toString(ExerciseEntry.COLUMNS_EXERLITE) + ", " + selectTop() +
+                " FROM " + ExerciseEntry.TABLE_NAME + joinTop3() +
+                " WHERE " + where +
+                " ORDER BY " + orderBy;
+
+            cursor = db.rawQuery(query, bindArgs(routeId, exerciseFilterArgs(filter), routeId,
+                exerciseFilterArgs(filter)));
+        }
+        else {
+            String[] select = ExerciseEntry.COLUMNS_EXERLITE;
+            String from = ExerciseEntry.TABLE_NAME;
+
+            cursor = db.query(from, select, where, whereArgs, null, null, orderBy);
+        }
+
+        ArrayList<Exerlite> exerlites = unpackLiteCursor(cursor, !recorded && !windowed);
         cursor.close();
 
         return exerlites;
@@ -230,13 +420,16 @@ public class DbReader extends DbHelper {
 
         String[] select = { "count() AS " + colAmount };
         String from = ExerciseEntry.TABLE_NAME;
-        String where = ExerciseEntry.COLUMN_ROUTE_ID + " = " + routeId +
-            (routeVar != null ? " AND " + ExerciseEntry.COLUMN_ROUTE_VAR + " = '" + routeVar + "'" : "") +
+        String where = ExerciseEntry.COLUMN_ROUTE_ID + " = ?" +
+            (routeVar != null ? " AND " + ExerciseEntry.COLUMN_ROUTE_VAR + " = ?" : "") +
             " AND " + ExerciseEntry.COLUMN_DISTANCE + " != " + Exercise.DISTANCE_DRIVEN +
             columnFilter(" AND", ExerciseEntry.COLUMN_TYPE, types);
+        String[] whereArgs = routeVar != null
+            ? bindArgs(routeId, routeVar, types)
+            : bindArgs(routeId, types);
         String orderBy = orderBy(sortMode, ascending);
 
-        Cursor cursor = db.query(from, select, where, null, null, null, orderBy);
+        Cursor cursor = db.query(from, select, where, whereArgs, null, null, orderBy);
         int amount = 0;
 
         while (cursor.moveToNext()) {
@@ -275,24 +468,44 @@ public class DbReader extends DbHelper {
         String dist = ExerciseEntry.COLUMN_EFFECTIVE_DISTANCE;
         String andExerciseFilter = exerciseFilter(" AND", filter);
 
-        // sqlite 3.25, säkert effektivare
-        /*String query3p25 = "SELECT row_number over (ORDER BY " + orderByPace + ") AS rownum, " + exerliteColumns +
-                " FROM " + table +
-                " WHERE " + id + " IN (SELECT " + id + " FROM " + table + " WHERE " + dist + " >= " + minDist + " AND " + dist + " <= " + maxDist + ")" +
-                " OR " + id + " IN (SELECT " + id + " FROM " + table + " WHERE " + dist + " >= " + minDist + " ORDER BY " + orderByPace + " LIMIT 3)" +
-                " ORDER BY " + orderBy(sortMode, ascending);*/
-
-        String query =
-            "SELECT " + exerliteColumns +
+        // read top 3 from the records if unfiltered, else find them once, and mark them in sql if supported
+        final boolean recorded = filter == null || !filter.isActive();
+        final boolean windowed = areWindowFunctionsSupported();
+        String query;
+        String[] selectionArgs;
+
+        if (recorded) {
+            query = "SELECT " + exerliteColumns + ", " + selectRecordRank() +
+                " FROM " + table + joinRecords(RecordEntry.KIND_DISTANCE) +
+                " WHERE " + dist + " >= ? AND " + dist + " <= ?" +
+                " OR " + id + " IN (" + selectRecordIds(RecordEntry.KIND_DISTANCE) + ")" +
+                " ORDER BY " + orderBy(sortMode, ascending);
+            selectionArgs = bindArgs(distance, minDist, maxDist, distance);
+        }
+        else if (windowed) {
+            query = withTop3ByPace(dist + " >= ?" + andExerciseFilter) +
+                " SELECT " + exerliteColumns + ", " + selectTop() +
+                " FROM " + table + joinTop3() +
+                " WHERE (" + dist + " >= ? AND " + dist + " <= ?" + andExerciseFilter + ")" +
+                " OR " + id + " IN (SELECT " + COLUMN_TOP_ID + " FROM " + TABLE_TOP3 + ")" +
+                " ORDER BY " + orderBy(sortMode, ascending);
+            selectionArgs = bindArgs(minDist, exerciseFilterArgs(filter), minDist, maxDist,
+                exerciseFilterArgs(filter));
+        }
+        else {
+            query = "SELECT " + exerliteColumns +
                 " FROM " + table +
-                " WHERE (" + id + " IN (SELECT " + id + " FROM " + table + " WHERE " + dist + " >= " + minDist +
-                " AND " + dist + " <= " + maxDist + ") " + andExerciseFilter +
-                " OR " + id + " IN (SELECT " + id + " FROM " + table + " WHERE " + dist + " >= " + minDist +
+                " WHERE (" + id + " IN (SELECT " + id + " FROM " + table + " WHERE " + dist + " >= ?" +
+                " AND " + dist + " <= ?) " + andExerciseFilter +
+                " OR " + id + " IN (SELECT " + id + " FROM " + table + " WHERE " + dist + " >= ?" +
                 andExerciseFilter + " ORDER BY " + orderByPace + " LIMIT 3))" +
                 " ORDER BY " + orderBy(sortMode, ascending);
+            selectionArgs = bindArgs(minDist, maxDist, exerciseFilterArgs(filter), minDist,
+                exerciseFilterArgs(filter));
+        }
 
-        Cursor cursor = db.rawQuery(query, null);
-        ArrayList<Exerlite> exerlites = unpackLiteCursor(cursor, true);
+        Cursor cursor = db.rawQuery(query, selectionArgs);
+        ArrayList<Exerlite> exerlites = unpackLiteCursor(cursor, !recorded && !windowed);
         cursor.close();
 
         return exerlites;
@@ -309,22 +522,17 @@ public class DbReader extends DbHelper {
         // since the angle corresponding to a certain distance varies for longitude and not for latitude,
         // a circle in meters results in a ellipse in degrees.
 
-        double radius = place.getRadius();
         double lat = place.getLat();
         double lng = place.getLng();
 
-        // calculate degrees to metres conversion. this differs for latitude and longitude.
-        double deltaDeg = 0.001;
-        float[] deltaLatDistArr = new float[1];
-        float[] deltaLngDistArr = new float[1];
-        Location.distanceBetween(lat, lng, lat + deltaDeg, lng, deltaLatDistArr);
-        Location.distanceBetween(lat, lng, lat, lng + deltaDeg, deltaLngDistArr);
-        float deltaLatDist = deltaLatDistArr[0];
-        float deltaLngDist = deltaLngDistArr[0];
-        double latDistToDegMultiplier = deltaDeg / deltaLatDist;
-        double lngDistToDegMultiplier = deltaDeg / deltaLngDist;
-        double radiusLatDegSqr = MathUtils.sqr(radius * latDistToDegMultiplier);
-        double radiusLngDegSqr = MathUtils.sqr(radius * lngDistToDegMultiplier);
+        // the bounding box of the circle gives both the spatial index prefilter and the radii in degrees
+        LatLngBounds bounds = place.getBounds();
+        double south = bounds.getLatSouth();
+        double north = bounds.getLatNorth();
+        double west = bounds.getLonWest();
+        double east = bounds.getLonEast();
+        double radiusLatDegSqr = MathUtils.sqr((north - south) / 2);
+        double radiusLngDegSqr = MathUtils.sqr((east - west) / 2);
 
         String exerliteColumns = ExerciseEntry.toString(ExerciseEntry.COLUMNS_EXERLITE);
         String table = ExerciseEntry.TABLE_NAME;
@@ -334,17 +542,20 @@ public class DbReader extends DbHelper {
         String endLng = ExerciseEntry.COLUMN_END_LNG;
         String andExerciseFilter = exerciseFilter(" AND", filter);
 
+        // prefilter by bounds in the spatial index, then check the ellipse exactly
         String query =
             "SELECT " + exerliteColumns +
                 " FROM " + table +
-                " WHERE ((" + sqr(lat + " - " + startLat) + " / " + radiusLatDegSqr +
+                " WHERE " + ExerciseEntry._ID + " IN (" + PointEntry.selectExerciseIdsInBounds() + ")" +
+                " AND ((" + sqr(lat + " - " + startLat) + " / " + radiusLatDegSqr +
                 " + " + sqr(lng + " - " + startLng) + " / " + radiusLngDegSqr + ") <= 1" +
                 " OR (" + sqr(lat + " - " + endLat) + " / " + radiusLatDegSqr +
                 " + " + sqr(lng + " - " + endLng) + " / " + radiusLngDegSqr + ") <= 1)" +
                 andExerciseFilter +
                 " ORDER BY " + orderBy(sortMode, ascending);
+        String[] selectionArgs = bindArgs(south, north, west, east, exerciseFilterArgs(filter));
 
-        Cursor cursor = db.rawQuery(query, null);
+        Cursor cursor = db.rawQuery(query, selectionArgs);
         ArrayList<Exerlite> exerlites = unpackLiteCursor(cursor, false);
         cursor.close();
 
@@ -372,7 +583,7 @@ public class DbReader extends DbHelper {
         String[] select = ExerciseEntry.COLUMNS_EXERLITE;
         String from = ExerciseEntry.TABLE_NAME;
         String where = ExerciseEntry.COLUMN_INTERVAL + " = ?" + exerciseFilter(" AND", filter);
-        String[] whereArgs = { interval };
+        String[] whereArgs = bindArgs(interval, exerciseFilterArgs(filter));
         String orderBy = orderBy(sortMode, ascending);
 
         Cursor cursor = db.query(from, select, where, whereArgs, null, null, orderBy);
@@ -388,18 +599,96 @@ public class DbReader extends DbHelper {
 
         String[] select = ExerciseEntry.COLUMNS_EXERLITE;
         String from = ExerciseEntry.TABLE_NAME;
-        String where = ExerciseEntry.COLUMN_DATE + " >= " + DateUtils.toEpochSecond(DateUtils.first(min, max)) +
-            " AND " + ExerciseEntry.COLUMN_DATE + " <= " + DateUtils.toEpochSecond(DateUtils.last(min, max)) +
+        String where = ExerciseEntry.COLUMN_DATE + " >= ? AND " + ExerciseEntry.COLUMN_DATE + " <= ?" +
             exerciseFilter(" AND", filter);
+        String[] whereArgs = bindArgs(DateUtils.toEpochSecond(DateUtils.first(min, max)),
+            DateUtils.toEpochSecond(DateUtils.last(min, max)), exerciseFilterArgs(filter));
         String orderBy = orderBy(sortMode, ascending);
 
-        Cursor cursor = db.query(true, from, select, where, null, null, null, orderBy, null);
+        Cursor cursor = db.query(true, from, select, where, whereArgs, null, null, orderBy, null);
         ArrayList<Exerlite> exerlites = unpackLiteCursor(cursor, false);
         cursor.close();
 
         return exerlites;
     }
 
+    /**
+     * Gets the day, week, month and year totals of the exercises matching a filter. The totals are built from
+     * {@link DailyTotalEntry} on first use or when the filter changes, and otherwise only the days changed by
+     * {@link DbWriter} since the last call are read again.
+     *
+     * @param filter The filter to apply
+     * @return The current totals, shared between calls
+     */
+    @NonNull
+    public PeriodTotals getPeriodTotals(@NonNull ExerciseFilter filter) {
+        synchronized (periodTotalsLock) {
+            if (periodTotals == null || !periodTotals.isFor(filter) || changedDays.size() > MAX_CHANGED_DAYS) {
+                periodTotals = new PeriodTotals(filter);
+                setDailyTotals(periodTotals, filter, null);
+            }
+            else if (changedDays.size() != 0) {
+                setDailyTotals(periodTotals, filter, changedDays);
+            }
+            changedDays.clear();
+
+            return periodTotals;
+        }
+    }
+
+    /**
+     * Reads the totals of days from {@link DailyTotalEntry} into period totals. Days without matching exercises are
+     * cleared.
+     *
+     * @param totals The totals to set days of
+     * @param days The days to read, or null to read all days
+     */
+    private void setDailyTotals(PeriodTotals totals, ExerciseFilter filter, @Nullable HashSet<Long> days) {
+        String colDay = DailyTotalEntry.COLUMN_DAY;
+
+        String[] select = { colDay, sum(DailyTotalEntry.COLUMN_DISTANCE), sum(DailyTotalEntry.COLUMN_TIME),
+            sum(DailyTotalEntry.COLUMN_COUNT) };
+        String from = DailyTotalEntry.TABLE_NAME;
+        String where = days == null
+            ? exerciseFilter("", filter)
+            : columnFilter("", colDay, days) + exerciseFilter(" AND", filter);
+        String[] whereArgs = days == null
+            ? bindArgs(exerciseFilterArgs(filter))
+            : bindArgs(days, exerciseFilterArgs(filter));
+
+        Cursor cursor = db.query(from, select, where, whereArgs, colDay, null, null);
+        HashSet<Long> unsetDays = days == null ? new HashSet<>() : new HashSet<>(days);
+
+        while (cursor.moveToNext()) {
+            long day = cursor.getLong(0);
+            totals.setDay(day, cursor.getDouble(1), cursor.getDouble(2), cursor.getInt(3));
+            unsetDays.remove(day);
+        }
+        cursor.close();
+
+        for (long day : unsetDays) {
+            totals.setDay(day, 0, 0, 0);
+        }
+    }
+
+    /**
+     * Marks days as changed in the cached period totals. Must be called by {@link DbWriter} with the days whose
+     * {@link DailyTotalEntry} rows were written, once committed.
+     *
+     * @param days The changed epoch days, or null if all days may have changed
+     */
+    static void invalidatePeriodTotals(@Nullable long[] days) {
+        synchronized (periodTotalsLock) {
+            if (days == null) {
+                periodTotals = null;
+                changedDays.clear();
+            }
+            else {
+                for (long day : days) changedDays.add(day);
+            }
+        }
+    }
+
     // get routes
 
     @NonNull
@@ -454,27 +743,46 @@ public class DbReader extends DbHelper {
     }
 
     /**
-     * Gets the routeName by corresponding routeId.
+     * Gets the routeName by corresponding routeId. Looks up the cached route dictionary, which is loaded in one query
+     * on first use.
      *
      * @param routeId Id of route
      * @return The routeName of the existing route, or {@link Route#NAME_NONE} if not existing
+     *
+     * @see #invalidateRouteNames()
      */
     @NonNull
     public String getRouteName(int routeId) {
-        String[] select = { RouteEntry.COLUMN_NAME };
+        HashMap<Integer, String> names = routeNames;
+        if (names == null) routeNames = names = loadRouteNames();
+
+        String name = names.get(routeId);
+        return name != null ? name : Route.NAME_NONE;
+    }
+
+    @NonNull
+    private HashMap<Integer, String> loadRouteNames() {
+        String[] select = { RouteEntry._ID, RouteEntry.COLUMN_NAME };
         String from = RouteEntry.TABLE_NAME;
-        String where = RouteEntry._ID + " = ?";
-        String[] whereArgs = { Integer.toString(routeId) };
 
-        Cursor cursor = db.query(from, select, where, whereArgs, null, null, null);
-        String name = Route.NAME_NONE;
-        
+        Cursor cursor = db.query(from, select, null, null, null, null, null);
+        HashMap<Integer, String> names = new HashMap<>();
+
         while (cursor.moveToNext()) {
-            name = cursor.getString(cursor.getColumnIndexOrThrow(RouteEntry.COLUMN_NAME));
+            int id = cursor.getInt(cursor.getColumnIndexOrThrow(RouteEntry._ID));
+            String name = cursor.getString(cursor.getColumnIndexOrThrow(RouteEntry.COLUMN_NAME));
+            names.put(id, name);
         }
         cursor.close();
 
-        return name;
+        return names;
+    }
+
+    /**
+     * Clears the cached route dictionary. Must be called by {@link DbWriter} whenever the routes table is mutated.
+     */
+    static void invalidateRouteNames() {
+        routeNames = null;
     }
 
     /**
@@ -486,20 +794,18 @@ public class DbReader extends DbHelper {
      * @see #getRouteIdOrCreate(String, Context)
      */
     public int getRouteId(String name) {
-        String[] select = { RouteEntry._ID };
-        String from = RouteEntry.TABLE_NAME;
-        String where = RouteEntry.COLUMN_NAME + " = ?";
-        String[] whereArgs = { name };
-
-        Cursor cursor = db.query(from, select, where, whereArgs, null, null, null);
-        int id = Route.ID_NON_EXISTANT;
-        
-        while (cursor.moveToNext()) {
-            id = cursor.getInt(cursor.getColumnIndexOrThrow(RouteEntry._ID));
+        synchronized (routeIdStatement) {
+            try {
+                routeIdStatement.bindString(1, name);
+                return (int) routeIdStatement.simpleQueryForLong();
+            }
+            catch (SQLiteDoneException e) {
+                return Route.ID_NON_EXISTANT;
+            }
+            finally {
+                routeIdStatement.clearBindings();
+            }
         }
-        cursor.close();
-
-        return id;
     }
 
     /**
@@ -590,23 +896,47 @@ public class DbReader extends DbHelper {
         return places.size() > 0 ? places.get(0) : new Place();
     }
 
-    public Place getPlace(LatLng latlng) {
-        // TODO: check for radius instead, and return a list with all places which contains this.
-
-        double lat = latlng.getLatitude();
-        double lng = latlng.getLongitude();
+    /**
+     * Gets the places containing a point, which may overlap. Looks up the cached spatial index, which is built from
+     * {@link #getPlaces()} on first use, and only checks the places overlapping the cell of the point.
+     *
+     * @param latlng The point to look up
+     * @return The containing places, nearest center first, or an empty list if no place contains the point
+     *
+     * @see #invalidatePlaces()
+     */
+    @NonNull
+    public ArrayList<Place> getPlaces(LatLng latlng) {
+        return getPlaceIndex().getContaining(latlng);
+    }
 
-        String from = PlaceEntry.TABLE_NAME;
-        String where = null;
-        String orderBy = sqr(lat + " - " + PlaceEntry.COLUMN_LAT) +
-            " + " + sqr(lng + " - " + PlaceEntry.COLUMN_LNG) + " ASC";
-        String limit = "1";
+    /**
+     * @param latlng The point to look up
+     * @return The containing place with the nearest center, or null if no place contains the point
+     *
+     * @see #getPlaces(LatLng)
+     */
+    @Nullable
+    public Place getPlace(LatLng latlng) {
+        ArrayList<Place> containing = getPlaces(latlng);
+        return containing.size() > 0 ? containing.get(0) : null;
+    }
 
-        Cursor cursor = db.query(from, null, where, null, null, null, orderBy, limit);
-        ArrayList<Place> places = unpackPlaceCursor(cursor);
-        cursor.close();
+    @NonNull
+    private PlaceIndex getPlaceIndex() {
+        synchronized (placeIndexLock) {
+            if (placeIndex == null) placeIndex = new PlaceIndex(getPlaces());
+            return placeIndex;
+        }
+    }
 
-        return places.size() > 0 ? places.get(0) : new Place();
+    /**
+     * Clears the cached place index. Must be called by {@link DbWriter} whenever the places table is mutated.
+     */
+    static void invalidatePlaces() {
+        synchronized (placeIndexLock) {
+            placeIndex = null;
+        }
     }
 
     public int getPlaceId(String name) {
@@ -626,37 +956,51 @@ public class DbReader extends DbHelper {
         return id;
     }
 
-    public ArrayList<Place> generatePlaces() {
-        ArrayList<Place> places = getPlaces();
+    /**
+     * Generates places for all start and end points not already contained by a place. Points are streamed in date
+     * order from the coordinate columns only, without decoding any polylines, and looked up in a spatial grid of the
+     * existing and new places, which makes this linear in the number of exercises.
+     *
+     * @param listener Notified of the progress after each exercise, or null
+     * @return The new places, not yet added to the database
+     *
+     * @see DbWriter#addPlaces(ArrayList)
+     */
+    @NonNull
+    public ArrayList<Place> generatePlaces(@Nullable ProgressListener listener) {
+        PlaceIndex index = new PlaceIndex(getPlaces());
         ArrayList<Place> newPlaces = new ArrayList<>();
 
-        ArrayList<Exercise> exercises = getExercisesWithTrail(SorterItem.Mode.DATE, false);
-
-        for (Exercise e : exercises) {
-            boolean startHasPlace = false;
-            boolean endHasPlace = false;
-
-            LatLng start = e.getTrail().getStart();
-            LatLng end = e.getTrail().getEnd();
-
-            for (Place p : places) {
-                if (p.contains(start)) startHasPlace = true;
-                if (p.contains(end)) endHasPlace = true;
+        String[] select = { ExerciseEntry.COLUMN_START_LAT, ExerciseEntry.COLUMN_START_LNG,
+            ExerciseEntry.COLUMN_END_LAT, ExerciseEntry.COLUMN_END_LNG };
+        String from = ExerciseEntry.TABLE_NAME;
+        String where = ExerciseEntry.COLUMN_START_LAT + " IS NOT NULL AND " +
+            ExerciseEntry.COLUMN_START_LNG + " IS NOT NULL";
+        String orderBy = orderBy(SorterItem.Mode.DATE, false);
 
-                if (startHasPlace && endHasPlace) break;
-            }
+        Cursor cursor = db.query(from, select, where, null, null, null, orderBy);
+        int count = cursor.getCount();
 
-            Place startPlace = null;
-            if (!startHasPlace) {
-                startPlace = new Place(start);
-                places.add(startPlace);
+        while (cursor.moveToNext()) {
+            LatLng start = new LatLng(cursor.getDouble(0), cursor.getDouble(1));
+            if (!index.anyContains(start)) {
+                Place startPlace = new Place(start);
+                index.add(startPlace);
                 newPlaces.add(startPlace);
             }
-            if (!endHasPlace && (startPlace == null || !startPlace.contains(end))) {
-                places.add(new Place(end));
-                newPlaces.add(new Place(end));
+
+            if (!cursor.isNull(2) && !cursor.isNull(3)) {
+                LatLng end = new LatLng(cursor.getDouble(2), cursor.getDouble(3));
+                if (!index.anyContains(end)) {
+                    Place endPlace = new Place(end);
+                    index.add(endPlace);
+                    newPlaces.add(endPlace);
+                }
             }
+
+            if (listener != null) listener.onProgress(cursor.getPosition() + 1, count);
         }
+        cursor.close();
 
         return newPlaces;
     }
@@ -708,12 +1052,13 @@ public class DbReader extends DbHelper {
     public ArrayList<String> getPolylinesByRoute(int routeId, String routeVar) {
         String[] select = { ExerciseEntry.COLUMN_POLYLINE };
         String from = ExerciseEntry.TABLE_NAME;
-        String where = ExerciseEntry.COLUMN_ROUTE_ID + " = " + routeId +
-            " AND " + ExerciseEntry.COLUMN_ROUTE_VAR + " = '" + routeVar + "'" +
+        String where = ExerciseEntry.COLUMN_ROUTE_ID + " = ?" +
+            " AND " + ExerciseEntry.COLUMN_ROUTE_VAR + " = ?" +
             " AND " + ExerciseEntry.COLUMN_POLYLINE + " IS NOT NULL";
             //" AND " + ExerciseEntry.COLUMN_TRAIL_HIDDEN + " = 0";
+        String[] whereArgs = bindArgs(routeId, routeVar);
 
-        Cursor cursor = db.query(from, select, where, null, null, null, null);
+        Cursor cursor = db.query(from, select, where, whereArgs, null, null, null);
         ArrayList<String> polylines = new ArrayList<>();
 
         while (cursor.moveToNext()) {
@@ -750,9 +1095,10 @@ public class DbReader extends DbHelper {
     public Trail getTrail(int id) {
         String[] select = ExerciseEntry.COLUMNS_TRAIL;
         String from = ExerciseEntry.TABLE_NAME;
-        String where = ExerciseEntry._ID + " = " + id;
+        String where = ExerciseEntry._ID + " = ?";
+        String[] whereArgs = { Integer.toString(id) };
 
-        Cursor cursor = db.query(from, select, where, null, null, null, null);
+        Cursor cursor = db.query(from, select, where, whereArgs, null, null, null);
         Trail trail = null;
 
         if (cursor.moveToNext()) {
@@ -770,9 +1116,15 @@ public class DbReader extends DbHelper {
 
     // get items
 
+    /**
+     * Gets route items with their amount, average distance and best pace. Unfiltered, these are read from the summary
+     * columns of {@link RouteEntry}; with an active filter they are aggregated over the matching exercises.
+     */
     @NonNull
     public ArrayList<RouteItem> getRouteItems(SorterItem.Mode sortMode, boolean ascending, boolean includeHidden,
-        ExerciseFilter filter) {
+        @Nullable ExerciseFilter filter) {
+
+        if (filter == null || !filter.isActive()) return getRouteItemsBySummary(sortMode, ascending, includeHidden);
 
         final String tabExercises = ExerciseEntry.TABLE_NAME;
         final String tabRoutes = RouteEntry.TABLE_NAME;
@@ -841,7 +1193,8 @@ public class DbReader extends DbHelper {
 
         AppLog.i("getRouteItems: " + query);
 
-        Cursor cursor = db.rawQuery(query, null);
+        // the filter occurs in both the inner join and the where clause
+        Cursor cursor = db.rawQuery(query, bindArgs(exerciseFilterArgs(filter), exerciseFilterArgs(filter)));
         ArrayList<RouteItem> routeItems = new ArrayList<>();
 
         while (cursor.moveToNext()) {
@@ -857,9 +1210,77 @@ public class DbReader extends DbHelper {
         return routeItems;
     }
 
+    /**
+     * Reads route items from the summary columns of {@link RouteEntry}, which are kept current by triggers. Only date
+     * sorting needs the exercises, through the route index.
+     */
+    @NonNull
+    private ArrayList<RouteItem> getRouteItemsBySummary(SorterItem.Mode sortMode, boolean ascending,
+        boolean includeHidden) {
+
+        final String colId = RouteEntry._ID;
+        final String colAmount = RouteEntry.COLUMN_AMOUNT;
+        final String colBestPace = RouteEntry.COLUMN_BEST_PACE;
+
+        String[] select = { colId, RouteEntry.COLUMN_NAME, colAmount, RouteEntry.COLUMN_AVG_DISTANCE, colBestPace };
+        String from = RouteEntry.TABLE_NAME;
+
+        // as when aggregating, routes without any exercise with a pace are left out
+        String where = colAmount + " > 0 AND " + colBestPace + " IS NOT NULL" +
+            (includeHidden ? "" : " AND " + RouteEntry.COLUMN_HIDDEN + " != 1") +
+            (includeHidden || !Prefs.areSingletonGroupsHidden() ? "" : " AND " + colAmount + " > 1");
+
+        String ofRoute = " FROM " + ExerciseEntry.TABLE_NAME +
+            " WHERE " + ExerciseEntry.COLUMN_ROUTE_ID + " = " + col(RouteEntry.TABLE_NAME, colId) + ")";
+        String orderBy;
+        switch (sortMode) {
+            case NAME:
+                orderBy = RouteEntry.COLUMN_NAME;
+                break;
+            case AMOUNT:
+                orderBy = colAmount;
+                break;
+            case DISTANCE:
+                orderBy = RouteEntry.COLUMN_AVG_DISTANCE;
+                break;
+            case PACE:
+                orderBy = colBestPace;
+                break;
+            case DATE_ALT:
+                orderBy = "(SELECT min(" + ExerciseEntry.COLUMN_DATE + ")" + ofRoute;
+                break;
+            case DATE:
+            default:
+                orderBy = "(SELECT max(" + ExerciseEntry.COLUMN_DATE + ")" + ofRoute;
+                break;
+        }
+        orderBy += sortOrder(ascending);
+
+        Cursor cursor = db.query(from, select, where, null, null, null, orderBy);
+        ArrayList<RouteItem> routeItems = new ArrayList<>();
+
+        while (cursor.moveToNext()) {
+            int routeId = cursor.getInt(cursor.getColumnIndexOrThrow(colId));
+            String name = cursor.getString(cursor.getColumnIndexOrThrow(RouteEntry.COLUMN_NAME));
+            int count = cursor.getInt(cursor.getColumnIndexOrThrow(colAmount));
+            int avgDistance = cursor.getInt(cursor.getColumnIndexOrThrow(RouteEntry.COLUMN_AVG_DISTANCE));
+            int bestPace = cursor.getInt(cursor.getColumnIndexOrThrow(colBestPace));
+            routeItems.add(new RouteItem(routeId, name, count, avgDistance, bestPace));
+        }
+        cursor.close();
+
+        return routeItems;
+    }
+
+    /**
+     * Gets distance items with their best pace. Unfiltered, the best pace is read from {@link DistanceEntry}, where it
+     * is kept current by triggers; with an active filter it is aggregated over the matching exercises.
+     */
     @NonNull @SuppressLint("Range")
     public ArrayList<DistanceItem> getDistanceItems(SorterItem.Mode sortMode, boolean ascending,
-        ExerciseFilter filter) {
+        @Nullable ExerciseFilter filter) {
+
+        if (filter == null || !filter.isActive()) return getDistanceItemsByBests(sortMode, ascending);
 
         String tabExercises = ExerciseEntry.TABLE_NAME;
         String tabDistances = DistanceEntry.TABLE_NAME;
@@ -887,7 +1308,7 @@ public class DbReader extends DbHelper {
         " SELECT min(" + tabColExPace + ")" +
             " FROM " + tabExercises +
             " WHERE " + colExEffDist + " >= " + col(tabDistances, colDiDist) + " - " + Prefs.getDistanceLowerLimit() +
-            " AND " + colExTime + " != 0 " + exerciseFilter("AND", filter) + ")" +
+            " AND " + colExTime + " != 0" + exerciseFilter(" AND", filter) + ")" +
             " AS " + colBestPace +
             " FROM " + tabDistances;
 
@@ -895,7 +1316,7 @@ public class DbReader extends DbHelper {
 
         AppLog.i("getDistanceItems: " + query);
 
-        Cursor cursor = db.rawQuery(query, null);
+        Cursor cursor = db.rawQuery(query, bindArgs(exerciseFilterArgs(filter)));
         ArrayList<DistanceItem> distanceItems = new ArrayList<>();
 
         while (cursor.moveToNext()) {
@@ -910,6 +1331,27 @@ public class DbReader extends DbHelper {
         return distanceItems;
     }
 
+    @NonNull
+    private ArrayList<DistanceItem> getDistanceItemsByBests(SorterItem.Mode sortMode, boolean ascending) {
+        String[] select = { DistanceEntry.COLUMN_DISTANCE, DistanceEntry.COLUMN_BEST_PACE };
+        String from = DistanceEntry.TABLE_NAME;
+
+        // amount sorting is not yet supported
+        String orderBy = DistanceEntry.COLUMN_DISTANCE + sortOrder(ascending);
+
+        Cursor cursor = db.query(from, select, null, null, null, null, orderBy);
+        ArrayList<DistanceItem> distanceItems = new ArrayList<>();
+
+        while (cursor.moveToNext()) {
+            int distance = cursor.getInt(cursor.getColumnIndexOrThrow(DistanceEntry.COLUMN_DISTANCE));
+            float bestPace = cursor.getFloat(cursor.getColumnIndexOrThrow(DistanceEntry.COLUMN_BEST_PACE));
+            distanceItems.add(new DistanceItem(distance, bestPace));
+        }
+        cursor.close();
+
+        return distanceItems;
+    }
+
     @NonNull @SuppressLint("Range")
     public ArrayList<IntervalItem> getIntervalItems(SorterItem.Mode sortMode, boolean ascending,
         boolean includeHidden, ExerciseFilter filter) {
@@ -919,6 +1361,7 @@ public class DbReader extends DbHelper {
         String[] select = { ExerciseEntry.COLUMN_INTERVAL, "count() AS " + colAmount };
         String from = ExerciseEntry.TABLE_NAME;
         String where = ExerciseEntry.COLUMN_INTERVAL + " != ''" + exerciseFilter(" AND", filter);
+        String[] whereArgs = bindArgs(exerciseFilterArgs(filter));
         String groupBy = ExerciseEntry.COLUMN_INTERVAL;
         String having = includeHidden || !Prefs.areSingletonGroupsHidden() ? "" : colAmount + " > 1";
 
@@ -936,7 +1379,7 @@ public class DbReader extends DbHelper {
         }
         orderBy += sortOrder(ascending);
 
-        Cursor cursor = db.query(from, select, where, null, groupBy, having, orderBy);
+        Cursor cursor = db.query(from, select, where, whereArgs, groupBy, having, orderBy);
         ArrayList<IntervalItem> intervalItems = new ArrayList<>();
 
         while (cursor.moveToNext()) {
@@ -978,8 +1421,32 @@ public class DbReader extends DbHelper {
 
     // projections
 
-    @SuppressLint("Range")
+    /**
+     * Gets the resolved driven distance of a route, routeVar and type from {@link DrivenDistanceEntry}. Falls back to
+     * resolving it if not yet maintained, e.g. for an exercise not yet added.
+     *
+     * @return The average non-driven distance to use for driven exercises
+     *
+     * @see DbWriter#rebuildDrivenDistances()
+     */
     public int getDrivenDistance(int routeId, String routeVar, String type) {
+        String[] select = { DrivenDistanceEntry.COLUMN_DISTANCE };
+        String from = DrivenDistanceEntry.TABLE_NAME;
+        String where = DrivenDistanceEntry.COLUMN_ROUTE_ID + " = ? AND " + DrivenDistanceEntry.COLUMN_ROUTE_VAR +
+            " = ? AND " + DrivenDistanceEntry.COLUMN_TYPE + " = ?";
+        String[] whereArgs = { Integer.toString(routeId), routeVar, type };
+
+        Cursor cursor = db.query(from, select, where, whereArgs, null, null, null);
+        int drivenDistance = cursor.moveToNext()
+            ? cursor.getInt(cursor.getColumnIndexOrThrow(DrivenDistanceEntry.COLUMN_DISTANCE))
+            : resolveDrivenDistance(routeId, routeVar, type);
+        cursor.close();
+
+        return drivenDistance;
+    }
+
+    @SuppressLint("Range")
+    private int resolveDrivenDistance(int routeId, String routeVar, String type) {
         ArrayList<String> types = new ArrayList<>(Collections.singleton(type));
         String colAvgDistance = "avg_distance";
 
@@ -997,10 +1464,10 @@ public class DbReader extends DbHelper {
             || getExerliteCountByRoute(routeId, null, SorterItem.Mode.DATE, true, types) > 0);
 
         String andTypeFilter = filterByType
-            ? " AND " + ExerciseEntry.COLUMN_TYPE + " = '" + type  + "'"
+            ? " AND " + ExerciseEntry.COLUMN_TYPE + " = " + sqlLiteral(type)
             : "";
         String andRoutevarFilter = filterByRoutevar
-            ? " AND " + ExerciseEntry.COLUMN_ROUTE_VAR + " = '" + routeVar + "'"
+            ? " AND " + ExerciseEntry.COLUMN_ROUTE_VAR + " = " + sqlLiteral(routeVar)
             : "";
 
         String query =
@@ -1050,16 +1517,13 @@ public class DbReader extends DbHelper {
     }
 
     public boolean doesStravaIdExist(long stravaId) {
-        String[] select = {};
-        String from = ExerciseEntry.TABLE_NAME;
-        String where = ExerciseEntry.COLUMN_STRAVA_ID + " = ?";
-        String[] whereArgs = { Long.toString(stravaId) };
+        synchronized (stravaIdExistsStatement) {
+            stravaIdExistsStatement.bindLong(1, stravaId);
+            boolean exists = stravaIdExistsStatement.simpleQueryForLong() != 0;
+            stravaIdExistsStatement.clearBindings();
 
-        Cursor cursor = db.query(true, from, select, where, whereArgs, null, null, null, null);
-        boolean exists = cursor.getCount() > 0;
-        cursor.close();
-
-        return exists;
+            return exists;
+        }
     }
 
     // get single
@@ -1229,62 +1693,107 @@ public class DbReader extends DbHelper {
 
     // streamlined graph data
 
-    @Unfinished @SuppressLint("Range")
-    public TreeMap<Float, Float> aggregateDistance(ExerciseFilter filter, LocalDate startDate,
-        int nodeCount, ChronoUnit groupUnit) {
-        // TODO
+    /**
+     * Aggregates a metric over consecutive periods in one grouped range scan of {@link DailyTotalEntry}.
+     *
+     * @param metric The metric to sum
+     * @param startDate The first day of the first period
+     * @param nodeCount The number of periods
+     * @param groupUnit The length of each period; days, weeks, months or years
+     * @param cumulative Whether each period should include all periods before it
+     * @return The sum of each period, with empty periods as 0
+     */
+    @NonNull
+    public float[] aggregate(Metric metric, ExerciseFilter filter, LocalDate startDate, int nodeCount,
+        ChronoUnit groupUnit, boolean cumulative) {
 
-        LocalDate endDate = startDate.plus(nodeCount, groupUnit);
-        long startEpoch = DateUtils.toEpochSecond(DateUtils.dateTime(startDate));
-        long endEpoch = DateUtils.toEpochSecond(DateUtils.dateTime(endDate));
+        return aggregate(metric, filter, startDate, startDate.plus(nodeCount, groupUnit), nodeCount, groupUnit,
+            cumulative);
+    }
 
-        String colDdate = ExerciseEntry.COLUMN_DATE;
-        String colDist = ExerciseEntry.COLUMN_EFFECTIVE_DISTANCE;
-        String colDateGroup = "date_group";
-        String colTotDist = "total_distance";
+    /**
+     * Aggregates a metric over the periods of each year in a range. The years are split as partitions on a fork/join
+     * pool and evaluated concurrently, each on its own pooled connection.
+     *
+     * @param firstYear The first year
+     * @param lastYear The last year, inclusive
+     * @param groupUnit The length of each period; days, weeks or months. Weeks are counted from the first day of the
+     * year, so the last week of the year is cut short
+     * @return The sums of each year from the first, as of
+     * {@link #aggregate(Metric, ExerciseFilter, LocalDate, int, ChronoUnit, boolean)}
+     */
+    @NonNull
+    public float[][] aggregateYears(Metric metric, ExerciseFilter filter, int firstYear, int lastYear,
+        ChronoUnit groupUnit, boolean cumulative) {
 
+        float[][] years = new float[Math.max(lastYear - firstYear + 1, 0)][];
+        if (years.length == 0) return years;
+
+        YearPartition partition = new YearPartition(metric, filter, firstYear, groupUnit, cumulative, years, 0,
+            years.length);
+
+        // the calling thread takes part in the work, so the pool needs no more threads than cores less one
+        ForkJoinPool.commonPool().invoke(partition);
+        return years;
+    }
+
+    /**
+     * @param endDate The day after the last period, to cut the last period short
+     *
+     * @see #aggregate(Metric, ExerciseFilter, LocalDate, int, ChronoUnit, boolean)
+     */
+    @NonNull
+    private float[] aggregate(Metric metric, ExerciseFilter filter, LocalDate startDate, LocalDate endDate,
+        int nodeCount, ChronoUnit groupUnit, boolean cumulative) {
+
+        String colDay = DailyTotalEntry.COLUMN_DAY;
+        String colBucket = "bucket";
+        String colTotal = "total";
+
+        // the type and label columns share names with those of exercises, so the exercise filter applies as is
         String query =
-            "SELECT " + strftime(groupUnit, colDdate) + " AS " + colDateGroup + ", " +
-                sum(colDist) + " AS " + colTotDist +
-                " FROM " + ExerciseEntry.TABLE_NAME +
-                " WHERE " + colDdate + " >= " + startEpoch +
-                " AND " + colDdate + " < " + endEpoch + exerciseFilter(" AND", filter) +
-                " GROUP BY " + colDateGroup +
-                " ORDER BY " + orderBy(SorterItem.Mode.DATE, true);
+            "SELECT " + bucket(groupUnit, colDay) + " AS " + colBucket + ", " +
+                sum(metric.column) + " AS " + colTotal +
+                " FROM " + DailyTotalEntry.TABLE_NAME +
+                " WHERE " + colDay + " >= ?" +
+                " AND " + colDay + " < ?" + exerciseFilter(" AND", filter) +
+                " GROUP BY " + colBucket;
 
-        Cursor cursor = db.rawQuery(query, null);
-        TreeMap<Float, Float> nodes = new TreeMap<>();
+        Cursor cursor = db.rawQuery(query, bindArgs(bucketOrigin(groupUnit, startDate), startDate.toEpochDay(),
+            endDate.toEpochDay(), exerciseFilterArgs(filter)));
+        float[] nodes = new float[nodeCount];
 
         while (cursor.moveToNext()) {
-            // use getString and Float.valueOf to avoid cursor converting e.g. 08 to 0
-            String dateGroup = cursor.getString(cursor.getColumnIndex(colDateGroup));
-            float totalDistance = cursor.getInt(cursor.getColumnIndex(colTotDist));
-            nodes.put(Float.valueOf(dateGroup), totalDistance);
+            int bucket = cursor.getInt(0);
+            if (bucket >= 0 && bucket < nodeCount) nodes[bucket] = cursor.getFloat(1);
         }
         cursor.close();
 
-        // create empty nodes
-        int startGroup = startDate.get(DateUtils.toChronoField(groupUnit));
-        int endGroup = endDate.get(DateUtils.toChronoField(groupUnit));
-        for (int group = startGroup; group < endGroup; group++) {
-            if (!nodes.containsKey((float) group)) {
-                nodes.put((float) group, 0f);
+        if (cumulative) {
+            for (int i = 1; i < nodeCount; i++) {
+                nodes[i] += nodes[i - 1];
             }
         }
 
         return nodes;
     }
 
-    @Unfinished
-    public TreeMap<Float, Float> accummulateDistance() {
-        // TODO
-        TreeMap<Float, Float> nodes = new TreeMap<>();
+    @NonNull
+    public float[] aggregateDistance(ExerciseFilter filter, LocalDate startDate, int nodeCount,
+        ChronoUnit groupUnit) {
 
-        return nodes;
+        return aggregate(Metric.DISTANCE, filter, startDate, nodeCount, groupUnit, false);
+    }
+
+    @NonNull
+    public float[] accummulateDistance(ExerciseFilter filter, LocalDate startDate, int nodeCount,
+        ChronoUnit groupUnit) {
+
+        return aggregate(Metric.DISTANCE, filter, startDate, nodeCount, groupUnit, true);
     }
 
     @SuppressLint("Range")
-    public TreeMap<Float, Float> getPaceNodesByDistance(int distance, ExerciseFilter filter) {
+    public Series getPaceNodesByDistance(int distance, ExerciseFilter filter) {
         int minDist = MathUtils.minDistance(distance);
         int maxDist = MathUtils.maxDistance(distance);
 
@@ -1299,24 +1808,49 @@ public class DbReader extends DbHelper {
         String orderByPace = orderBy(SorterItem.Mode.PACE, true);
         String orderByDate = orderBy(SorterItem.Mode.DATE, true);
 
-        String query =
-            "SELECT " + select +
+        String query;
+        String[] selectionArgs;
+
+        if (filter == null || !filter.isActive()) {
+            query = "SELECT " + select +
+                " FROM " + table +
+                " WHERE (" + colDist + " >= ? AND " + colDist + " <= ? AND " + selPace + " > 0)" +
+                " OR " + colId + " IN (" + selectRecordIds(RecordEntry.KIND_DISTANCE) + ")" +
+                " ORDER BY " + orderByDate;
+            selectionArgs = bindArgs(minDist, maxDist, distance);
+        }
+        else if (areWindowFunctionsSupported()) {
+            String wherePace = ExerciseEntry.SELECTION_PACE + " > 0";
+            query = withTop3ByPace(colDist + " >= ? AND " + wherePace + andTypeFilter) +
+                " SELECT " + select +
+                " FROM " + table +
+                " WHERE (" + colDist + " >= ? AND " + colDist + " <= ? AND " + wherePace + andTypeFilter + ")" +
+                " OR " + colId + " IN (SELECT " + COLUMN_TOP_ID + " FROM " + TABLE_TOP3 + ")" +
+                " ORDER BY " + orderByDate;
+            selectionArgs = bindArgs(minDist, exerciseFilterArgs(filter), minDist, maxDist,
+                exerciseFilterArgs(filter));
+        }
+        else {
+            query = "SELECT " + select +
                 " FROM " + table +
                 " WHERE (" + colId + " IN (SELECT " + colId + " FROM " + table + " WHERE " + selPace + " > 0 AND " +
-                colDist + " >= " + minDist + " AND " + colDist + " <= " + maxDist + ")" + andTypeFilter +
-                " OR " + colId + " IN (SELECT " + colId + " FROM " + table + " WHERE " + colDist + " >= " + minDist +
+                colDist + " >= ? AND " + colDist + " <= ?)" + andTypeFilter +
+                " OR " + colId + " IN (SELECT " + colId + " FROM " + table + " WHERE " + colDist + " >= ?" +
                 " AND " + selPace + " > 0" + andTypeFilter + " ORDER BY " + orderByPace + " LIMIT 3))" +
                 " ORDER BY " + orderByDate;
+            selectionArgs = bindArgs(minDist, maxDist, exerciseFilterArgs(filter), minDist,
+                exerciseFilterArgs(filter));
+        }
 
         AppLog.i(" getPaceNodesByDistance: " + query);
 
-        Cursor cursor = db.rawQuery(query, null);
-        TreeMap<Float, Float> nodes = new TreeMap<>();
+        Cursor cursor = db.rawQuery(query, selectionArgs);
+        Series nodes = new Series(cursor.getCount());
         int rowNum = 0;
 
         while (cursor.moveToNext()) {
             float pace = cursor.getFloat(cursor.getColumnIndex(selPace));
-            nodes.put((float) rowNum++, pace);
+            nodes.add(rowNum++, pace);
         }
         cursor.close();
 
@@ -1324,17 +1858,17 @@ public class DbReader extends DbHelper {
     }
 
     @SuppressLint("Range")
-    public TreeMap<Float, Float> getPaceNodesByRoute(int routeId, ExerciseFilter filter) {
+    public Series getPaceNodesByRoute(int routeId, ExerciseFilter filter) {
         String colPace = "pace";
 
         String[] select = { ExerciseEntry.SELECTION_PACE + " AS " + colPace };
         String from = ExerciseEntry.TABLE_NAME;
-        String where = ExerciseEntry.COLUMN_ROUTE_ID + " = " + routeId +
-            exerciseFilter(" AND", filter);
+        String where = ExerciseEntry.COLUMN_ROUTE_ID + " = ?" + exerciseFilter(" AND", filter);
+        String[] whereArgs = bindArgs(routeId, exerciseFilterArgs(filter));
         String orderBy = orderBy(SorterItem.Mode.DATE, true);
 
-        Cursor cursor = db.query(from, select, where, null, null, null, orderBy);
-        TreeMap<Float, Float> nodes = new TreeMap<>();
+        Cursor cursor = db.query(from, select, where, whereArgs, null, null, orderBy);
+        Series nodes = new Series(cursor.getCount());
         int rowNum = 0;
 
         while (cursor.moveToNext()) {
@@ -1343,7 +1877,7 @@ public class DbReader extends DbHelper {
                 rowNum++;
                 continue;
             }
-            nodes.put((float) rowNum++, pace);
+            nodes.add(rowNum++, pace);
         }
         cursor.close();
 
@@ -1351,15 +1885,15 @@ public class DbReader extends DbHelper {
     }
 
     @SuppressLint("Range")
-    public TreeMap<Float, Float> getHeartrateNodesByRoute(int routeId, ExerciseFilter filter) {
+    public Series getHeartrateNodesByRoute(int routeId, ExerciseFilter filter) {
         String[] select = { ExerciseEntry.COLUMN_HEARTRATE_AVG };
         String from = ExerciseEntry.TABLE_NAME;
-        String where = ExerciseEntry.COLUMN_ROUTE_ID + " = " + routeId +
-            exerciseFilter(" AND", filter);
+        String where = ExerciseEntry.COLUMN_ROUTE_ID + " = ?" + exerciseFilter(" AND", filter);
+        String[] whereArgs = bindArgs(routeId, exerciseFilterArgs(filter));
         String orderBy = orderBy(SorterItem.Mode.DATE, true);
 
-        Cursor cursor = db.query(from, select, where, null, null, null, orderBy);
-        TreeMap<Float, Float> nodes = new TreeMap<>();
+        Cursor cursor = db.query(from, select, where, whereArgs, null, null, orderBy);
+        Series nodes = new Series(cursor.getCount());
         int rowNum = 0;
 
         while (cursor.moveToNext()) {
@@ -1368,7 +1902,7 @@ public class DbReader extends DbHelper {
                 rowNum++;
                 continue;
             }
-            nodes.put((float) rowNum++, heartrate);
+            nodes.add(rowNum++, heartrate);
         }
         cursor.close();
 
@@ -1377,131 +1911,137 @@ public class DbReader extends DbHelper {
 
     // graph data
 
-    public TreeMap<Float, Float> getWeekDailyDistance(ExerciseFilter filter, LocalDate includingDate) {
-        TreeMap<Float, Float> points = new TreeMap<>();
-        TreeMap<Integer, Integer> dayAndDistance = new TreeMap<>();
-        ArrayList<Exerlite> exerlites = getExerlitesByDate(DateUtils.atStartOfWeek(includingDate),
-            DateUtils.atEndOfWeek(includingDate), SorterItem.Mode.DATE, false, filter);
-
-        for (Exerlite e : exerlites) {
-            int key = e.getDate().getDayOfWeek().getValue();
-            int value = dayAndDistance.containsKey(key) ? dayAndDistance.get(key) + e.getDistance() : e.getDistance();
-            dayAndDistance.put(key, value);
-        }
-
-        for (int d = 1; d <= 7; d++) {
-            points.put((float) d, dayAndDistance.containsKey(d) ? (float) dayAndDistance.get(d) : 0);
-        }
-
-        return points;
+    public Series getWeekDailyDistance(ExerciseFilter filter, LocalDate includingDate) {
+        LocalDate first = DateUtils.atStartOfWeek(includingDate).toLocalDate();
+        return toNodes(aggregateDistance(filter, first, 7, ChronoUnit.DAYS), false, 7);
     }
 
-    public TreeMap<Float, Float> getYearMonthlyDistance(ExerciseFilter filter, LocalDate includingDate) {
-        TreeMap<Float, Float> points = new TreeMap<>();
-        TreeMap<Integer, Integer> monthAndDistance = new TreeMap<>();
-        ArrayList<Exerlite> exerlites = getExerlitesByDate(DateUtils.atStartOfYear(includingDate),
-            DateUtils.atEndOfYear(includingDate), SorterItem.Mode.DATE, false, filter);
+    public Series getYearMonthlyDistance(ExerciseFilter filter, LocalDate includingDate) {
+        LocalDate first = DateUtils.atStartOfYear(includingDate).toLocalDate();
+        return toNodes(aggregateDistance(filter, first, 12, ChronoUnit.MONTHS), false, 12);
+    }
 
-        for (Exerlite e : exerlites) {
-            int key = e.getDate()
-                .getMonthValue();
-            int value =
-                monthAndDistance.containsKey(key) ? monthAndDistance.get(key) + e.getDistance() : e.getDistance();
-            monthAndDistance.put(key, value);
-        }
+    public Series getYearMonthlyDistanceGoal() {
+        Series points = new Series();
 
         for (int m = 1; m <= 12; m++) {
-            points.put((float) m, monthAndDistance.containsKey(m) ? (float) monthAndDistance.get(m) : 0);
+            points.add(m, 100_000f);
         }
 
         return points;
     }
 
-    public TreeMap<Float, Float> getYearMonthlyDistanceGoal() {
-        TreeMap<Float, Float> points = new TreeMap<>();
+    public Series getMonthDailyIntegralDistance(ExerciseFilter filter,
+        LocalDate includingDate) {
 
-        for (int m = 1; m <= 12; m++) {
-            points.put((float) m, 100_000f);
-        }
+        LocalDate first = DateUtils.atStartOfMonth(includingDate).toLocalDate();
+        int dayCount = includingDate.lengthOfMonth();
+        float[] totals = accummulateDistance(filter, first, dayCount, ChronoUnit.DAYS);
+        if (totals[dayCount - 1] == 0) return new Series();
 
-        return points;
+        // end at today for the current month
+        int lastDay = includingDate.isEqual(LocalDate.now()) ? includingDate.getDayOfMonth() : dayCount;
+        return toNodes(totals, true, lastDay);
     }
 
-    public TreeMap<Float, Float> getMonthDailyIntegralDistance(ExerciseFilter filter,
-        LocalDate includingDate) {
+    public Series getYearWeeklyIntegralDistance(ExerciseFilter filter, LocalDate includingDate) {
+        // weeks are counted from the first day of the year, as the rounded up day of year divided by 7,
+        // so the last week of the year is cut short
+        LocalDate first = DateUtils.atStartOfYear(includingDate).toLocalDate();
+        int weekCount = (first.lengthOfYear() + 6) / 7;
+        float[] totals = aggregate(Metric.DISTANCE, filter, first, first.plusYears(1), weekCount, ChronoUnit.WEEKS,
+            true);
 
-        TreeMap<Float, Float> points = new TreeMap<>();
-        TreeMap<Integer, Integer> dayAndDistance = new TreeMap<>();
-        ArrayList<Exerlite> exerlites = getExerlitesByDate(DateUtils.atStartOfMonth(includingDate),
-            DateUtils.atEndOfMonth(includingDate), SorterItem.Mode.DATE, false, filter);
+        return toYearWeeklyIntegral(totals, includingDate.getYear());
+    }
 
-        float totalDistance = 0;
+    /**
+     * Gets the weekly integral distance of each year in a range, with the years aggregated concurrently.
+     *
+     * @see #getYearWeeklyIntegralDistance(ExerciseFilter, LocalDate)
+     * @see #aggregateYears(Metric, ExerciseFilter, int, int, ChronoUnit, boolean)
+     */
+    public Series[] getYearsWeeklyIntegralDistance(ExerciseFilter filter, int firstYear, int lastYear) {
+        float[][] totals = aggregateYears(Metric.DISTANCE, filter, firstYear, lastYear, ChronoUnit.WEEKS, true);
+        Series[] years = new Series[totals.length];
 
-        for (Exerlite e : exerlites) {
-            int key = e.getDate()
-                .getDayOfMonth();
-            int value = dayAndDistance.containsKey(key) ? dayAndDistance.get(key) + e.getDistance() : e.getDistance();
-            dayAndDistance.put(key, value);
+        for (int i = 0; i < totals.length; i++) {
+            years[i] = toYearWeeklyIntegral(totals[i], firstYear + i);
         }
-        if (dayAndDistance.size() == 0) return points;
 
-        for (int d = 0; d <= includingDate.lengthOfMonth(); d++) {
-            if (dayAndDistance.containsKey(d)) totalDistance += dayAndDistance.get(d);
-            points.put((float) d, totalDistance);
-            if (includingDate.isEqual(LocalDate.now()) && LocalDate.now()
-                .getDayOfMonth() == d) {
-                break;
-            }
+        return years;
+    }
+
+    /**
+     * Gets the monthly distance of each year in a range, with the years aggregated concurrently.
+     *
+     * @see #getYearMonthlyDistance(ExerciseFilter, LocalDate)
+     * @see #aggregateYears(Metric, ExerciseFilter, int, int, ChronoUnit, boolean)
+     */
+    public Series[] getYearsMonthlyDistance(ExerciseFilter filter, int firstYear, int lastYear) {
+        float[][] totals = aggregateYears(Metric.DISTANCE, filter, firstYear, lastYear, ChronoUnit.MONTHS, false);
+        Series[] years = new Series[totals.length];
+
+        for (int i = 0; i < totals.length; i++) {
+            years[i] = toNodes(totals[i], false, 12);
         }
 
-        return points;
+        return years;
     }
 
-    public TreeMap<Float, Float> getYearWeeklyIntegralDistance(ExerciseFilter filter, LocalDate includingDate) {
+    private Series toYearWeeklyIntegral(float[] totals, int year) {
+        int weekCount = totals.length;
+        if (totals[weekCount - 1] == 0) return new Series();
 
-        TreeMap<Float, Float> points = new TreeMap<>();
-        ArrayList<Exerlite> exerlites = getExerlitesByDate(DateUtils.atStartOfYear(includingDate),
-            DateUtils.atEndOfYear(includingDate), SorterItem.Mode.DATE, true, filter);
+        // end at the current week for the current year
+        int lastWeek = year == LocalDate.now().getYear() ? (LocalDate.now().getDayOfYear() + 6) / 7 : weekCount;
+        return toNodes(totals, true, lastWeek);
+    }
 
-        float totalDistance = 0;
-        float lastWeek = 0;
+    /**
+     * Converts aggregated values to graph nodes, with the value of each period at x = 1 and onwards.
+     *
+     * @param integral Whether to start with a node of 0 at x = 0
+     * @param lastX The x of the last node to include
+     */
+    private Series toNodes(float[] values, boolean integral, int lastX) {
+        Series nodes = new Series(lastX + 1);
 
-        for (Exerlite e : exerlites) {
-            float week = (float) Math.ceil(e.getDate()
-                .getDayOfYear() / 7f);//e.getWeek();
-            if (week != lastWeek) {
-                points.put(lastWeek, totalDistance);
-                lastWeek = week;
-            }
-            totalDistance += e.getDistance();
+        if (integral) nodes.add(0, 0);
+        for (int x = 1; x <= lastX; x++) {
+            nodes.add(x, values[x - 1]);
         }
 
-        return points;
+        return nodes;
     }
 
     @Deprecated
-    public TreeMap<Float, Float> getMonthIntegralDistanceGoal(LocalDate includingDate) {
-        TreeMap<Float, Float> points = new TreeMap<>();
+    public Series getMonthIntegralDistanceGoal(LocalDate includingDate) {
+        Series points = new Series();
 
-        points.put(0f, 0f);
-        points.put((float) includingDate.getMonth().length(includingDate.isLeapYear()), 100_000f);
+        points.add(0, 0);
+        points.add(includingDate.getMonth().length(includingDate.isLeapYear()), 100_000f);
 
         return points;
     }
 
     @Deprecated
-    public TreeMap<Float, Float> getYearIntegralDistanceGoal(LocalDate includingDate) {
-        TreeMap<Float, Float> points = new TreeMap<>();
+    public Series getYearIntegralDistanceGoal(LocalDate includingDate) {
+        Series points = new Series();
 
-        points.put(0f, 0f);
-        points.put(53f/*(float) includingDate.lengthOfYear()*/, 1_200_000f);
+        points.add(0, 0);
+        points.add(53f/*(float) includingDate.lengthOfYear()*/, 1_200_000f);
 
         return points;
     }
 
     // unpack cursors
 
-    private ArrayList<Exercise> unpackCursor(Cursor cursor) {
+    /**
+     * Also used by {@link DbWriter} to unpack exercises read through the writer.
+     */
+    @NonNull
+    ArrayList<Exercise> unpackCursor(Cursor cursor) {
         ArrayList<Exercise> exercises = new ArrayList<>();
 
         while (cursor.moveToNext()) {
@@ -1519,6 +2059,8 @@ public class DbReader extends DbHelper {
             String recordingMethod = cursor.getString(cursor.getColumnIndexOrThrow(
                 ExerciseEntry.COLUMN_RECORDING_METHOD));
             int distance = cursor.getInt(cursor.getColumnIndexOrThrow(ExerciseEntry.COLUMN_DISTANCE));
+            int effectiveDistance =
+                cursor.getInt(cursor.getColumnIndexOrThrow(ExerciseEntry.COLUMN_EFFECTIVE_DISTANCE));
             float time = cursor.getFloat(cursor.getColumnIndexOrThrow(ExerciseEntry.COLUMN_TIME));
             float avgHeartrate = cursor.getFloat(cursor.getColumnIndexOrThrow(ExerciseEntry.COLUMN_HEARTRATE_AVG));
             boolean hideTrail = cursor.getInt(cursor.getColumnIndexOrThrow(ExerciseEntry.COLUMN_TRAIL_HIDDEN)) != 0;
@@ -1541,6 +2083,7 @@ public class DbReader extends DbHelper {
 
             Exercise exercise = new Exercise(id, stravaId, garminId, type, label, dateTime, routeId, routeName,
                 routeVar, interval, note, dataSource, recordingMethod, distance, time, avgHeartrate, trail, hideTrail);
+            if (exercise.isDistanceDriven()) exercise.setDrivenDistance(effectiveDistance);
             exercises.add(exercise);
         }
 
@@ -1550,6 +2093,8 @@ public class DbReader extends DbHelper {
     private ArrayList<Exerlite> unpackLiteCursor(Cursor cursor, boolean markTop3) {
         ArrayList<Exerlite> exerlites = new ArrayList<>();
         int[] indexTop = { -1, -1, -1 };
+        // already marked in sql
+        int topIndex = cursor.getColumnIndex(COLUMN_TOP);
 
         while (cursor.moveToNext()) {
             int id = cursor.getInt(cursor.getColumnIndexOrThrow(ExerciseEntry._ID));
@@ -1559,8 +2104,8 @@ public class DbReader extends DbHelper {
             String routeVar = cursor.getString(cursor.getColumnIndexOrThrow(ExerciseEntry.COLUMN_ROUTE_VAR));
             String interval = cursor.getString(cursor.getColumnIndexOrThrow(ExerciseEntry.COLUMN_INTERVAL));
             int distance = cursor.getInt(cursor.getColumnIndexOrThrow(ExerciseEntry.COLUMN_DISTANCE));
-            //int effectiveDistance =
-            //    cursor.getInt(cursor.getColumnIndexOrThrow(ExerciseEntry.COLUMN_EFFECTIVE_DISTANCE));
+            int effectiveDistance =
+                cursor.getInt(cursor.getColumnIndexOrThrow(ExerciseEntry.COLUMN_EFFECTIVE_DISTANCE));
             float time = cursor.getFloat(cursor.getColumnIndexOrThrow(ExerciseEntry.COLUMN_TIME));
             double startLat = cursor.getDouble(cursor.getColumnIndexOrThrow(ExerciseEntry.COLUMN_START_LAT));
             double startLng = cursor.getDouble(cursor.getColumnIndexOrThrow(ExerciseEntry.COLUMN_START_LNG));
@@ -1571,10 +2116,10 @@ public class DbReader extends DbHelper {
             String routeName = getRouteName(routeId);
             LatLng start = new LatLng(startLat, startLng);
             boolean distanceDriven = distance == Exercise.DISTANCE_DRIVEN;
-            int effectiveDistance = distanceDriven ? getDrivenDistance(routeId, routeVar, type) : distance;
 
             Exerlite exerlite = new Exerlite(id, type, date, routeName, interval, effectiveDistance, time,
                 start, distanceDriven);
+            if (topIndex != -1) exerlite.setTop(cursor.getInt(topIndex));
             exerlites.add(exerlite);
 
             // check pace ranking against previous
@@ -1681,6 +2226,31 @@ public class DbReader extends DbHelper {
         return table + "." + column;
     }
 
+    private String sqlLiteral(Object value) {
+        if (value instanceof String) return DatabaseUtils.sqlEscapeString((String) value);
+        return String.valueOf(value);
+    }
+
+    /**
+     * Compares dotted version strings, e.g. "3.28.0".
+     *
+     * @return True if the version is the same as or later than the minimum
+     */
+    private static boolean isVersionAtLeast(String version, int[] minVersion) {
+        String[] parts = version.split("\\.");
+        for (int i = 0; i < minVersion.length; i++) {
+            int part = 0;
+            try {
+                if (i < parts.length) part = Integer.parseInt(parts[i]);
+            }
+            catch (NumberFormatException e) {
+                return false;
+            }
+            if (part != minVersion[i]) return part > minVersion[i];
+        }
+        return true;
+    }
+
     // sql clauses
 
     /**
@@ -1712,27 +2282,75 @@ public class DbReader extends DbHelper {
         return ascending ? " ASC" : " DESC";
     }
 
-    // sql functions
+    /**
+     * Converts sort keys to a ORDER BY SQL clause string ending with id, as used in keyset pagination. Mirrors
+     * {@link #orderBy(SorterItem.Mode, boolean)} in that only the last sort key is affected by sort order.
+     */
+    @NonNull
+    private String keysetOrderBy(String[] sortKeys, boolean ascending) {
+        StringBuilder orderBy = new StringBuilder();
+        for (int i = 0; i < sortKeys.length; i++) {
+            orderBy.append(sortKeys[i]).append(i == sortKeys.length - 1 ? sortOrder(ascending) : sortOrder(true));
+            orderBy.append(", ");
+        }
+        return orderBy.append(ExerciseEntry._ID).append(sortOrder(ascending)).toString();
+    }
 
-    private String strftime(ChronoUnit unit, String column) {
-        String format;
-        switch (unit) {
-            case WEEKS:
-                format = "'%W'";
-                break;
-            case MONTHS:
-                format = "'%m'";
-                break;
-            case YEARS:
-                format = "'%Y'";
-                break;
-            case DAYS:
-            default:
-                format = "'%d'";
-                break;
+    /**
+     * Builds a where string matching the rows ordered after the keyset by {@link #keysetOrderBy(String[], boolean)}.
+     * Expands the row value comparison manually, since the sort keys don't share sort order. The values are bound by
+     * {@link #keysetFilterArgs(Keyset)}, so that the statement is the same for every page.
+     *
+     * @return The SQL query where string, e.g. "(date < CAST(? AS INTEGER) OR (date = CAST(? AS INTEGER) AND _id < ?))"
+     */
+    @NonNull
+    private String keysetFilter(String[] sortKeys, boolean ascending, Keyset keyset) {
+        String after = ascending ? " > " : " < ";
+
+        String filter = ExerciseEntry._ID + after + "?";
+        for (int i = sortKeys.length - 1; i >= 0; i--) {
+            String key = sortKeys[i];
+            String value = keysetPlaceholder(keyset.getSortKeys()[i]);
+            String keyAfter = i == sortKeys.length - 1 ? after : " > ";
+
+            filter = "(" + key + keyAfter + value + " OR (" + key + " = " + value + " AND " + filter + "))";
         }
+        return filter;
+    }
 
-        return fun("strftime", format, column, "'unixepoch'");
+    /**
+     * @return The values of the keyset, in the order bound by {@link #keysetFilter(String[], boolean, Keyset)}
+     */
+    @NonNull
+    private ArrayList<Object> keysetFilterArgs(Keyset keyset) {
+        ArrayList<Object> args = new ArrayList<>();
+        for (Object value : keyset.getSortKeys()) {
+            args.add(value);
+            args.add(value);
+        }
+        args.add(keyset.getId());
+        return args;
+    }
+
+    /**
+     * Casts a bound sort key back to its type, since arguments are bound as text and the sort keys, being
+     * expressions, have no affinity to convert them by.
+     */
+    @NonNull
+    private String keysetPlaceholder(Object value) {
+        if (value instanceof Long) return "CAST(? AS INTEGER)";
+        if (value instanceof Double) return "CAST(? AS REAL)";
+        return "?";
+    }
+
+    private String sortKeyAlias(int index) {
+        return "sort_key_" + index;
+    }
+
+    // sql functions
+
+    private String strftime(String format, String epochColumn) {
+        return fun("strftime", "'" + format + "'", epochColumn, "'unixepoch'");
     }
 
     private String sum(String column) {
@@ -1757,6 +2375,112 @@ public class DbReader extends DbHelper {
 
     // sql sub-clauses
 
+    /**
+     * Builds a common table expression {@link #TABLE_TOP3} of the top 3 exercises by pace of the where clause, ordered
+     * as {@link #orderBy(SorterItem.Mode, boolean)} with {@link SorterItem.Mode#PACE} orders them. Ranking is done on
+     * the three rows only. Requires window functions.
+     *
+     * @param where The SQL where string to find top 3 within; its args precede those of the main query
+     * @return The SQL WITH clause
+     *
+     * @see #areWindowFunctionsSupported()
+     */
+    private String withTop3ByPace(String where) {
+        String orderByPace = orderBy(SorterItem.Mode.PACE, true);
+
+        return "WITH " + TABLE_TOP3 + " AS (" +
+            "SELECT " + ExerciseEntry._ID + " AS " + COLUMN_TOP_ID + ", " +
+            "row_number() OVER (ORDER BY " + orderByPace + ") AS " + COLUMN_PACE_RANK +
+            " FROM (SELECT " + ExerciseEntry._ID + ", " + ExerciseEntry.COLUMN_TIME + ", " +
+            ExerciseEntry.COLUMN_EFFECTIVE_DISTANCE + " FROM " + ExerciseEntry.TABLE_NAME +
+            " WHERE " + where +
+            " ORDER BY " + orderByPace + " LIMIT 3))";
+    }
+
+    private String joinTop3() {
+        return " LEFT JOIN " + TABLE_TOP3 + " ON " + ExerciseEntry._ID + " = " + COLUMN_TOP_ID;
+    }
+
+    /**
+     * Selects the top 3 ranking by pace as {@link #COLUMN_TOP}, read by {@link #unpackLiteCursor(Cursor, boolean)}.
+     * Exercises without pace are never marked. Requires {@link #joinTop3()}.
+     */
+    private String selectTop() {
+        return "CASE WHEN " + ExerciseEntry.COLUMN_TIME + " != 0 AND " + ExerciseEntry.COLUMN_EFFECTIVE_DISTANCE +
+            " != 0 THEN ifnull(" + COLUMN_PACE_RANK + ", 0) ELSE 0 END AS " + COLUMN_TOP;
+    }
+
+    /**
+     * Joins the rank of each exercise within a group of {@link RecordEntry}, binding the key of the group.
+     *
+     * @param kind {@link RecordEntry#KIND_ROUTE} or {@link RecordEntry#KIND_DISTANCE}
+     */
+    private String joinRecords(int kind) {
+        return " LEFT JOIN " + RecordEntry.TABLE_NAME + " ON " + RecordEntry.COLUMN_EXERCISE_ID + " = " +
+            ExerciseEntry._ID + " AND " + RecordEntry.COLUMN_KIND + " = " + kind +
+            " AND " + RecordEntry.COLUMN_GROUP_KEY + " = ?";
+    }
+
+    /**
+     * Selects the rank joined by {@link #joinRecords(int)} as {@link #COLUMN_TOP}, read by
+     * {@link #unpackLiteCursor(Cursor, boolean)}.
+     */
+    private String selectRecordRank() {
+        return "ifnull(" + RecordEntry.COLUMN_RANK + ", 0) AS " + COLUMN_TOP;
+    }
+
+    /**
+     * Selects the ids of the exercises holding a record in a group of {@link RecordEntry}, binding the key of the
+     * group.
+     *
+     * @param kind {@link RecordEntry#KIND_ROUTE} or {@link RecordEntry#KIND_DISTANCE}
+     */
+    private String selectRecordIds(int kind) {
+        return "SELECT " + RecordEntry.COLUMN_EXERCISE_ID + " FROM " + RecordEntry.TABLE_NAME +
+            " WHERE " + RecordEntry.COLUMN_KIND + " = " + kind + " AND " + RecordEntry.COLUMN_GROUP_KEY + " = ?";
+    }
+
+    /**
+     * Numbers the periods of a day column from 0, relative to a bound origin.
+     *
+     * @param unit The length of each period; days, weeks, months or years
+     * @param dayColumn Column of epoch days
+     * @return The bucket expression, binding {@link #bucketOrigin(ChronoUnit, LocalDate)}
+     */
+    private String bucket(ChronoUnit unit, String dayColumn) {
+        String epoch = dayColumn + " * " + DAY_SECONDS;
+        switch (unit) {
+            case DAYS:
+                return "(" + dayColumn + " - ?)";
+            case WEEKS:
+                return "(" + dayColumn + " - ?) / 7";
+            case MONTHS:
+                return "(" + strftime("%Y", epoch) + " * 12 + " + strftime("%m", epoch) + " - ?)";
+            case YEARS:
+                return "(" + strftime("%Y", epoch) + " - ?)";
+            default:
+                throw new InvalidParameterException("Unsupported bucket unit: " + unit);
+        }
+    }
+
+    /**
+     * @return The value bound by {@link #bucket(ChronoUnit, String)} for the first period to be numbered 0
+     */
+    private long bucketOrigin(ChronoUnit unit, LocalDate startDate) {
+        switch (unit) {
+            case MONTHS:
+                return startDate.getYear() * 12L + startDate.getMonthValue();
+            case YEARS:
+                return startDate.getYear();
+            default:
+                return startDate.toEpochDay();
+        }
+    }
+
+    /**
+     * Builds the filter of types and labels as bound placeholders; add {@link #exerciseFilterArgs(ExerciseFilter)}
+     * to the selection args once for each time this is part of the query.
+     */
     private String exerciseFilter(String precedingKeyword, @Nullable ExerciseFilter filter) {
         if (filter == null) return "";
 
@@ -1767,9 +2491,22 @@ public class DbReader extends DbHelper {
         return typeFilter + labelFilter;
     }
 
+    /**
+     * Gets the args bound by {@link #exerciseFilter(String, ExerciseFilter)}, in order.
+     */
+    @NonNull
+    private ArrayList<String> exerciseFilterArgs(@Nullable ExerciseFilter filter) {
+        ArrayList<String> args = new ArrayList<>();
+        if (filter == null) return args;
+
+        args.addAll(filter.getVisibleTypes());
+        args.addAll(filter.getVisibleLabels());
+        return args;
+    }
+
     /**
      * Add filtering to any SQL where string. Includes spacing after keyword, but not before it; use the
-     * form " AND".
+     * form " AND". The values are bound; add them to the selection args in order.
      *
      * <p>Note: do not substitute passing a keyword for adding one before this string;
      * this takes care of empty lists by not filtering at all, while substituting does not.</p>
@@ -1777,20 +2514,132 @@ public class DbReader extends DbHelper {
      * @param precedingKeyword To precede the statement with if list isn't empty
      * @param column The column to filter
      * @param visibleValues Values to filter in
-     * @return The SQL query where string
+     * @return The SQL query where string, e.g. " AND type IN (?, ?)"
      */
-    private String columnFilter(@NonNull String precedingKeyword, String column, ArrayList<String> visibleValues) {
-        StringBuilder filter = new StringBuilder();
+    private String columnFilter(@NonNull String precedingKeyword, String column, Collection<?> visibleValues) {
+        if (visibleValues.size() == 0) return "";
 
+        StringBuilder filter = new StringBuilder(precedingKeyword).append(" ").append(column).append(" IN (");
         for (int i = 0; i < visibleValues.size(); i++) {
-            if (i == 0) filter.append(precedingKeyword).append(" (");
+            filter.append(i == 0 ? "?" : ", ?");
+        }
+        return filter.append(")").toString();
+    }
 
-            filter.append(column).append(" = '").append(visibleValues.get(i)).append("'");
+    /**
+     * Flattens selection args in the order of their placeholders. Collections are expanded, and other values
+     * converted to strings.
+     *
+     * @param args Args, or collections of args
+     * @return The selection args
+     */
+    @NonNull
+    private String[] bindArgs(Object... args) {
+        ArrayList<String> bound = new ArrayList<>();
+        for (Object arg : args) {
+            if (arg instanceof Collection) {
+                for (Object element : (Collection<?>) arg) bound.add(String.valueOf(element));
+            }
+            else bound.add(String.valueOf(arg));
+        }
+        return bound.toArray(new String[0]);
+    }
 
-            if (i == visibleValues.size() - 1) filter.append(")");
-            else filter.append(" OR ");
+    // partition
+
+    /**
+     * Aggregates a range of years by {@link #aggregateYears(Metric, ExerciseFilter, int, int, ChronoUnit, boolean)},
+     * split in halves until each partition holds a single year.
+     */
+    private class YearPartition extends RecursiveAction {
+
+        private final Metric metric;
+        private final ExerciseFilter filter;
+        private final int firstYear;
+        private final ChronoUnit groupUnit;
+        private final boolean cumulative;
+
+        // the sums of all years, of which this partition sets those from start to end
+        private final float[][] years;
+        private final int start;
+        private final int end;
+
+        //
+
+        YearPartition(Metric metric, ExerciseFilter filter, int firstYear, ChronoUnit groupUnit, boolean cumulative,
+            float[][] years, int start, int end) {
+
+            this.metric = metric;
+            this.filter = filter;
+            this.firstYear = firstYear;
+            this.groupUnit = groupUnit;
+            this.cumulative = cumulative;
+            this.years = years;
+            this.start = start;
+            this.end = end;
+        }
+
+        // extends RecursiveAction
+
+        @Override
+        protected void compute() {
+            if (end - start > 1) {
+                int middle = (start + end) / 2;
+                invokeAll(split(start, middle), split(middle, end));
+            }
+            else if (end > start) {
+                LocalDate first = LocalDate.of(firstYear + start, 1, 1);
+                years[start] = aggregate(metric, filter, first, first.plusYears(1), periodCount(first), groupUnit,
+                    cumulative);
+            }
+        }
+
+        // tools
+
+        private YearPartition split(int start, int end) {
+            return new YearPartition(metric, filter, firstYear, groupUnit, cumulative, years, start, end);
+        }
+
+        private int periodCount(LocalDate firstOfYear) {
+            switch (groupUnit) {
+                case DAYS:
+                    return firstOfYear.lengthOfYear();
+                case WEEKS:
+                    return (firstOfYear.lengthOfYear() + 6) / 7;
+                case MONTHS:
+                    return 12;
+                default:
+                    throw new InvalidParameterException("Unsupported year period unit: " + groupUnit);
+            }
+        }
+
+    }
+
+    // enum
+
+    /**
+     * A summable column of {@link DailyTotalEntry}.
+     */
+    public enum Metric {
+
+        DISTANCE(DailyTotalEntry.COLUMN_DISTANCE),
+        TIME(DailyTotalEntry.COLUMN_TIME),
+        COUNT(DailyTotalEntry.COLUMN_COUNT);
+
+        private final String column;
+
+        Metric(String column) {
+            this.column = column;
         }
-        return filter.toString();
+
+    }
+
+    // interface
+
+    public interface ProgressListener {
+
+        void onProgress(int progress, int max);
+
     }
 
 }
@@ -0,0 +1,185 @@
+package me.felwal.trackfield.data.db;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import me.felwal.trackfield.utils.AppLog;
+
+/**
+ * Runs mutations of {@link DbWriter} as commands on a single background thread, so that no write blocks the main
+ * thread. Commands queued while a batch is running are coalesced, and run in one transaction once it has completed,
+ * so that a burst of writes is committed, and passed on to readers, once.
+ * <p>Commands run in the order submitted. Reads through {@link DbReader} only see committed writes, and so not the
+ * writes of earlier commands in the same batch; lookups commands depend on must go through {@link DbWriter}.</p>
+ */
+public class DbWriteExecutor {
+
+    private static DbWriteExecutor instance;
+
+    private final Context appContext;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "DbWriteExecutor"));
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // guarded by itself
+    private final ArrayList<Write<?>> pending = new ArrayList<>();
+    private boolean drainScheduled = false;
+
+    //
+
+    private DbWriteExecutor(Context c) {
+        appContext = c.getApplicationContext();
+    }
+
+    @NonNull
+    public static synchronized DbWriteExecutor get(Context c) {
+        if (instance == null) instance = new DbWriteExecutor(c);
+        return instance;
+    }
+
+    // submit
+
+    /**
+     * Queues a command.
+     *
+     * @param command The command to run on the write thread
+     * @return A future completed with the result of the command once committed, or exceptionally if it threw
+     */
+    @NonNull
+    public <T> CompletableFuture<T> submit(@NonNull Command<T> command) {
+        return submit(command, null);
+    }
+
+    /**
+     * Queues a command, and delivers its result to a callback on the main thread once committed.
+     *
+     * @param command The command to run on the write thread
+     * @param callback Notified on the main thread of the result, or null
+     * @return A future completed with the result of the command once committed, or exceptionally if it threw
+     */
+    @NonNull
+    public <T> CompletableFuture<T> submit(@NonNull Command<T> command, @Nullable Callback<T> callback) {
+        Write<T> write = new Write<>(command, callback);
+
+        synchronized (pending) {
+            pending.add(write);
+            if (!drainScheduled) {
+                drainScheduled = true;
+                executor.execute(this::drain);
+            }
+        }
+
+        return write.future;
+    }
+
+    // run
+
+    /**
+     * Runs all pending commands in one transaction. If any of them throws, the batch is rolled back and each command
+     * is run in a transaction of its own, so that one failing command does not fail the others. What a rolled back
+     * transaction recorded as changed is discarded before retrying, so that it is not published.
+     */
+    private void drain() {
+        ArrayList<Write<?>> batch;
+        synchronized (pending) {
+            batch = new ArrayList<>(pending);
+            pending.clear();
+            drainScheduled = false;
+        }
+
+        DbWriter writer = DbWriter.get(appContext);
+
+        if (batch.size() > 1) {
+            try {
+                writer.runInTransaction(() -> {
+                    for (Write<?> write : batch) write.run(writer);
+                });
+                for (Write<?> write : batch) write.complete(mainHandler);
+                return;
+            }
+            catch (RuntimeException e) {
+                AppLog.w("Coalesced write failed, retrying one by one: " + e.getMessage());
+                writer.discardChange();
+            }
+        }
+
+        for (Write<?> write : batch) {
+            try {
+                writer.runInTransaction(() -> write.run(writer));
+                write.complete(mainHandler);
+            }
+            catch (RuntimeException e) {
+                writer.discardChange();
+                write.fail(e, mainHandler);
+            }
+        }
+    }
+
+    // write
+
+    private static class Write<T> {
+
+        private final Command<T> command;
+        @Nullable private final Callback<T> callback;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+
+        // held until committed
+        private T result;
+
+        private Write(Command<T> command, @Nullable Callback<T> callback) {
+            this.command = command;
+            this.callback = callback;
+        }
+
+        private void run(DbWriter writer) {
+            result = command.run(writer);
+        }
+
+        // the callback is posted before completing, so that it precedes what is posted by dependents of the future
+
+        private void complete(Handler mainHandler) {
+            if (callback != null) mainHandler.post(() -> callback.onWritten(result));
+            future.complete(result);
+        }
+
+        private void fail(Exception e, Handler mainHandler) {
+            if (callback != null) mainHandler.post(() -> callback.onWriteError(e));
+            else AppLog.e("Write failed", e);
+            future.completeExceptionally(e);
+        }
+
+    }
+
+    // interface
+
+    public interface Command<T> {
+
+        /**
+         * Runs on the write thread, within a transaction shared with the commands coalesced with it.
+         *
+         * @param writer The writer to mutate through
+         * @return The result to complete with
+         */
+        T run(@NonNull DbWriter writer);
+
+    }
+
+    public interface Callback<T> {
+
+        void onWritten(T result);
+
+        default void onWriteError(Exception e) {
+            AppLog.e("Write failed", e);
+        }
+
+    }
+
+}
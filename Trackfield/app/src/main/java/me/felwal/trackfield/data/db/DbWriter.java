@@ -2,12 +2,29 @@ package me.felwal.trackfield.data.db;
 
 import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteTransactionListener;
+import android.os.Handler;
+import android.os.Looper;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
+import me.felwal.trackfield.data.db.DbContract.ChangedDayEntry;
 import me.felwal.trackfield.data.db.DbContract.DistanceEntry;
+import me.felwal.trackfield.data.db.DbContract.DistanceLimitEntry;
 import me.felwal.trackfield.data.db.DbContract.ExerciseEntry;
 import me.felwal.trackfield.data.db.DbContract.PlaceEntry;
 import me.felwal.trackfield.data.db.DbContract.RouteEntry;
@@ -15,20 +32,55 @@ import me.felwal.trackfield.data.db.model.Distance;
 import me.felwal.trackfield.data.db.model.Exercise;
 import me.felwal.trackfield.data.db.model.Place;
 import me.felwal.trackfield.data.db.model.Route;
-import me.felwal.trackfield.ui.common.model.SorterItem;
+import me.felwal.trackfield.data.prefs.Prefs;
 import me.felwal.trackfield.ui.map.model.Trail;
+import me.felwal.trackfield.utils.DateUtils;
 import me.felwal.trackfield.utils.annotation.Debug;
 
 public class DbWriter extends DbHelper {
 
     private static DbWriter instance;
+    private static final AtomicLong generation = new AtomicLong();
+    private static final CopyOnWriteArrayList<DbChange.Listener> changeListeners = new CopyOnWriteArrayList<>();
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
     @Debug private static boolean useUpdateTool = false;
 
+    // per thread, as are transactions
+    private final ThreadLocal<DbChange.Builder> pendingChange = ThreadLocal.withInitial(DbChange.Builder::new);
+    private final SQLiteTransactionListener rollbackListener = new SQLiteTransactionListener() {
+        @Override
+        public void onBegin() {
+        }
+
+        @Override
+        public void onCommit() {
+        }
+
+        @Override
+        public void onRollback() {
+            discardChange();
+        }
+    };
+
     //
 
     private DbWriter(Context c) {
-        super(c.getApplicationContext());
+        this(c, DATABASE_NAME);
+    }
+
+    /**
+     * Opens a writer of its own, bypassing the shared instance.
+     *
+     * @param name The database file name, or null for an in-memory database
+     */
+    @VisibleForTesting
+    DbWriter(Context c, @Nullable String name) {
+        super(c.getApplicationContext(), name);
         db = getWritableDatabase();
+
+        // days changed through a previous connection were not recorded
+        createChangedDays();
+        DbReader.invalidatePeriodTotals(null);
     }
 
     /**
@@ -37,23 +89,117 @@ public class DbWriter extends DbHelper {
      * @return {@link DbWriter} instance
      */
     @NonNull
-    public static DbWriter get(Context c) {
+    public static synchronized DbWriter get(Context c) {
         if (instance == null || !instance.db.isOpen()) instance = new DbWriter(c);
         return instance;
     }
 
+    /**
+     * Gets the write generation, which is bumped after every mutation. Readers may key derived data on it to tell
+     * whether it is stale, without listening for every kind of change.
+     *
+     * @return The current generation
+     */
+    public static long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Adds a listener notified on the main thread of what each committed write changed. Listeners must be removed
+     * when no longer shown, since they are held strongly.
+     *
+     * @param listener The listener to add
+     */
+    public static void addChangeListener(@NonNull DbChange.Listener listener) {
+        changeListeners.addIfAbsent(listener);
+    }
+
+    public static void removeChangeListener(@NonNull DbChange.Listener listener) {
+        changeListeners.remove(listener);
+    }
+
+    /**
+     * Runs writes in one transaction, and passes on what they changed once committed. Used by
+     * {@link DbWriteExecutor} to coalesce commands.
+     *
+     * @param writes The writes to run, which may be transactions of their own
+     */
+    void runInTransaction(@NonNull Runnable writes) {
+        beginTransaction();
+        try {
+            writes.run();
+            db.setTransactionSuccessful();
+        }
+        finally {
+            db.endTransaction();
+        }
+
+        // again once committed, so that nothing read mid transaction is taken as current
+        DbReader.invalidateRouteNames();
+        DbReader.invalidatePlaces();
+        onWrite();
+    }
+
     // recreate
 
     public void recreate() {
         onUpgrade(db, 0, DATABASE_TARGET_VERSION);
+        createChangedDays();
+        DbReader.invalidateRouteNames();
+        DbReader.invalidatePlaces();
+        DbReader.invalidatePeriodTotals(null);
+        changed().all();
+        onWrite();
     }
 
     public void recreate(int toVersion) {
         onUpgrade(db, 0, Math.min(toVersion, DATABASE_TARGET_VERSION));
+        createChangedDays();
+        DbReader.invalidateRouteNames();
+        DbReader.invalidatePlaces();
+        DbReader.invalidatePeriodTotals(null);
+        changed().all();
+        onWrite();
     }
 
     public void upgradeToTargetVersion(int oldVersion) {
         onUpgrade(db, oldVersion, DATABASE_TARGET_VERSION);
+        createChangedDays();
+        DbReader.invalidatePeriodTotals(null);
+        changed().all();
+        onWrite();
+    }
+
+    /**
+     * Stores the distance limits of prefs, and recomputes the best pace and time of all distances if they changed.
+     * Must be called after setting the limits of prefs, and after loading prefs, which may have been imported.
+     * Recomputing reads all exercises, so run this on the {@link DbWriteExecutor}.
+     *
+     * @return True if the limits changed and the bests were recomputed
+     */
+    public boolean updateDistanceLimits() {
+        Cursor cursor = db.query(DistanceLimitEntry.TABLE_NAME,
+            new String[] { DistanceLimitEntry.COLUMN_LOWER, DistanceLimitEntry.COLUMN_UPPER }, null, null, null, null,
+            null);
+        boolean unchanged = cursor.moveToNext() && cursor.getInt(0) == Prefs.getDistanceLowerLimit()
+            && cursor.getInt(1) == Prefs.getDistanceUpperLimit();
+        cursor.close();
+
+        if (unchanged) return false;
+
+        beginTransaction();
+        try {
+            rebuildDistanceBests(db);
+            rebuildDistanceRecords(db);
+            changed().all();
+            db.setTransactionSuccessful();
+        }
+        finally {
+            db.endTransaction();
+        }
+
+        onWrite();
+        return true;
     }
 
     // database tools
@@ -67,76 +213,146 @@ public class DbWriter extends DbHelper {
 
     // exercises
 
-    public boolean addExercises(@NonNull ArrayList<Exercise> exercises, Context c) {
+    /**
+     * Adds exercises in one transaction, as when importing. Routes are resolved through a map of names held in memory,
+     * and the driven distances of each affected route are resolved once, after all exercises are added.
+     *
+     * @param exercises The exercises to add
+     * @return True if all exercises were added successfully
+     */
+    public boolean addExercises(@NonNull ArrayList<Exercise> exercises) {
+        // read on the writer, which also sees routes added by writes not yet committed
+        HashMap<String, Integer> routeIds = getRouteIds();
+
+        HashSet<Integer> affectedRouteIds = new HashSet<>();
+        boolean routesAdded = false;
         boolean success = true;
-        for (Exercise e : exercises) {
-            success &= addExercise(e, c);
+
+        beginTransaction();
+        try {
+            for (Exercise e : exercises) {
+                Integer routeId = routeIds.get(e.getRoute());
+                if (routeId == null) {
+                    routeId = (int) db.insert(RouteEntry.TABLE_NAME, null,
+                        fillRouteContentValues(new Route(e.getRoute())));
+                    routeIds.put(e.getRoute(), routeId);
+                    routesAdded = true;
+                }
+                e.setRouteId(routeId);
+                affectedRouteIds.add(routeId);
+
+                // driven distances are resolved below, since the reader does not see this transaction
+                ContentValues cv = fillExerciseContentValues(e, e.isDistanceDriven() ? 0 : e.getDistance());
+                long id = db.insert(ExerciseEntry.TABLE_NAME, null, cv);
+                if (success(id)) changed().insertExercise((int) id);
+                else success = false;
+            }
+
+            // routeVar and type are resolved within the whole route, so the route is the key to resolve by
+            for (int routeId : affectedRouteIds) {
+                updateDrivenDistances(routeId);
+                changed().touchRoute(routeId);
+            }
+            db.setTransactionSuccessful();
         }
+        finally {
+            db.endTransaction();
+        }
+
+        if (routesAdded) DbReader.invalidateRouteNames();
+        onWrite();
+
         return success;
     }
 
     /**
      * Adds an exercise
-     * <p>Internally calls {@link #updateEffectiveDistance(int, String, String, Context)}</p>
+     * <p>Internally calls {@link #updateDrivenDistances(int)}</p>
      *
      * @param e The exercise to add
      * @return True if the exercise was added successfully
      */
     public boolean addExercise(@NonNull Exercise e, Context c) {
-        int routeId = DbReader.get(c).getRouteId(e.getRoute());
+        int routeId = getRouteId(e.getRoute());
         e.setRouteId((int) addRoute(new Route(routeId, e.getRoute()), c));
 
         ContentValues cv = fillExerciseContentValues(e, c);
 
         long id = db.insert(ExerciseEntry.TABLE_NAME, null, cv);
+        if (success(id)) changed().insertExercise((int) id).touchRoute(e.getRouteId());
 
         // must be called to keep effective distance current
-        updateEffectiveDistance(e.getRouteId(), e.getRouteVar(), e.getType(), c);
+        updateDrivenDistances(e.getRouteId());
+        onWrite();
 
         return success(id);
     }
 
     /**
-     * Updates an exercise
-     * <p>Internally calls {@link #updateEffectiveDistance(int, String, String, Context)} when changed routeId, routeVar or
-     * distance</p>
+     * Updates the changed columns of an exercise. The stored values are read and compared column by column, and the
+     * polyline is compared in sql, so that the trail is neither read, decoded nor rewritten when unchanged.
+     * <p>Internally calls {@link #updateDrivenDistances(int)} when changed routeId, routeVar, distance or type</p>
      *
      * @param e The exercise to update
-     * @return True if the exercise was added successfully
+     * @return True if the exercise exists and was updated successfully
      */
     public boolean updateExercise(@NonNull Exercise e, Context c) {
-        Exercise old = DbReader.get(c).getExercise(e.getId());
         ContentValues newCv = fillExerciseContentValues(e, c);
 
         String where = ExerciseEntry._ID + " = ?";
         String[] whereArgs = { Integer.toString(e.getId()) };
 
-        int count = db.update(ExerciseEntry.TABLE_NAME, newCv, where, whereArgs);
-
-        // delete route if changed and empty
-        if (old.getRouteId() != e.getRouteId()) {
-            deleteRouteIfEmpty(old.getRouteId(), c);
+        // read the stored route before dropping unchanged values
+        int oldRouteId;
+        Cursor cursor = db.query(ExerciseEntry.TABLE_NAME, selectUnchanged(newCv), where,
+            bindUnchanged(newCv, e.getId()), null, null, null);
+        try {
+            if (!cursor.moveToFirst()) return false;
+            oldRouteId = cursor.getInt(cursor.getColumnIndexOrThrow(ExerciseEntry.COLUMN_ROUTE_ID));
+            dropUnchanged(newCv, cursor);
         }
-
-        // update effective distance if routeId, routeVar, distance or type updated
-        if (old.getRouteId() != e.getRouteId() || !old.getRouteVar().equals(e.getRouteVar())) {
-            updateEffectiveDistance(old.getRouteId(), old.getRouteVar(), old.getType(), c);
-            updateEffectiveDistance(e.getRouteId(), e.getRouteVar(), e.getType(), c);
+        finally {
+            cursor.close();
         }
-        else if (old.getDistance() != e.getDistance()) {
-            updateEffectiveDistance(e.getRouteId(), e.getRouteVar(), e.getType(), c);
+
+        if (newCv.size() == 0) return true;
+
+        int count;
+        boolean routeDeleted = false;
+        boolean routeChanged = newCv.containsKey(ExerciseEntry.COLUMN_ROUTE_ID);
+
+        // the route is cleaned up in the same transaction, so that it is never seen empty
+        beginTransaction();
+        try {
+            count = db.update(ExerciseEntry.TABLE_NAME, newCv, where, whereArgs);
+            changed().updateExercise(e.getId()).touchRoute(e.getRouteId());
+            if (routeChanged) changed().touchRoute(oldRouteId);
+
+            // update effective distance if routeId, routeVar, distance or type updated
+            if (routeChanged) {
+                routeDeleted = deleteRouteIfEmpty(oldRouteId);
+                updateDrivenDistances(oldRouteId);
+                updateDrivenDistances(e.getRouteId());
+            }
+            else if (newCv.containsKey(ExerciseEntry.COLUMN_ROUTE_VAR)
+                || newCv.containsKey(ExerciseEntry.COLUMN_DISTANCE) || newCv.containsKey(ExerciseEntry.COLUMN_TYPE)) {
+                updateDrivenDistances(e.getRouteId());
+            }
+            db.setTransactionSuccessful();
         }
-        else if (!old.getType().equals(e.getType())) {
-            updateEffectiveDistance(old.getRouteId(), old.getRouteVar(), old.getType(), c);
-            updateEffectiveDistance(e.getRouteId(), e.getRouteVar(), e.getType(), c);
+        finally {
+            db.endTransaction();
         }
 
+        if (routeDeleted) DbReader.invalidateRouteNames();
+        onWrite();
+
         return count > 0;
     }
 
     /**
      * Deletes an exercise
-     * <p>Internally calls {@link #updateEffectiveDistance(int, String, String, Context)}</p>
+     * <p>Internally calls {@link #updateDrivenDistances(int)}</p>
      *
      * @param e The exercise to delete
      * @return True if the exercise was added successfully
@@ -145,13 +361,27 @@ public class DbWriter extends DbHelper {
         String selection = ExerciseEntry._ID + " = ?";
         String[] selectionArgs = { Integer.toString(e.getId()) };
 
-        long result = db.delete(ExerciseEntry.TABLE_NAME, selection, selectionArgs);
+        long result;
+        boolean routeDeleted;
 
-        // route
-        deleteRouteIfEmpty(e.getRouteId(), c);
+        beginTransaction();
+        try {
+            result = db.delete(ExerciseEntry.TABLE_NAME, selection, selectionArgs);
+            if (result > 0) changed().deleteExercise(e.getId()).touchRoute(e.getRouteId());
+
+            // route
+            routeDeleted = deleteRouteIfEmpty(e.getRouteId());
+
+            // effective distance
+            updateDrivenDistances(e.getRouteId());
+            db.setTransactionSuccessful();
+        }
+        finally {
+            db.endTransaction();
+        }
 
-        // effective distance
-        updateEffectiveDistance(e.getRouteId(), e.getRouteVar(), e.getType(), c);
+        if (routeDeleted) DbReader.invalidateRouteNames();
+        onWrite();
 
         return success(result);
     }
@@ -159,42 +389,48 @@ public class DbWriter extends DbHelper {
     // single columns
 
     /**
-     * Updates effective distance for all exercises having routeId and routeVar
+     * Resolves the driven distances of all routeVar and type combinations of a route, and updates the effective
+     * distance of its driven exercises. The whole route is resolved, since non-driven exercises of one routeVar may be
+     * fallen back to by other routeVars. Driven exercises whose effective distance changed are recorded as updated.
      * <p>Must be called in:
      * <ul>
      *     <li>{@link #addExercise(Exercise, Context)} when an exercise is created</li>
+     *     <li>{@link #addExercises(ArrayList)} once for each route of the created exercises</li>
      *     <li>{@link #deleteExercise(Exercise, Context)} when an exercise is deleted</li>
-     *     <li>{@link #updateExercise(Exercise, Context)} when distance of an exercise is edited,
-     *     (twice) when rotue or routeVar of is edited and (twice) when type is edited.</li>
-     *     <li>And when updating {@link Prefs#setPreferSameTypeWhenDriving(boolean)} and
-     *     {@link Prefs#setFallbackToRouteWhenDriving(boolean)} </li>
+     *     <li>{@link #updateExercise(Exercise, Context)} when distance, routeVar or type of an exercise is edited,
+     *     and (twice) when route is edited.</li>
      * </ul></p>
      *
-     * @param routeId The routeId to edit effective distance of
-     * @param routeVar The routeVar to edit effective distance of
-     * @param type
-     * @return True if operaton successful
+     * @param routeId The routeId to resolve driven distances of
+     *
+     * @see #rebuildDrivenDistances()
      */
-    private boolean updateEffectiveDistance(int routeId, String routeVar, String type, Context c) {
-        // TODO: call when changing settings
-
-        int effectiveDistance = DbReader.get(c).getDrivenDistance(routeId, routeVar, type);
-
-        ContentValues cv = new ContentValues();
-        cv.put(ExerciseEntry.COLUMN_EFFECTIVE_DISTANCE, effectiveDistance);
-
-        // TODO
-        String where = ExerciseEntry.COLUMN_ROUTE_ID + " = ? AND " + ExerciseEntry.COLUMN_ROUTE_VAR + " = ?" +
-            " AND " + ExerciseEntry.COLUMN_DISTANCE + " = ?";
-        String[] whereArgs = { Integer.toString(routeId), routeVar, Integer.toString(Exercise.DISTANCE_DRIVEN) };
-
-        int count = db.update(ExerciseEntry.TABLE_NAME, cv, where, whereArgs);
+    private void updateDrivenDistances(int routeId) {
+        HashMap<Integer, Integer> before = getDrivenDistances(routeId);
+        rebuildDrivenDistances(db, routeId);
+        HashMap<Integer, Integer> after = getDrivenDistances(routeId);
+
+        for (Map.Entry<Integer, Integer> entry : after.entrySet()) {
+            // those inserted are recorded as such
+            Integer distance = before.get(entry.getKey());
+            if (distance != null && !distance.equals(entry.getValue())) changed().updateExercise(entry.getKey());
+        }
+    }
 
-        return success(count);
+    /**
+     * Resolves the driven distances of all routes in one set-based statement. Must be called when updating
+     * {@link Prefs#setPreferSameTypeWhenDriving(boolean)} and {@link Prefs#setFallBackToRouteWhenDriving(boolean)}.
+     */
+    public void rebuildDrivenDistances() {
+        rebuildDrivenDistances(db, Route.ID_NON_EXISTANT);
+        changed().all();
+        onWrite();
     }
 
     /**
-     * Checks whether a route has no referencing exercíses, deletes the route if true
+     * Deletes a route if it has no referencing exercises. The amount of a route is kept current by triggers and doubles
+     * as its reference count, so the check is a primary key lookup within the delete, and sees the uncommitted
+     * transaction of the caller. The caller must invalidate route names and call {@link #onWrite()}.
      * <p>Must be called when:
      * <ul>
      *     <li>the route of an exercise is edited in {@link #updateExercise(Exercise, Context)}</li>
@@ -204,25 +440,30 @@ public class DbWriter extends DbHelper {
      * @param routeId RouteId of the route to check
      * @return True if the route was empty and successfully deleted
      */
-    private boolean deleteRouteIfEmpty(int routeId, Context c) {
-        int remainingOfRoute = DbReader.get(c)
-            .getExerlitesByRoute(routeId, SorterItem.Mode.DATE, false, null).size();
-        if (remainingOfRoute == 0) return deleteRoute(routeId);
-        return false;
+    private boolean deleteRouteIfEmpty(int routeId) {
+        String where = RouteEntry._ID + " = ? AND " + RouteEntry.COLUMN_AMOUNT + " = 0";
+        String[] whereArgs = { Integer.toString(routeId) };
+
+        return db.delete(RouteEntry.TABLE_NAME, where, whereArgs) > 0;
     }
 
     /**
-     * Cleans database routes table from unused routes. **Should not be called**, unless as a one-time operation.
+     * Cleans database routes table from unused routes in one set-based delete. **Should not be called**, unless as a
+     * one-time operation.
      *
      * @return True if operation successful
      */
     @Debug
-    public boolean deleteEmptyRoutes(Context c) {
-        boolean success = true;
-        for (Route route : DbReader.get(c).getRoutes(true)) {
-            success &= deleteRouteIfEmpty(route.getId(), c);
+    public boolean deleteEmptyRoutes() {
+        int count = db.delete(RouteEntry.TABLE_NAME, RouteEntry.COLUMN_AMOUNT + " = 0", null);
+
+        if (count > 0) {
+            DbReader.invalidateRouteNames();
+            changed().all();
         }
-        return success;
+        onWrite();
+
+        return true;
     }
 
     // distances
@@ -238,6 +479,9 @@ public class DbWriter extends DbHelper {
     public boolean addDistance(Distance distance) {
         ContentValues cv = fillDistanceContentValues(distance);
         long result = db.insert(DistanceEntry.TABLE_NAME, null, cv);
+        changed().touchDistance(distance.getDistance());
+        onWrite();
+
         return success(result);
     }
 
@@ -248,6 +492,8 @@ public class DbWriter extends DbHelper {
         String[] selectionArgs = { Integer.toString((distance.getDistance())) };
 
         int count = db.update(DistanceEntry.TABLE_NAME, newCv, selection, selectionArgs);
+        changed().touchDistance(distance.getDistance());
+        onWrite();
 
         return count > 0;
     }
@@ -257,6 +503,8 @@ public class DbWriter extends DbHelper {
         String[] selectionArgs = { Integer.toString(distance.getDistance()) };
 
         long result = db.delete(DistanceEntry.TABLE_NAME, selection, selectionArgs);
+        changed().touchDistance(distance.getDistance());
+        onWrite();
 
         return success(result);
     }
@@ -275,11 +523,15 @@ public class DbWriter extends DbHelper {
      * @return The routeId of the added or already existing route
      */
     public long addRoute(@NonNull Route route, Context c) {
-        Route existingRoute = DbReader.get(c).getRoute(route.getName());
-        if (existingRoute != null) return existingRoute.getId();
+        int existingId = getRouteId(route.getName());
+        if (existingId != Route.ID_NON_EXISTANT) return existingId;
 
         ContentValues cv = fillRouteContentValues(route);
         long id = db.insert(RouteEntry.TABLE_NAME, null, cv);
+        DbReader.invalidateRouteNames();
+        changed().touchRoute((int) id);
+        onWrite();
+
         return id;
     }
 
@@ -290,10 +542,10 @@ public class DbWriter extends DbHelper {
      * @return The routeId of the updated route; of mergee if merged, same as parameter otherwise
      */
     public int updateRoute(Route route, Context c) {
-        Route oldRoute = DbReader.get(c).getRoute(route.getId());
-        int existingIdForNewName = DbReader.get(c).getRouteId(route.getName());
+        String oldName = getRouteName(route.getId());
+        int existingIdForNewName = getRouteId(route.getName());
 
-        boolean nameNotChanged = route.getName().equals(oldRoute.getName());
+        boolean nameNotChanged = route.getName().equals(oldName);
         boolean newNameFree = existingIdForNewName == Route.ID_NON_EXISTANT;
         boolean dontMerge = nameNotChanged || newNameFree;
 
@@ -305,6 +557,9 @@ public class DbWriter extends DbHelper {
             String[] selectionArgs = { Integer.toString(route.getId()) };
 
             int count = db.update(RouteEntry.TABLE_NAME, newCv, selection, selectionArgs);
+            DbReader.invalidateRouteNames();
+            changed().touchRoute(route.getId());
+            onWrite();
 
             return route.getId();
         }
@@ -319,9 +574,12 @@ public class DbWriter extends DbHelper {
             String[] whereArgs = { Integer.toString(route.getId()) };
 
             int count = db.update(ExerciseEntry.TABLE_NAME, newCv, where, whereArgs);
+            // the moved exercises are not known by id
+            changed().all();
 
             // delete merger route
             boolean deleteSuccess = deleteRoute(route.getId());
+            onWrite();
 
             return existingIdForNewName;
         }
@@ -332,6 +590,9 @@ public class DbWriter extends DbHelper {
         final String[] selectionArgs = { Integer.toString(routeId) };
 
         final long result = db.delete(RouteEntry.TABLE_NAME, selection, selectionArgs);
+        DbReader.invalidateRouteNames();
+        changed().touchRoute(routeId);
+        onWrite();
 
         return success(result);
     }
@@ -350,6 +611,9 @@ public class DbWriter extends DbHelper {
         String[] selectionArgs = { oldName };
 
         int count = db.update(ExerciseEntry.TABLE_NAME, newCv, selection, selectionArgs);
+        DbReader.invalidateRouteNames();
+        if (count > 0) changed().all();
+        onWrite();
 
         return count > 0;
     }
@@ -358,15 +622,30 @@ public class DbWriter extends DbHelper {
 
     public boolean addPlaces(ArrayList<Place> places) {
         boolean success = true;
-        for (Place p : places) {
-            success &= addPlace(p);
+
+        beginTransaction();
+        try {
+            for (Place p : places) {
+                success &= addPlace(p);
+            }
+            db.setTransactionSuccessful();
+        }
+        finally {
+            db.endTransaction();
         }
+        // again once committed, so that nothing read mid transaction is taken as current
+        onWrite();
+
         return success;
     }
 
     public boolean addPlace(Place place) {
         ContentValues cv = fillPlaceContentValues(place);
         long result = db.insert(PlaceEntry.TABLE_NAME, null, cv);
+        DbReader.invalidatePlaces();
+        if (success(result)) changed().touchPlace((int) result);
+        onWrite();
+
         return success(result);
     }
 
@@ -377,6 +656,9 @@ public class DbWriter extends DbHelper {
         String[] selectionArgs = { Integer.toString((place.getId())) };
 
         int count = db.update(PlaceEntry.TABLE_NAME, newCv, selection, selectionArgs);
+        DbReader.invalidatePlaces();
+        changed().touchPlace(place.getId());
+        onWrite();
 
         return count > 0;
     }
@@ -386,14 +668,13 @@ public class DbWriter extends DbHelper {
         String[] selectionArgs = { Integer.toString(place.getId()) };
 
         long result = db.delete(PlaceEntry.TABLE_NAME, selection, selectionArgs);
+        DbReader.invalidatePlaces();
+        changed().touchPlace(place.getId());
+        onWrite();
 
         return success(result);
     }
 
-    public boolean regeneratePlaces(Context c) {
-        return addPlaces(DbReader.get(c).generatePlaces());
-    }
-
     // intervals
 
     public boolean updateInterval(String oldInterval, String newInterval) {
@@ -404,14 +685,146 @@ public class DbWriter extends DbHelper {
         String[] selectionArgs = { oldInterval };
 
         int count = db.update(ExerciseEntry.TABLE_NAME, newCv, selection, selectionArgs);
+        // the renamed exercises are not known by id
+        if (count > 0) changed().all();
+        onWrite();
 
         return count > 0;
     }
 
+    // query tools
+
+    /**
+     * Gets a routeId through the writer, which unlike {@link DbReader} sees routes added earlier in the same
+     * transaction, as when commands are coalesced by {@link DbWriteExecutor}.
+     *
+     * @param name Name of the route
+     * @return The routeId, or {@link Route#ID_NON_EXISTANT} if not existing
+     */
+    private int getRouteId(String name) {
+        try {
+            return (int) DatabaseUtils.longForQuery(db, "SELECT " + RouteEntry._ID + " FROM " + RouteEntry.TABLE_NAME +
+                " WHERE " + RouteEntry.COLUMN_NAME + " = ? LIMIT 1", new String[] { name });
+        }
+        catch (SQLiteDoneException e) {
+            return Route.ID_NON_EXISTANT;
+        }
+    }
+
+    /**
+     * @see #getRouteId(String)
+     */
+    @Nullable
+    private String getRouteName(int routeId) {
+        try {
+            return DatabaseUtils.stringForQuery(db, "SELECT " + RouteEntry.COLUMN_NAME + " FROM " +
+                RouteEntry.TABLE_NAME + " WHERE " + RouteEntry._ID + " = ?",
+                new String[] { Integer.toString(routeId) });
+        }
+        catch (SQLiteDoneException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return The ids of all routes by name
+     *
+     * @see #getRouteId(String)
+     */
+    @NonNull
+    private HashMap<String, Integer> getRouteIds() {
+        HashMap<String, Integer> routeIds = new HashMap<>();
+
+        Cursor cursor = db.query(RouteEntry.TABLE_NAME, new String[] { RouteEntry._ID, RouteEntry.COLUMN_NAME },
+            null, null, null, null, null);
+        while (cursor.moveToNext()) {
+            routeIds.put(cursor.getString(1), cursor.getInt(0));
+        }
+        cursor.close();
+
+        return routeIds;
+    }
+
+    /**
+     * @param routeId The route of the driven exercises
+     * @return The effective distances of the driven exercises of a route by id
+     */
+    @NonNull
+    private HashMap<Integer, Integer> getDrivenDistances(int routeId) {
+        HashMap<Integer, Integer> distances = new HashMap<>();
+
+        Cursor cursor = db.query(ExerciseEntry.TABLE_NAME,
+            new String[] { ExerciseEntry._ID, ExerciseEntry.COLUMN_EFFECTIVE_DISTANCE },
+            ExerciseEntry.COLUMN_ROUTE_ID + " = ? AND " + ExerciseEntry.COLUMN_DISTANCE + " = ?",
+            new String[] { Integer.toString(routeId), Integer.toString(Exercise.DISTANCE_DRIVEN) }, null, null, null);
+        while (cursor.moveToNext()) {
+            distances.put(cursor.getInt(0), cursor.getInt(1));
+        }
+        cursor.close();
+
+        return distances;
+    }
+
+    /**
+     * Checks through the writer whether a stravaId exists, so that exercises added earlier in the same transaction
+     * are seen. Commands checking for duplicates must check and write in the same command.
+     *
+     * @see #getRouteId(String)
+     */
+    public boolean doesStravaIdExist(long stravaId) {
+        return DatabaseUtils.longForQuery(db, "SELECT EXISTS (SELECT 1 FROM " + ExerciseEntry.TABLE_NAME +
+            " WHERE " + ExerciseEntry.COLUMN_STRAVA_ID + " = ?)", new String[] { Long.toString(stravaId) }) != 0;
+    }
+
+    /**
+     * @see #doesStravaIdExist(long)
+     */
+    @Nullable
+    public Exercise getExercise(long stravaId, Context c) {
+        String where = ExerciseEntry.COLUMN_STRAVA_ID + " = ?";
+        String[] whereArgs = { Long.toString(stravaId) };
+
+        ArrayList<Exercise> exercises = queryExercises(where, whereArgs, c);
+        return exercises.size() != 0 ? exercises.get(0) : null;
+    }
+
+    /**
+     * @see #doesStravaIdExist(long)
+     * @see DbReader#getExercises(LocalDateTime)
+     */
+    @NonNull
+    public ArrayList<Exercise> getExercises(LocalDateTime dateTime, Context c) {
+        String where = ExerciseEntry.COLUMN_DATE + " = ? OR " + ExerciseEntry.COLUMN_DATE + " = ?";
+        String[] whereArgs = { Long.toString(DateUtils.toEpochSecond(dateTime)),
+            Long.toString(DateUtils.toEpochSecond(dateTime.truncatedTo(ChronoUnit.MINUTES))) };
+
+        return queryExercises(where, whereArgs, c);
+    }
+
+    @NonNull
+    private ArrayList<Exercise> queryExercises(String where, String[] whereArgs, Context c) {
+        Cursor cursor = db.query(ExerciseEntry.TABLE_NAME, null, where, whereArgs, null, null, null);
+        ArrayList<Exercise> exercises = DbReader.get(c).unpackCursor(cursor);
+        cursor.close();
+
+        // the route may have been added earlier in the same transaction, unseen by the reader
+        for (Exercise e : exercises) {
+            String routeName = getRouteName(e.getRouteId());
+            if (routeName != null) e.setRoute(routeName);
+        }
+
+        return exercises;
+    }
+
     // fill ContentValues
 
     @NonNull
     private ContentValues fillExerciseContentValues(@NonNull Exercise e, Context c) {
+        return fillExerciseContentValues(e, e.getEffectiveDistance(c));
+    }
+
+    @NonNull
+    private ContentValues fillExerciseContentValues(@NonNull Exercise e, int effectiveDistance) {
         ContentValues cv = new ContentValues();
 
         cv.put(ExerciseEntry.COLUMN_STRAVA_ID, e.getStravaId());
@@ -427,7 +840,7 @@ public class DbWriter extends DbHelper {
         cv.put(ExerciseEntry.COLUMN_DEVICE, e.getDevice());
         cv.put(ExerciseEntry.COLUMN_RECORDING_METHOD, e.getRecordingMethod());
         cv.put(ExerciseEntry.COLUMN_DISTANCE, e.getDistance());
-        cv.put(ExerciseEntry.COLUMN_EFFECTIVE_DISTANCE, e.getEffectiveDistance(c));
+        cv.put(ExerciseEntry.COLUMN_EFFECTIVE_DISTANCE, effectiveDistance);
         cv.put(ExerciseEntry.COLUMN_TIME, e.getTime());
         cv.put(ExerciseEntry.COLUMN_HEARTRATE_AVG, e.getAvgHeartrate());
         cv.put(ExerciseEntry.COLUMN_TRAIL_HIDDEN, e.isTrailHidden());
@@ -503,4 +916,151 @@ public class DbWriter extends DbHelper {
         return dbResult != -1;
     }
 
+    /**
+     * Selects the stored values of the columns to update, with the polyline as whether it equals the new polyline.
+     *
+     * @see #bindUnchanged(ContentValues, int)
+     * @see #dropUnchanged(ContentValues, Cursor)
+     */
+    private String[] selectUnchanged(ContentValues cv) {
+        ArrayList<String> select = new ArrayList<>();
+        for (String column : cv.keySet()) {
+            if (!column.equals(ExerciseEntry.COLUMN_POLYLINE)) select.add(column);
+            else if (cv.get(column) == null) select.add(column + " IS NULL AS " + column);
+            else select.add(column + " = ? AS " + column);
+        }
+        return select.toArray(new String[0]);
+    }
+
+    /**
+     * Binds the new polyline, if compared, and the id of the exercise.
+     */
+    private String[] bindUnchanged(ContentValues cv, int id) {
+        String polyline = cv.getAsString(ExerciseEntry.COLUMN_POLYLINE);
+        return polyline != null
+            ? new String[] { polyline, Integer.toString(id) }
+            : new String[] { Integer.toString(id) };
+    }
+
+    /**
+     * Removes the values which equal those stored.
+     *
+     * @param cursor The stored values, as selected by {@link #selectUnchanged(ContentValues)}
+     */
+    private void dropUnchanged(ContentValues cv, Cursor cursor) {
+        ArrayList<String> unchanged = new ArrayList<>();
+
+        for (String column : cv.keySet()) {
+            int index = cursor.getColumnIndexOrThrow(column);
+            Object value = cv.get(column);
+
+            boolean equal;
+            if (column.equals(ExerciseEntry.COLUMN_POLYLINE)) equal = cursor.getInt(index) == 1;
+            else if (value == null || cursor.isNull(index)) equal = value == null && cursor.isNull(index);
+            else if (value instanceof Boolean) equal = cursor.getInt(index) == ((Boolean) value ? 1 : 0);
+            else if (value instanceof Float || value instanceof Double) {
+                equal = cursor.getDouble(index) == ((Number) value).doubleValue();
+            }
+            else if (value instanceof Number) equal = cursor.getLong(index) == ((Number) value).longValue();
+            else equal = value.toString().equals(cursor.getString(index));
+
+            if (equal) unchanged.add(column);
+        }
+
+        for (String column : unchanged) cv.remove(column);
+    }
+
+    /**
+     * Must be called after every mutation. Passes the days whose daily totals changed on to {@link DbReader}, and
+     * publishes what changed to the change listeners, once committed. Bumps the write generation.
+     */
+    private void onWrite() {
+        if (!db.inTransaction()) {
+            DbReader.invalidatePeriodTotals(drainChangedDays());
+            publishChange();
+        }
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Begins a transaction which discards the change recorded on this thread if rolled back, also when nested in
+     * another, so that nothing rolled back is published. Mutations must begin their transactions through it.
+     */
+    private void beginTransaction() {
+        db.beginTransactionWithListener(rollbackListener);
+    }
+
+    /**
+     * Gets the change recorded by the current transaction of this thread. Mutations must record what they changed
+     * before calling {@link #onWrite()}.
+     */
+    @NonNull
+    private DbChange.Builder changed() {
+        return pendingChange.get();
+    }
+
+    /**
+     * Discards the change recorded on this thread but never committed, so that it is neither published with the
+     * next commit nor twice when the writes are retried. Called when a transaction begun by
+     * {@link #beginTransaction()} is rolled back, and by {@link DbWriteExecutor} before retrying.
+     */
+    void discardChange() {
+        pendingChange.get().clear();
+    }
+
+    /**
+     * Posts the change recorded on this thread to the change listeners, as one change for all writes committed
+     * together, e.g. as coalesced by {@link DbWriteExecutor}.
+     */
+    private void publishChange() {
+        DbChange.Builder builder = pendingChange.get();
+        if (builder.isEmpty()) return;
+
+        DbChange change = builder.build();
+        mainHandler.post(() -> {
+            for (DbChange.Listener listener : changeListeners) listener.onDbChange(change);
+        });
+    }
+
+    /**
+     * Creates the temporary table and triggers recording changed days. Must be called on every new connection, and
+     * again after the daily totals table has been recreated, which drops the triggers.
+     */
+    private void createChangedDays() {
+        db.execSQL(ChangedDayEntry.CREATE_TABLE);
+        for (String trigger : ChangedDayEntry.CREATE_TRIGGERS) {
+            db.execSQL(trigger);
+        }
+    }
+
+    /**
+     * Gets and clears the days recorded in {@link ChangedDayEntry}, in one transaction so that no day recorded
+     * meanwhile is lost.
+     *
+     * @return The changed epoch days
+     */
+    @NonNull
+    private long[] drainChangedDays() {
+        long[] days;
+
+        db.beginTransaction();
+        try {
+            Cursor cursor = db.query(ChangedDayEntry.TABLE_NAME, new String[] { ChangedDayEntry.COLUMN_DAY }, null,
+                null, null, null, null);
+            days = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                days[i] = cursor.getLong(0);
+            }
+            cursor.close();
+
+            if (days.length != 0) db.execSQL(ChangedDayEntry.DELETE_ALL);
+            db.setTransactionSuccessful();
+        }
+        finally {
+            db.endTransaction();
+        }
+
+        return days;
+    }
+
 }
@@ -0,0 +1,63 @@
+package me.felwal.trackfield.data.db;
+
+import androidx.annotation.NonNull;
+
+/**
+ * The position after the last row of a page, used for keyset pagination. Holds the sort keys and id of that row, so
+ * that the next page can be sought directly instead of skipping all previous rows.
+ *
+ * @see DbReader#getExerlites(me.felwal.trackfield.ui.common.model.SorterItem.Mode, boolean,
+ * me.felwal.trackfield.ui.base.ExerciseFilter, Keyset, int)
+ */
+public class Keyset {
+
+    private Object[] sortKeys;
+    private int id;
+    private boolean exhausted = false;
+
+    //
+
+    private Keyset() {
+    }
+
+    /**
+     * @return A keyset positioned before the first row
+     */
+    @NonNull
+    public static Keyset first() {
+        return new Keyset();
+    }
+
+    // set
+
+    void advance(Object[] sortKeys, int id) {
+        this.sortKeys = sortKeys;
+        this.id = id;
+    }
+
+    void exhaust() {
+        exhausted = true;
+    }
+
+    // get
+
+    Object[] getSortKeys() {
+        return sortKeys;
+    }
+
+    int getId() {
+        return id;
+    }
+
+    public boolean isFirst() {
+        return sortKeys == null;
+    }
+
+    /**
+     * @return True if the last page has been read
+     */
+    public boolean isExhausted() {
+        return exhausted;
+    }
+
+}
@@ -0,0 +1,117 @@
+package me.felwal.trackfield.data.db;
+
+import androidx.annotation.NonNull;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import me.felwal.trackfield.ui.base.ExerciseFilter;
+import me.felwal.trackfield.utils.DateUtils;
+
+/**
+ * Distance, time and count totals of the exercises matching a filter, aggregated per day, week, month and year. Each
+ * period is keyed by the epoch day it starts on. Changing a day only adjusts that day and the three periods containing
+ * it, so the totals can be kept current per written day instead of being summed again.
+ *
+ * @see DbReader#getPeriodTotals(ExerciseFilter)
+ */
+public class PeriodTotals {
+
+    private static final int DISTANCE = 0;
+    private static final int TIME = 1;
+    private static final int COUNT = 2;
+
+    private final ExerciseFilter filter;
+
+    // summed as doubles, and dropped when empty, so that adjusting does not drift
+    private final HashMap<Long, double[]> days = new HashMap<>();
+    private final HashMap<Long, double[]> weeks = new HashMap<>();
+    private final HashMap<Long, double[]> months = new HashMap<>();
+    private final HashMap<Long, double[]> years = new HashMap<>();
+
+    //
+
+    PeriodTotals(@NonNull ExerciseFilter filter) {
+        // copy, since the filter from prefs wraps lists that are mutated in place
+        this.filter = new ExerciseFilter(new ArrayList<>(filter.getVisibleTypes()),
+            new ArrayList<>(filter.getVisibleLabels()));
+    }
+
+    // set
+
+    /**
+     * Sets the totals of a day, and adjusts the totals of its week, month and year by the difference.
+     *
+     * @param epochDay The day to set
+     * @param distance Total distance of the day
+     * @param time Total time of the day
+     * @param count Number of exercises of the day; 0 clears the day
+     */
+    synchronized void setDay(long epochDay, double distance, double time, int count) {
+        double[] old = days.get(epochDay);
+        double[] delta = old == null
+            ? new double[] { distance, time, count }
+            : new double[] { distance - old[DISTANCE], time - old[TIME], count - old[COUNT] };
+
+        if (count > 0) days.put(epochDay, new double[] { distance, time, count });
+        else days.remove(epochDay);
+
+        LocalDate date = LocalDate.ofEpochDay(epochDay);
+        adjust(weeks, DateUtils.atStartOfWeek(date).toLocalDate().toEpochDay(), delta);
+        adjust(months, DateUtils.atStartOfMonth(date).toLocalDate().toEpochDay(), delta);
+        adjust(years, DateUtils.atStartOfYear(date).toLocalDate().toEpochDay(), delta);
+    }
+
+    private static void adjust(HashMap<Long, double[]> periods, long key, double[] delta) {
+        double[] totals = periods.get(key);
+        if (totals == null) {
+            totals = new double[3];
+            periods.put(key, totals);
+        }
+
+        for (int i = 0; i < totals.length; i++) totals[i] += delta[i];
+        if (totals[COUNT] <= 0) periods.remove(key);
+    }
+
+    // get
+
+    boolean isFor(@NonNull ExerciseFilter filter) {
+        return this.filter.equals(filter);
+    }
+
+    /**
+     * @param date Any date of the week
+     * @return The distance, time and count of the week
+     */
+    @NonNull
+    public synchronized float[] getWeek(@NonNull LocalDate date) {
+        return get(weeks, DateUtils.atStartOfWeek(date).toLocalDate().toEpochDay());
+    }
+
+    /**
+     * @param date Any date of the month
+     * @return The distance, time and count of the month
+     */
+    @NonNull
+    public synchronized float[] getMonth(@NonNull LocalDate date) {
+        return get(months, DateUtils.atStartOfMonth(date).toLocalDate().toEpochDay());
+    }
+
+    /**
+     * @param date Any date of the year
+     * @return The distance, time and count of the year
+     */
+    @NonNull
+    public synchronized float[] getYear(@NonNull LocalDate date) {
+        return get(years, DateUtils.atStartOfYear(date).toLocalDate().toEpochDay());
+    }
+
+    @NonNull
+    private static float[] get(HashMap<Long, double[]> periods, long key) {
+        double[] totals = periods.get(key);
+        if (totals == null) return new float[3];
+        return new float[] { (float) totals[DISTANCE], (float) totals[TIME], (float) totals[COUNT] };
+    }
+
+}
@@ -0,0 +1,129 @@
+package me.felwal.trackfield.data.db;
+
+import android.location.Location;
+
+import androidx.annotation.NonNull;
+
+import com.mapbox.mapboxsdk.geometry.LatLng;
+import com.mapbox.mapboxsdk.geometry.LatLngBounds;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import me.felwal.trackfield.data.db.model.Place;
+
+/**
+ * A grid of places, bucketed by the cells their bounds overlap. A point lookup then only needs to check the few places
+ * registered in the cell of that point, instead of all places.
+ *
+ * @see DbReader#getPlaces(LatLng)
+ * @see DbReader#generatePlaces(DbReader.ProgressListener)
+ */
+class PlaceIndex {
+
+    // about 1 km in latitude, and narrower in longitude towards the poles. a place with the default radius of 500 m
+    // overlaps at most 2x2 cells up to about 25 degrees latitude, and 2x3 at 60 degrees
+    private static final double CELL_SIZE_DEG = 0.01;
+
+    private final HashMap<Long, ArrayList<Place>> cells = new HashMap<>();
+
+    //
+
+    PlaceIndex(@NonNull List<Place> places) {
+        for (Place place : places) {
+            add(place);
+        }
+    }
+
+    // set
+
+    /**
+     * Registers a place in all cells overlapped by its bounds. Used while generating places; the cached index in
+     * {@link DbReader} is never mutated after construction.
+     *
+     * @param place The place to add
+     */
+    void add(@NonNull Place place) {
+        LatLngBounds bounds = place.getBounds();
+        int minLatCell = cell(bounds.getLatSouth());
+        int maxLatCell = cell(bounds.getLatNorth());
+        int minLngCell = cell(bounds.getLonWest());
+        int maxLngCell = cell(bounds.getLonEast());
+
+        for (int latCell = minLatCell; latCell <= maxLatCell; latCell++) {
+            for (int lngCell = minLngCell; lngCell <= maxLngCell; lngCell++) {
+                long key = key(latCell, lngCell);
+                ArrayList<Place> cellPlaces = cells.get(key);
+
+                if (cellPlaces == null) {
+                    cellPlaces = new ArrayList<>(1);
+                    cells.put(key, cellPlaces);
+                }
+                cellPlaces.add(place);
+            }
+        }
+    }
+
+    // get
+
+    /**
+     * Gets all places whose radius contains a point.
+     *
+     * @param latLng The point to look up
+     * @return The containing places, nearest center first
+     */
+    @NonNull
+    ArrayList<Place> getContaining(@NonNull LatLng latLng) {
+        ArrayList<Place> cellPlaces = cells.get(key(cell(latLng.getLatitude()), cell(latLng.getLongitude())));
+        if (cellPlaces == null) return new ArrayList<>();
+
+        // few places overlap, so keep them ordered by distance through insertion sort
+        ArrayList<Place> containing = new ArrayList<>();
+        ArrayList<Float> distances = new ArrayList<>();
+        float[] distBetweenArr = new float[1];
+
+        for (Place place : cellPlaces) {
+            Location.distanceBetween(place.getLat(), place.getLng(), latLng.getLatitude(), latLng.getLongitude(),
+                distBetweenArr);
+            float distBetween = distBetweenArr[0];
+
+            if (distBetween <= place.getRadius()) {
+                int index = 0;
+                while (index < distances.size() && distances.get(index) <= distBetween) index++;
+
+                containing.add(index, place);
+                distances.add(index, distBetween);
+            }
+        }
+
+        return containing;
+    }
+
+    /**
+     * Checks whether any place contains a point, without ordering or collecting them.
+     *
+     * @param latLng The point to look up
+     * @return True if at least one place contains the point
+     */
+    boolean anyContains(@NonNull LatLng latLng) {
+        ArrayList<Place> cellPlaces = cells.get(key(cell(latLng.getLatitude()), cell(latLng.getLongitude())));
+        if (cellPlaces == null) return false;
+
+        for (Place place : cellPlaces) {
+            if (place.contains(latLng)) return true;
+        }
+        return false;
+    }
+
+    // tools
+
+    private static int cell(double degrees) {
+        return (int) Math.floor(degrees / CELL_SIZE_DEG);
+    }
+
+    private static long key(int latCell, int lngCell) {
+        return ((long) latCell << 32) | (lngCell & 0xffffffffL);
+    }
+
+}
@@ -53,6 +53,7 @@ public class Exercise implements JSONObjectable {
     private static final String JSON_HIDE_TRAIL = "trail_hidden";
 
     private static final int DISTANCE_DECIMALS = 2;
+    private static final int DRIVEN_DISTANCE_UNKNOWN = -1;
 
     private final int id;
     private long stravaId;
@@ -68,7 +69,7 @@ public class Exercise implements JSONObjectable {
     private String device;
     private String recordingMethod;
     private int distance;
-    private int drivenDistance;
+    private int drivenDistance = DRIVEN_DISTANCE_UNKNOWN;
     private float time;
     private float avgHeartrate;
     private Trail trail;
@@ -152,6 +153,7 @@ public class Exercise implements JSONObjectable {
 
     public void setType(String type) {
         this.type = type;
+        drivenDistance = DRIVEN_DISTANCE_UNKNOWN;
     }
 
     public void setLabel(String label) {
@@ -164,6 +166,7 @@ public class Exercise implements JSONObjectable {
 
     public void setRouteId(int routeId) {
         this.routeId = routeId;
+        drivenDistance = DRIVEN_DISTANCE_UNKNOWN;
     }
 
     public void setRoute(String route) {
@@ -172,6 +175,7 @@ public class Exercise implements JSONObjectable {
 
     public void setRouteVar(String routeVar) {
         this.routeVar = routeVar;
+        drivenDistance = DRIVEN_DISTANCE_UNKNOWN;
     }
 
     public void setInterval(String interval) {
@@ -192,6 +196,15 @@ public class Exercise implements JSONObjectable {
 
     public void setDistance(int distance) {
         this.distance = distance;
+        drivenDistance = DRIVEN_DISTANCE_UNKNOWN;
+    }
+
+    /**
+     * Sets the resolved driven distance, as read from the effective distance column. Reset when any of the fields it
+     * depends on changes.
+     */
+    public void setDrivenDistance(int drivenDistance) {
+        this.drivenDistance = drivenDistance;
     }
 
     public void setTime(float time) {
@@ -323,9 +336,11 @@ public class Exercise implements JSONObjectable {
     }
 
     public int getEffectiveDistance(Context c) {
-        // TODO: to field
-        if (isDistanceDriven()) return DbReader.get(c).getDrivenDistance(routeId, routeVar, type);
-        return distance;
+        if (!isDistanceDriven()) return distance;
+        if (drivenDistance == DRIVEN_DISTANCE_UNKNOWN) {
+            drivenDistance = DbReader.get(c).getDrivenDistance(routeId, routeVar, type);
+        }
+        return drivenDistance;
     }
 
     public boolean isDistanceDriven() {
@@ -372,10 +387,12 @@ public class Exercise implements JSONObjectable {
         return (int) (getEnergy(AppConsts.UnitEnergy.JOULES, c) / time);
     }
 
+    @Nullable
     public Place getStartPlace(Context c) {
         return DbReader.get(c).getPlace(trail.getStart());
     }
 
+    @Nullable
     public Place getEndPlace(Context c) {
         return DbReader.get(c).getPlace(trail.getEnd());
     }
@@ -20,15 +20,16 @@ import org.json.JSONObject;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import me.felwal.trackfield.BuildConfig;
 import me.felwal.trackfield.R;
 import me.felwal.trackfield.data.db.DbReader;
-import me.felwal.trackfield.data.db.DbWriter;
+import me.felwal.trackfield.data.db.DbWriteExecutor;
 import me.felwal.trackfield.data.db.model.Exercise;
+import me.felwal.trackfield.data.db.model.Route;
 import me.felwal.trackfield.data.prefs.Prefs;
-import me.felwal.trackfield.ui.exercisedetail.ExerciseDetailActivity;
-import me.felwal.trackfield.ui.main.MainActivity;
 import me.felwal.trackfield.ui.map.model.Trail;
 import me.felwal.trackfield.utils.AppConsts;
 import me.felwal.trackfield.utils.AppLog;
@@ -129,9 +130,7 @@ public class StravaService {
                 response -> {
                 AppLog.i("response: " + response.toString());
 
-                boolean success = handlePull(convertToExercise(response), options);
-
-                listener.onStravaResponse(success);
+                onWritten(handlePull(convertToExercise(response), options), listener);
             }, e -> listener.onStravaResponseError(e, a));
 
             queue.add(request);
@@ -146,11 +145,9 @@ public class StravaService {
                 response -> {
                 AppLog.i("response: " + response);
 
-                int successCount = 0;
-                int errorCount = 0;
+                ArrayList<CompletableFuture<Boolean>> results = new ArrayList<>();
 
                 for (int index = 0; index < response.length(); index++) {
-                    boolean success;
                     try {
                         JSONObject obj = response.getJSONObject(index);
                         Exercise strava = convertToExercise(obj);
@@ -158,15 +155,12 @@ public class StravaService {
                         // only pull existing activities
                         if (!DbReader.get(a).doesStravaIdExist(strava.getStravaId())) continue;
 
-                        success = handlePull(strava, options);
+                        results.add(handlePull(strava, options));
                     }
                     catch (JSONException e) {
-                        success = false;
+                        results.add(CompletableFuture.completedFuture(false));
                         e.printStackTrace();
                     }
-
-                    if (success) successCount++;
-                    else errorCount++;
                 }
 
                 // pull next page
@@ -174,7 +168,7 @@ public class StravaService {
                     pullActivities(page + 1, options, listener);
                 }
 
-                listener.onStravaResponse(successCount, errorCount);
+                onWritten(results, listener);
             }, e -> listener.onStravaResponseError(e, a));
 
             queue.add(request);
@@ -199,9 +193,7 @@ public class StravaService {
                     response -> {
                     AppLog.i("response: " + response.toString());
 
-                    boolean success = handlePull(convertToExercise(response), Prefs.getPullOptions());
-
-                    listener.onStravaResponse(success);
+                    onWritten(handlePull(convertToExercise(response), Prefs.getPullOptions()), listener);
                 }, e -> listener.onStravaResponseError(e, a));
 
                 queue.add(request);
@@ -219,9 +211,7 @@ public class StravaService {
                 response -> {
                 AppLog.i("response: " + response);
 
-                boolean success = handleRequest(convertToExercise(response));
-
-                listener.onStravaResponse(success);
+                onWritten(handleRequest(convertToExercise(response)), listener);
             }, e -> listener.onStravaResponseError(e, a));
 
             queue.add(request);
@@ -238,11 +228,11 @@ public class StravaService {
 
                 try {
                     JSONObject obj = response.getJSONObject(index);
-                    boolean success = handleRequest(convertToExercise(obj));
+                    CompletableFuture<Boolean> result = handleRequest(convertToExercise(obj));
 
                     AppLog.i("response obj: " + obj.toString());
 
-                    listener.onStravaResponse(success);
+                    onWritten(result, listener);
                 }
                 catch (JSONException e) {
                     e.printStackTrace();
@@ -262,28 +252,24 @@ public class StravaService {
                 response -> {
                 AppLog.i("response: " + response);
 
-                int successCount = 0;
-                int errorCount = 0;
+                ArrayList<CompletableFuture<Boolean>> results = new ArrayList<>();
 
                 for (int index = 0; index < response.length(); index++) {
-                    boolean success;
                     try {
                         JSONObject obj = response.getJSONObject(index);
                         Exercise strava = convertToExercise(obj);
 
                         // if stravaId already exists, continue to next; dont override
+                        // only skips those committed; handleRequest checks again when writing
                         if (DbReader.get(a).doesStravaIdExist(strava.getStravaId())) continue;
 
-                        success = handleRequest(strava);
+                        results.add(handleRequest(strava));
                     }
                     catch (JSONException e) {
-                        success = false;
+                        results.add(CompletableFuture.completedFuture(false));
                         e.printStackTrace();
                         //LayoutUtils.handleError(R.string.toast_err_parse_jsonobj, e, a);
                     }
-
-                    if (success) successCount++;
-                    else errorCount++;
                 }
 
                 // request next page
@@ -291,7 +277,7 @@ public class StravaService {
                     requestActivities(page + 1, listener);
                 }
 
-                listener.onStravaResponse(successCount, errorCount);
+                onWritten(results, listener);
             }, e -> listener.onStravaResponseError(e, a));
 
             queue.add(request);
@@ -306,32 +292,28 @@ public class StravaService {
                 response -> {
                 AppLog.i("response: " + response);
 
-                int successCount = 0;
-                int errorCount = 0;
+                ArrayList<CompletableFuture<Boolean>> results = new ArrayList<>();
                 boolean loopBroken = false;
 
                 for (int index = 0; index < response.length(); index++) {
-                    boolean success;
                     try {
                         JSONObject obj = response.getJSONObject(index);
                         Exercise strava = convertToExercise(obj);
 
                         // if stravaId already exists, we are done; all new have been requested
+                        // only stops at those committed; handleRequest checks again when writing
                         if (DbReader.get(a).doesStravaIdExist(strava.getStravaId())) {
                                 loopBroken = true;
                                 break;
                             }
 
-                        success = handleRequest(strava);
+                        results.add(handleRequest(strava));
                     }
                     catch (JSONException e) {
-                        success = false;
+                        results.add(CompletableFuture.completedFuture(false));
                         e.printStackTrace();
                         //LayoutUtils.handleError(R.string.toast_err_parse_jsonobj, e, a);
                     }
-
-                    if (success) successCount++;
-                    else errorCount++;
                 }
 
                 // request next page
@@ -339,7 +321,7 @@ public class StravaService {
                     requestNewActivities(page + 1, listener);
                 }
 
-                listener.onStravaResponse(successCount, errorCount);
+                onWritten(results, listener);
             }, e -> listener.onStravaResponseError(e, a));
 
             queue.add(request);
@@ -438,7 +420,8 @@ public class StravaService {
             String method = polyline != null ? Prefs.getDefaultRecordingMethod() : "";
 
             // convert
-            int routeId = DbReader.get(a).getRouteIdOrCreate(name, a);
+            // created, if not existing, when the exercise is written
+            int routeId = DbReader.get(a).getRouteId(name);
             LocalDateTime dateTime = LocalDateTime.parse(date, FORMATTER_STRAVA);
             Trail trail = polyline == null || polyline.equals("null") || polyline.equals("") ? null :
                 new Trail(polyline, start, end);
@@ -453,28 +436,34 @@ public class StravaService {
         }
     }
 
-    private boolean handlePull(Exercise strava, SwitchChain options) {
-        if (strava == null) return false;
-        boolean success;
+    /**
+     * Imports or merges a pulled exercise through {@link DbWriteExecutor}. Whether it exists is checked in the same
+     * command as it is written, so that an exercise queued but not yet committed is merged with, not added twice.
+     *
+     * @return A future completed with whether the exercise was written, once committed
+     */
+    private CompletableFuture<Boolean> handlePull(Exercise strava, SwitchChain options) {
+        if (strava == null) return CompletableFuture.completedFuture(false);
+
+        // set by the command, which may be run again if its batch fails
+        AtomicBoolean imported = new AtomicBoolean(false);
 
-        Exercise existing = DbReader.get(a).getExercise(strava.getStravaId());
+        // shown through the change published by DbWriter
+        CompletableFuture<Boolean> result = DbWriteExecutor.get(a).submit(writer -> {
+            Exercise existing = writer.getExercise(strava.getStravaId(), a);
+            imported.set(existing == null);
 
-        // import
-        if (existing == null) {
-            success = DbWriter.get(a).addExercise(strava, a);
-            LayoutUtils.toast("Pull resulted in import on " + strava.getDate().format(AppConsts.FORMATTER_SQL_DATE), a);
-            AppLog.i("Pull resulted in import on " + strava.getDate().format(AppConsts.FORMATTER_SQL_DATE));
-        }
+            // import
+            if (existing == null) return writer.addExercise(strava, a);
 
-        // merge
-        else {
+            // merge
             // set depending on pull/request options
             if (options.isChecked(JSON_EXTERNAL_ID)) {
                 existing.setGarminId(strava.getGarminId());
             }
-            if (options.isChecked(JSON_NAME)) {
+            boolean routeChanged = options.isChecked(JSON_NAME);
+            if (routeChanged) {
                 existing.setRoute(strava.getRoute());
-                existing.setRouteId(strava.getRouteId());
             }
             if (options.isChecked(JSON_TYPE)) {
                 existing.setType(strava.getType());
@@ -505,64 +494,111 @@ public class StravaService {
                 existing.setTrail(strava.getTrail());
             }
 
-            success = DbWriter.get(a).updateExercise(existing, a);
-        }
-
-        if (a instanceof ExerciseDetailActivity) a.recreate();
+            // the route may not exist yet; resolved here so that it is created with the exercise
+            if (routeChanged) existing.setRouteId((int) writer.addRoute(new Route(existing.getRoute()), a));
+            return writer.updateExercise(existing, a);
+        });
+
+        // once committed
+        result.whenComplete((success, e) -> {
+            if (e == null && success && imported.get()) {
+                String date = strava.getDate().format(AppConsts.FORMATTER_SQL_DATE);
+                AppLog.i("Pull resulted in import on " + date);
+                a.runOnUiThread(() -> LayoutUtils.toast("Pull resulted in import on " + date, a));
+            }
+        });
 
-        return success;
+        return result;
     }
 
     /**
      * Imports requested exercise to db or potentially merges with a matching one (same datetime).
      * If the stravaId already exists, the exercise is ignored and does NOT override the existing one.
+     * Both are checked in the same command as the exercise is written, so that an exercise queued but not yet
+     * committed is not added twice.
      */
-    private boolean handleRequest(Exercise strava) {
-        if (strava == null) return false;
-        boolean success = true;
-
-        // dont override already existing (use pull for that)
-        Exercise existing = DbReader.get(a).getExercise(strava.getStravaId());
-        if (existing != null) return true;
-
-        // merge with matching, i.e. not already linked to strava activity
-        ArrayList<Exercise> matching = DbReader.get(a).getExercises(strava.getDateTime());
-
-        // merge
-        if (matching.size() == 1) {
-            Exercise m = matching.get(0);
-            Exercise merged = new Exercise(m.getId(), strava.getStravaId(), strava.getGarminId(), m.getType(),
-                strava.getLabel(), strava.getDateTime(), m.getRouteId(), m.getRoute(), m.getRouteVar(), m.getInterval(),
-                m.getNote(), m.getDevice(), m.getRecordingMethod(), strava.getDistance(), strava.getTime(),
-                strava.getAvgHeartrate(), strava.getTrail(), m.isTrailHidden());
-
-            success = DbWriter.get(a).updateExercise(merged, a);
-        }
+    private CompletableFuture<Boolean> handleRequest(Exercise strava) {
+        if (strava == null) return CompletableFuture.completedFuture(false);
 
-        // import
-        else if (matching.size() == 0) {
-            success &= DbWriter.get(a).addExercise(strava, a);
-            AppLog.i("Import on " + strava.getDate().format(AppConsts.FORMATTER_SQL_DATE));
-            //L.toast("Import on " + fromStrava.getDate().format(C.FORMATTER_SQL_DATE), a);
-        }
+        // set by the command if the exercise was merged or imported
+        AtomicBoolean written = new AtomicBoolean(false);
 
-        // nothing
-        else {
-            success = false;
-            AppLog.i("Multiple choice on " + strava.getDateTime().format(AppConsts.FORMATTER_SQL_DATE));
-            //L.toast("Multiple choice on " + fromStrava.getDateTime().format(C.FORMATTER_SQL_DATE), a);
-        }
+        CompletableFuture<Boolean> result = DbWriteExecutor.get(a).submit(writer -> {
+            // dont override already existing (use pull for that)
+            if (writer.doesStravaIdExist(strava.getStravaId())) return true;
+
+            // merge with matching, i.e. not already linked to strava activity
+            ArrayList<Exercise> matching = writer.getExercises(strava.getDateTime(), a);
+
+            // merge
+            if (matching.size() == 1) {
+                Exercise m = matching.get(0);
+                Exercise merged = new Exercise(m.getId(), strava.getStravaId(), strava.getGarminId(), m.getType(),
+                    strava.getLabel(), strava.getDateTime(), m.getRouteId(), m.getRoute(), m.getRouteVar(),
+                    m.getInterval(), m.getNote(), m.getDevice(), m.getRecordingMethod(), strava.getDistance(),
+                    strava.getTime(), strava.getAvgHeartrate(), strava.getTrail(), m.isTrailHidden());
+
+                written.set(true);
+                return writer.updateExercise(merged, a);
+            }
 
-        if (a instanceof MainActivity) ((MainActivity) a).updateFragment();
+            // import
+            else if (matching.size() == 0) {
+                AppLog.i("Import on " + strava.getDate().format(AppConsts.FORMATTER_SQL_DATE));
+                //L.toast("Import on " + fromStrava.getDate().format(C.FORMATTER_SQL_DATE), a);
+
+                written.set(true);
+                return writer.addExercise(strava, a);
+            }
+
+            // nothing
+            else {
+                AppLog.i("Multiple choice on " + strava.getDateTime().format(AppConsts.FORMATTER_SQL_DATE));
+                //L.toast("Multiple choice on " + fromStrava.getDateTime().format(C.FORMATTER_SQL_DATE), a);
+                return false;
+            }
+        });
 
         // also pull to get data not available to request
         // but only if the user wants data not available to request
+        // once committed, so that the pull finds the requested exercise
         SwitchChain options = Prefs.getRequestOptions();
         if (options.isChecked(JSON_DEVICE) || options.isChecked(JSON_DESCRIPTION)) {
-            pullActivity(strava.getStravaId(), options, responseSuccess -> {});
+            result.whenComplete((success, e) -> {
+                if (e == null && success && written.get()) {
+                    a.runOnUiThread(() -> pullActivity(strava.getStravaId(), options, responseSuccess -> {}));
+                }
+            });
         }
 
-        return success;
+        return result;
+    }
+
+    /**
+     * Notifies a listener on the main thread once a write has completed.
+     */
+    private void onWritten(CompletableFuture<Boolean> result, ResponseListener listener) {
+        result.whenComplete((success, e) -> a.runOnUiThread(() ->
+            listener.onStravaResponse(e == null && success)));
+    }
+
+    /**
+     * Notifies a listener on the main thread once all writes of a response have completed. Writes that failed, or
+     * returned false, are counted as errors.
+     */
+    private void onWritten(ArrayList<CompletableFuture<Boolean>> results, MultiResponseListener listener) {
+        CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).whenComplete((v, t) ->
+            a.runOnUiThread(() -> {
+                int successCount = 0;
+                int errorCount = 0;
+
+                for (CompletableFuture<Boolean> result : results) {
+                    if (!result.isCompletedExceptionally() && result.join()) successCount++;
+                    else errorCount++;
+                }
+
+                listener.onStravaResponse(successCount, errorCount);
+            }));
     }
 
     // get url:s
@@ -399,12 +399,20 @@ public class Prefs {
         savePref(include, KEY_INCLCUDE_LONGER);
     }
 
+    /**
+     * {@link me.felwal.trackfield.data.db.DbWriter#updateDistanceLimits()} must be submitted to the
+     * {@link me.felwal.trackfield.data.db.DbWriteExecutor} after this.
+     */
     @Unfinished
     public static void setDistanceLowerLimit(int distanceLowerLimit) {
         Prefs.distanceLowerLimit = distanceLowerLimit;
         savePref(distanceLowerLimit, KEY_LIMIT_LOWER);
     }
 
+    /**
+     * {@link me.felwal.trackfield.data.db.DbWriter#updateDistanceLimits()} must be submitted to the
+     * {@link me.felwal.trackfield.data.db.DbWriteExecutor} after this.
+     */
     @Unfinished
     public static void setDistanceUpperLimit(int distanceUpperLimit) {
         Prefs.distanceUpperLimit = distanceUpperLimit;
@@ -81,7 +81,7 @@ class BackupManager(applicationContext: Context) : SafManager(applicationContext
 
         if (exercises.size == 0) return false
 
-        return DbWriter.get(applicationContext).addExercises(exercises, applicationContext) && success
+        return DbWriter.get(applicationContext).addExercises(exercises) && success
     }
 
     private fun readRoutesBackup(uri: Uri): Boolean {
@@ -294,7 +294,7 @@ public final class FileUtils {
         }
 
         if (exercises.size() == 0) return false;
-        DbWriter.get(c).addExercises(exercises, c);
+        DbWriter.get(c).addExercises(exercises);
         return success;
     }
 
@@ -7,7 +7,7 @@ private const val SHEET_FILTER_TYPE = "filterByTypeSheet"
 private const val SHEET_FILTER_LABEL = "filterByLabelSheet"
 private const val SHEET_FILTER_CLEAR = "clearFilters"
 
-class ExerciseFilter(
+data class ExerciseFilter(
     val visibleTypes: ArrayList<String>,
     val visibleLabels: ArrayList<String>
 ) {
@@ -18,11 +18,14 @@ import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import java.util.ArrayList;
+import java.util.Collection;
 
 import me.felwal.android.fragment.sheet.SortSheet;
 import me.felwal.android.widget.control.SheetOption;
 import me.felwal.trackfield.R;
+import me.felwal.trackfield.data.db.DbChange;
 import me.felwal.trackfield.data.db.DbReader;
+import me.felwal.trackfield.data.db.DbWriter;
 import me.felwal.trackfield.ui.common.model.Exerlite;
 import me.felwal.trackfield.ui.common.model.Header;
 import me.felwal.trackfield.ui.common.model.RecyclerItem;
@@ -52,6 +55,17 @@ public abstract class RecyclerFragment extends Fragment implements DelegateClick
 
     private ScaleGestureDetector scaleDetector;
 
+    // paging
+    private static final int PAGE_PREFETCH_DISTANCE = 20;
+    private final Object itemsLock = new Object();
+    private int itemsGeneration = 0;
+    private boolean loadingPage = false;
+
+    // reloading, coalesced so that changes published while reloading cause one more reload
+    private final DbChange.Listener changeListener = this::onDbChange;
+    private boolean reloading = false;
+    private boolean reloadPending = false;
+
     // extends Fragment
 
     @SuppressLint("ClickableViewAccessibility")
@@ -82,15 +96,32 @@ public abstract class RecyclerFragment extends Fragment implements DelegateClick
             ((MainActivity) a).setRecyclerScrollListener(recycler, this);
         }
 
+        // load next page when approaching the end
+        recycler.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                super.onScrolled(recyclerView, dx, dy);
+                if (dy > 0) loadNextPageIfNeeded();
+            }
+        });
+
         scaleDetector = new ScaleGestureDetector(a, this);
         recycler.setOnTouchListener((v, event) -> {
             scaleDetector.onTouchEvent(event);
             return false;
         });
 
+        DbWriter.addChangeListener(changeListener);
+
         return view;
     }
 
+    @Override
+    public void onDestroyView() {
+        DbWriter.removeChangeListener(changeListener);
+        super.onDestroyView();
+    }
+
     // set
 
     protected abstract void setEmptyPage();
@@ -102,13 +133,19 @@ public abstract class RecyclerFragment extends Fragment implements DelegateClick
             new Thread(() -> {
                 // add items
                 if (items.size() == 0) {
-                    items.addAll(getRecyclerItems());
+                    items.addAll(reloadRecyclerItems());
                     allItems.addAll(items);
                 }
                 a.runOnUiThread(() -> {
                     // set adapter
                     recycler.setAdapter(adapter = getAdapter());
                     LayoutUtils.crossfadeRecycler(recycler);
+
+                    // changed while loading
+                    if (reloadPending) {
+                        reloadPending = false;
+                        updateRecycler();
+                    }
                 });
             }).start();
         }
@@ -121,6 +158,30 @@ public abstract class RecyclerFragment extends Fragment implements DelegateClick
 
     protected abstract ArrayList<RecyclerItem> getRecyclerItems();
 
+    /**
+     * Whether there are more items to page in after those of {@link #getRecyclerItems()}. Override together with
+     * {@link #getNextPageItems()} to load lazily. Called on the main thread, while those are called on a background
+     * thread, so the paging state read must be published safely.
+     */
+    protected boolean hasNextPage() {
+        return false;
+    }
+
+    /**
+     * Gets the next page of items, continuing after the last call to this or to {@link #getRecyclerItems()}.
+     * Called on a background thread.
+     */
+    protected ArrayList<RecyclerItem> getNextPageItems() {
+        return new ArrayList<>();
+    }
+
+    private ArrayList<RecyclerItem> reloadRecyclerItems() {
+        synchronized (itemsLock) {
+            itemsGeneration++;
+            return getRecyclerItems();
+        }
+    }
+
     protected RecyclerItem getItem(int position) {
         if (position < 0 || position >= adapter.getItems().size()) return null;
         return adapter.getItems().get(position);
@@ -186,14 +247,138 @@ public abstract class RecyclerFragment extends Fragment implements DelegateClick
         diff.dispatchUpdatesTo(adapter);
     }
 
+    /**
+     * Reloads all items on a background thread, and applies the difference. Calls made while reloading are coalesced
+     * into one more reload once done. Must be called on the main thread.
+     */
     public void updateRecycler() {
+        if (reloading) {
+            reloadPending = true;
+            return;
+        }
+        reloading = true;
+
         new Thread(() -> {
-            allItems = getRecyclerItems();
+            allItems = reloadRecyclerItems();
             final ArrayList<RecyclerItem> newItems = getVisibleItems();
-            a.runOnUiThread(() -> updateRecycler(newItems));
+            a.runOnUiThread(() -> {
+                updateRecycler(newItems);
+                reloading = false;
+
+                if (reloadPending) {
+                    reloadPending = false;
+                    updateRecycler();
+                }
+            });
         }).start();
     }
 
+    // data changes
+
+    /**
+     * Whether a committed change may affect the items. Unaffected changes are ignored.
+     */
+    protected boolean isAffectedBy(@NonNull DbChange change) {
+        return true;
+    }
+
+    /**
+     * Applies a committed change, by reloading the items if affected. Override to apply the change in place.
+     */
+    protected void onDbChange(@NonNull DbChange change) {
+        if (!isAffectedBy(change)) return;
+
+        // still loading the first items, which may not include the change
+        if (adapter == null) reloadPending = true;
+        else updateRecycler();
+    }
+
+    /**
+     * Replaces items in place, and notifies the adapter of the changed positions only. Dropped if the items were
+     * reloaded after the replacements were read, which is told by the item generation at the time.
+     *
+     * @param generation The item generation when the replacements were read, by {@link #getItemsGeneration()}
+     * @param replacements The new items, each replacing the item it is the {@link RecyclerItem#sameItemAs} of
+     * @return False if dropped
+     */
+    protected boolean replaceRecyclerItems(int generation, @NonNull ArrayList<? extends RecyclerItem> replacements) {
+        if (adapter == null || generation != itemsGeneration || reloading) return false;
+
+        for (RecyclerItem replacement : replacements) {
+            for (int i = 0; i < allItems.size(); i++) {
+                RecyclerItem item = allItems.get(i);
+                if (!item.sameItemAs(replacement)) continue;
+
+                replacement.setCollapsedLevel(item.getCollapsedLevel());
+                allItems.set(i, replacement);
+
+                int position = items.indexOf(item);
+                if (position != -1) {
+                    items.set(position, replacement);
+                    adapter.notifyItemChanged(position);
+                }
+                break;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Notifies the adapter of items changed in place, such as headers whose values were set, if they are visible.
+     *
+     * @param changedItems The changed items, as contained in {@link #allItems}
+     */
+    protected void notifyRecyclerItemsChanged(@NonNull Collection<? extends RecyclerItem> changedItems) {
+        if (adapter == null) return;
+
+        for (RecyclerItem item : changedItems) {
+            int position = items.indexOf(item);
+            if (position != -1) adapter.notifyItemChanged(position);
+        }
+    }
+
+    protected int getItemsGeneration() {
+        synchronized (itemsLock) {
+            return itemsGeneration;
+        }
+    }
+
+    private void loadNextPageIfNeeded() {
+        if (loadingPage || adapter == null || !hasNextPage()) return;
+
+        int lastVisiblePosition = ((LinearLayoutManager) manager).findLastVisibleItemPosition();
+        if (lastVisiblePosition < items.size() - PAGE_PREFETCH_DISTANCE) return;
+
+        loadingPage = true;
+        new Thread(() -> {
+            final int generation;
+            final ArrayList<RecyclerItem> pageItems;
+            synchronized (itemsLock) {
+                generation = itemsGeneration;
+                pageItems = getNextPageItems();
+            }
+
+            a.runOnUiThread(() -> {
+                loadingPage = false;
+                // drop the page if the items were reloaded meanwhile
+                if (generation != itemsGeneration) return;
+                appendRecyclerItems(pageItems);
+            });
+        }).start();
+    }
+
+    private void appendRecyclerItems(ArrayList<RecyclerItem> pageItems) {
+        int positionStart = items.size();
+
+        allItems.addAll(pageItems);
+        for (RecyclerItem item : pageItems) {
+            if (item.isVisible()) items.add(item);
+        }
+
+        adapter.notifyItemRangeInserted(positionStart, items.size() - positionStart);
+    }
+
     public void collapseAll() {
         for (RecyclerItem item : allItems) {
             if (item instanceof Header && ((Header) item).isType(Header.Type.YEAR)) {
@@ -25,6 +25,7 @@ public class Header extends RecyclerItem {
     @Unfinished private boolean chartExpanded = false;
     private int firstIndex = 0;
     private int lastIndex = 0;
+    private boolean lastIndexSet = false;
 
     // since we update expansion on and submit the same object,
     // we need a way to check if it is updated.
@@ -60,11 +61,28 @@ public class Header extends RecyclerItem {
         }
     }
 
+    public void setValues(float... values) {
+        for (int i = 0; i < this.headerValues.length; i++) {
+            if (i < values.length) {
+                this.headerValues[i].setValue(values[i]);
+            }
+        }
+    }
+
     public void setLastIndex(int lastIndex) {
         // dont override if already set. this allows setting last index of month header when new year, making sure
         // it doesnt collapse the year header that comes before the next month header -- "January 2021" header should
         // not collapse "2021" header
-        if (this.lastIndex == 0) this.lastIndex = lastIndex;
+        if (!lastIndexSet) this.lastIndex = lastIndex;
+        lastIndexSet = true;
+    }
+
+    /**
+     * Sets the last index without concluding the header, allowing it to be extended when more items are paged in.
+     * Has no effect once concluded by {@link #setLastIndex(int)}.
+     */
+    public void extendLastIndex(int lastIndex) {
+        if (!lastIndexSet) this.lastIndex = lastIndex;
     }
 
     public void setExpanded(boolean expanded) {
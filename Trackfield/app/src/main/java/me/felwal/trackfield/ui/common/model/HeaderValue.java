@@ -19,6 +19,10 @@ public class HeaderValue {
         this.value += value;
     }
 
+    public void setValue(float value) {
+        this.value = value;
+    }
+
     // get
 
     public String getUnit() {
@@ -32,6 +32,10 @@ public abstract class RecyclerItem {
         return collapsedLevel == 0;
     }
 
+    public int getCollapsedLevel() {
+        return collapsedLevel;
+    }
+
     public boolean hasTag(String tag) {
         return this.tag != null && this.tag.equals(tag);
     }
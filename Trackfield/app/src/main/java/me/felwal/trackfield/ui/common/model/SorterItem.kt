@@ -10,7 +10,7 @@ class SorterItem(vararg sortModes: SortMode<Mode>) : RecyclerItem() {
     }
 
     enum class Mode {
-        DATE, DATE_ALT, DISTANCE, TIME, PACE, NAME, AMOUNT, START_LAT, START_LNG
+        DATE, DATE_ALT, DISTANCE, TIME, PACE, NAME, AMOUNT, START_LAT, START_LNG, RELEVANCE
     }
 
     var sorter = Sorter(*sortModes)
@@ -73,6 +73,9 @@ class SorterItem(vararg sortModes: SortMode<Mode>) : RecyclerItem() {
 
         @JvmStatic @JvmOverloads
         fun sortByLng(label: String = "Longitude") = SortMode(label, Mode.START_LNG, true)
+
+        @JvmStatic @JvmOverloads
+        fun sortByRelevance(label: String = "Relevance") = SortMode(label, Mode.RELEVANCE, false)
     }
 
 }
@@ -14,6 +14,7 @@ import androidx.annotation.NonNull;
 import androidx.appcompat.app.ActionBar;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
+import androidx.lifecycle.Lifecycle;
 
 import com.mapbox.mapboxsdk.Mapbox;
 import com.mapbox.mapboxsdk.camera.CameraUpdate;
@@ -39,7 +40,9 @@ import me.felwal.android.widget.control.CheckListOption;
 import me.felwal.android.widget.control.DialogOption;
 import me.felwal.trackfield.BuildConfig;
 import me.felwal.trackfield.R;
+import me.felwal.trackfield.data.db.DbChange;
 import me.felwal.trackfield.data.db.DbReader;
+import me.felwal.trackfield.data.db.DbWriteExecutor;
 import me.felwal.trackfield.data.db.DbWriter;
 import me.felwal.trackfield.data.db.model.Exercise;
 import me.felwal.trackfield.data.db.model.Place;
@@ -49,7 +52,6 @@ import me.felwal.trackfield.ui.groupdetail.distancedetail.DistanceDetailActivity
 import me.felwal.trackfield.ui.groupdetail.intervaldetail.IntervalDetailActivity;
 import me.felwal.trackfield.ui.groupdetail.placedetail.PlaceDetailActivity;
 import me.felwal.trackfield.ui.groupdetail.routedetail.RouteDetailActivity;
-import me.felwal.trackfield.ui.main.MainActivity;
 import me.felwal.trackfield.ui.map.ExerciseMapActivity;
 import me.felwal.trackfield.ui.map.RouteMapActivity;
 import me.felwal.trackfield.utils.AppConsts;
@@ -85,6 +87,10 @@ public class ExerciseDetailActivity extends AppCompatActivity implements AlertDi
     private MapView mapView;
     private MapboxMap mapboxMap;
 
+    private final DbChange.Listener changeListener = this::onDbChange;
+    // bumped on every load, so that a load finishing after a later one is dropped
+    private int loadGeneration = 0;
+
     //
 
     public static void startActivity(Context c, int exerciseId) {
@@ -128,6 +134,8 @@ public class ExerciseDetailActivity extends AppCompatActivity implements AlertDi
 
         setMap();
         setTexts();
+
+        DbWriter.addChangeListener(changeListener);
     }
 
     @Override
@@ -141,6 +149,7 @@ public class ExerciseDetailActivity extends AppCompatActivity implements AlertDi
         super.onRestart();
 
         // reload in case anything has been updated
+        loadGeneration++;
         exercise = DbReader.get(this).getExercise(exerciseId);
         setMap();
         setTexts();
@@ -205,7 +214,6 @@ public class ExerciseDetailActivity extends AppCompatActivity implements AlertDi
                     DIALOG_DELETE_EXERCISE, null))
                 .show(getSupportFragmentManager());
 
-            MainActivity.updateFragmentOnRestart = true;
             return true;
         }
         else if (itemId == R.id.action_pull_exercise) {
@@ -216,8 +224,6 @@ public class ExerciseDetailActivity extends AppCompatActivity implements AlertDi
                         DIALOG_PULL, null),
                     new CheckListOption(Prefs.getPullOptions().getTexts(), Prefs.getPullOptions().getChecked(), null))
                     .show(getSupportFragmentManager());
-
-                MainActivity.updateFragmentOnRestart = true;
             }
             else {
                 // TODO: snackbar with 'remove id' action?
@@ -228,14 +234,16 @@ public class ExerciseDetailActivity extends AppCompatActivity implements AlertDi
         else if (itemId == R.id.action_recalibrate_endpoints) {
             if (exercise.hasTrail()) {
                 exercise.getTrail().calibrateEndPoints();
-                DbWriter.get(this).updateExercise(exercise, this);
+                Exercise calibrated = exercise;
+                DbWriteExecutor.get(this).submit(writer -> writer.updateExercise(calibrated, this));
             }
             return true;
         }
         else if (itemId == R.id.action_hide_trail) {
             if (exercise.hasTrail()) {
                 exercise.invertTrailHidden();
-                DbWriter.get(this).updateExercise(exercise, this);
+                Exercise edited = exercise;
+                DbWriteExecutor.get(this).submit(writer -> writer.updateExercise(edited, this));
                 // to get immediate check feedback (before the menu closes), update it here,
                 // instead of calling invalidateOptionsMenu(), since that also resets the optional icon colors.
                 item.setChecked(exercise.isTrailHidden());
@@ -266,6 +274,41 @@ public class ExerciseDetailActivity extends AppCompatActivity implements AlertDi
     protected void onDestroy() {
         super.onDestroy();
         if (mapView != null) mapView.onDestroy();
+        DbWriter.removeChangeListener(changeListener);
+    }
+
+    // data changes
+
+    /**
+     * Finishes if the exercise was deleted, and shows it anew if it was changed while started; while stopped, it is
+     * reloaded in {@link #onRestart()} anyway. The exercise is read on a background thread.
+     */
+    private void onDbChange(@NonNull DbChange change) {
+        if (!change.touchesExercise(exerciseId)) return;
+
+        if (change.getDeletedExercises().contains(exerciseId)) {
+            finish();
+            return;
+        }
+        if (!getLifecycle().getCurrentState().isAtLeast(Lifecycle.State.STARTED)) return;
+
+        final int generation = ++loadGeneration;
+        new Thread(() -> {
+            Exercise loaded = DbReader.get(this).getExercise(exerciseId);
+
+            runOnUiThread(() -> {
+                if (generation != loadGeneration || isDestroyed()) return;
+                if (loaded == null) {
+                    finish();
+                    return;
+                }
+
+                exercise = loaded;
+                setMap();
+                setTexts();
+                invalidateOptionsMenu();
+            });
+        }).start();
     }
 
     // set
@@ -321,35 +364,15 @@ public class ExerciseDetailActivity extends AppCompatActivity implements AlertDi
         setTvHideIfEmpty(exercise.printAvgHeartrate(), heartrateTv, findViewById(R.id.iv_exercisedetail_heartrate));
 
         // set start and end tvs's and listeners
-        if (exercise.hasTrail()) {
-            Place start = exercise.getStartPlace(this);
-            Place end = exercise.getEndPlace(this);
-
-            startTv.setText(start.getName());
+        // points not contained by any place are left out
+        Place start = exercise.hasTrail() ? exercise.getStartPlace(this) : null;
+        Place end = exercise.hasTrail() ? exercise.getEndPlace(this) : null;
 
-            // set end only if not the same as start
-            if (!start.equals(end)) endTv.setText(end.getName());
-            else {
-                endTv.setVisibility(View.GONE);
-                findViewById(R.id.iv_exercisedetail_end).setVisibility(View.GONE);
-            }
+        // set end only if not the same as start
+        if (end != null && end.equals(start)) end = null;
 
-            // shortcuts to groups
-            startTv.setOnClickListener(v -> {
-                if (from == FROM_PLACE) finish();
-                else PlaceDetailActivity.startActivity(ExerciseDetailActivity.this, start.getId(), exercise.getId());
-            });
-            endTv.setOnClickListener(v -> {
-                if (from == FROM_PLACE) finish();
-                else PlaceDetailActivity.startActivity(ExerciseDetailActivity.this, end.getId(), exercise.getId());
-            });
-        }
-        else {
-            startTv.setVisibility(View.GONE);
-            endTv.setVisibility(View.GONE);
-            findViewById(R.id.iv_exercisedetail_start).setVisibility(View.GONE);
-            findViewById(R.id.iv_exercisedetail_end).setVisibility(View.GONE);
-        }
+        setPlaceTv(start, startTv, findViewById(R.id.iv_exercisedetail_start));
+        setPlaceTv(end, endTv, findViewById(R.id.iv_exercisedetail_end));
 
         // set listeners
 
@@ -470,6 +493,20 @@ public class ExerciseDetailActivity extends AppCompatActivity implements AlertDi
         }
     }
 
+    private void setPlaceTv(@Nullable Place place, TextView tv, View alsoHide) {
+        tv.setVisibility(place == null ? View.GONE : View.VISIBLE);
+        alsoHide.setVisibility(place == null ? View.GONE : View.VISIBLE);
+        if (place == null) return;
+
+        tv.setText(place.getName());
+
+        // shortcut to group
+        tv.setOnClickListener(v -> {
+            if (from == FROM_PLACE) finish();
+            else PlaceDetailActivity.startActivity(ExerciseDetailActivity.this, place.getId(), exercise.getId());
+        });
+    }
+
     // implements BinaryDialog, OnMapReadyCallback
 
     @Override
@@ -510,14 +547,22 @@ public class ExerciseDetailActivity extends AppCompatActivity implements AlertDi
     @Override
     public void onAlertDialogPositiveClick(String tag, String passValue) {
         if (tag.equals(DIALOG_DELETE_EXERCISE)) {
-            try {
-                LayoutUtils.toast(DbWriter.get(this).deleteExercise(exercise, this), this);
-            }
-            catch (Exception e) {
-                LayoutUtils.handleError(e, this);
-            }
-
-            finish();
+            // finish once deleted, so that the previous activity does not read it
+            Exercise deleted = exercise;
+            DbWriteExecutor.get(this).submit(writer -> writer.deleteExercise(deleted, this),
+                new DbWriteExecutor.Callback<Boolean>() {
+                    @Override
+                    public void onWritten(Boolean success) {
+                        LayoutUtils.toast(success, ExerciseDetailActivity.this);
+                        finish();
+                    }
+
+                    @Override
+                    public void onWriteError(Exception e) {
+                        LayoutUtils.handleError(e, ExerciseDetailActivity.this);
+                        finish();
+                    }
+                });
         }
     }
 
@@ -537,7 +582,6 @@ public class ExerciseDetailActivity extends AppCompatActivity implements AlertDi
             strava.pullActivity(exercise.getStravaId(), Prefs.getPullOptions(), success -> {
                 if (success) {
                     LayoutUtils.toast(R.string.toast_strava_pull_activity_successful, this);
-                    recreate();
                 }
                 else {
                     LayoutUtils.toast(R.string.toast_strava_pull_activity_err, this);
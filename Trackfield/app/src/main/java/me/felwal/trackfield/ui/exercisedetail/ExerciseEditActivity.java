@@ -31,9 +31,9 @@ import me.felwal.android.util.ResourcesKt;
 import me.felwal.android.widget.control.DialogOption;
 import me.felwal.trackfield.R;
 import me.felwal.trackfield.data.db.DbReader;
-import me.felwal.trackfield.data.db.DbWriter;
+import me.felwal.trackfield.data.db.DbWriteExecutor;
 import me.felwal.trackfield.data.db.model.Exercise;
-import me.felwal.trackfield.ui.main.MainActivity;
+import me.felwal.trackfield.data.db.model.Route;
 import me.felwal.trackfield.utils.AppConsts;
 import me.felwal.trackfield.utils.LayoutUtils;
 import me.felwal.trackfield.utils.MathUtils;
@@ -69,6 +69,9 @@ public class ExerciseEditActivity extends AppCompatActivity implements AlertDial
 
     protected boolean isDistanceDriven = false;
 
+    // set while a save is being written, so that it is not submitted twice
+    private boolean saving = false;
+
     //
 
     public static void startActivity(Context c, int exerciseId) {
@@ -99,6 +102,12 @@ public class ExerciseEditActivity extends AppCompatActivity implements AlertDial
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        menu.findItem(R.id.action_save_exercise).setEnabled(!saving);
+        return super.onPrepareOptionsMenu(menu);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         int itemId = item.getItemId();
@@ -322,6 +331,8 @@ public class ExerciseEditActivity extends AppCompatActivity implements AlertDial
     // parse
 
     private void parseAndSave() {
+        if (saving) return;
+
         try {
             // parse
 
@@ -353,8 +364,10 @@ public class ExerciseEditActivity extends AppCompatActivity implements AlertDial
 
             // convert
             float time = hours * 3600 + minutes * 60 + seconds;
-            int routeId = DbReader.get(this).getRouteIdOrCreate(route, this);
+            // resolved on the write thread
+            int routeId = Route.ID_NON_EXISTANT;
             LocalDateTime dateTime = LocalDateTime.of(date, localTime);
+            DbWriteExecutor.Command<Boolean> write;
 
             // save add
             if (exercise == null) {
@@ -370,8 +383,8 @@ public class ExerciseEditActivity extends AppCompatActivity implements AlertDial
                     Exercise.HEARTRATE_NONE, null,
                     false);
 
-                boolean success = DbWriter.get(this).addExercise(exercise, this);
-                LayoutUtils.toast(success, this);
+                Exercise added = exercise;
+                write = writer -> writer.addExercise(added, this);
             }
             // save edit
             else {
@@ -379,12 +392,29 @@ public class ExerciseEditActivity extends AppCompatActivity implements AlertDial
                     label, dateTime, routeId, route, routeVar, interval, note, dataSource, recordingMethod, distance,
                     time, exercise.getAvgHeartrate(), exercise.getTrail(), exercise.isTrailHidden());
 
-                boolean success = DbWriter.get(this).updateExercise(exercise, this);
-                LayoutUtils.toast(success, this);
+                Exercise edited = exercise;
+                write = writer -> {
+                    edited.setRouteId((int) writer.addRoute(new Route(route), this));
+                    return writer.updateExercise(edited, this);
+                };
             }
 
-            MainActivity.updateFragmentOnRestart = true;
-            finish();
+            setSaving(true);
+
+            // finish once written, so that the previous activity reads the result
+            DbWriteExecutor.get(this).submit(write, new DbWriteExecutor.Callback<Boolean>() {
+                @Override
+                public void onWritten(Boolean success) {
+                    LayoutUtils.toast(success, ExerciseEditActivity.this);
+                    finish();
+                }
+
+                @Override
+                public void onWriteError(Exception e) {
+                    setSaving(false);
+                    LayoutUtils.handleError(e, ExerciseEditActivity.this);
+                }
+            });
         }
         catch (NumberFormatException e) {
             LayoutUtils.toast(R.string.toast_err_parse, this);
@@ -398,6 +428,11 @@ public class ExerciseEditActivity extends AppCompatActivity implements AlertDial
         }
     }
 
+    private void setSaving(boolean saving) {
+        this.saving = saving;
+        invalidateOptionsMenu();
+    }
+
     // implements BinaryDialog
 
     @Override
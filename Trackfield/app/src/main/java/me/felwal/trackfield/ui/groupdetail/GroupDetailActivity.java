@@ -45,12 +45,6 @@ public abstract class GroupDetailActivity extends ExerciseFilterActivity impleme
         getExtras(getIntent());
     }
 
-    @Override
-    protected void onRestart() {
-        super.onRestart();
-        recyclerFragment.updateRecycler();
-    }
-
     @Override
     public boolean onPrepareOptionsMenu(Menu menu) {
         MenuKt.prepareOptionalIcons(menu, this);
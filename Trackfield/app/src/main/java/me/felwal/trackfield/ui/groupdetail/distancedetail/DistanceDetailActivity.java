@@ -12,7 +12,7 @@ import me.felwal.android.fragment.dialog.BaseDialogKt;
 import me.felwal.android.widget.control.DialogOption;
 import me.felwal.trackfield.R;
 import me.felwal.trackfield.data.db.DbReader;
-import me.felwal.trackfield.data.db.DbWriter;
+import me.felwal.trackfield.data.db.DbWriteExecutor;
 import me.felwal.trackfield.data.db.model.Distance;
 import me.felwal.trackfield.data.db.model.Exercise;
 import me.felwal.trackfield.ui.groupdetail.GroupDetailActivity;
@@ -124,8 +124,8 @@ public class DistanceDetailActivity extends GroupDetailActivity implements Alert
     @Override
     public void onAlertDialogPositiveClick(String tag, String passValue) {
         if (tag.equals(DIALOG_DELETE_DISTANCE)) {
-            DbWriter.get(this).deleteDistance(distance);
-            finish();
+            Distance deleted = distance;
+            DbWriteExecutor.get(this).submit(writer -> writer.deleteDistance(deleted), success -> finish());
         }
     }
 
@@ -137,9 +137,8 @@ public class DistanceDetailActivity extends GroupDetailActivity implements Alert
     public void onTimeDialogPositiveClick(int input1, int input2, String tag) {
         if (tag.equals(DIALOG_GOAL_DISTANCE)) {
             distance.setGoalPace(MathUtils.seconds(0, input1, input2));
-            DbWriter.get(this).updateDistance(distance);
-
-            recyclerFragment.updateRecycler();
+            Distance edited = distance;
+            DbWriteExecutor.get(this).submit(writer -> writer.updateDistance(edited));
         }
     }
 
@@ -147,9 +146,8 @@ public class DistanceDetailActivity extends GroupDetailActivity implements Alert
     public void onTimeDialogNeutralClick(String tag) {
         if (tag.equals(DIALOG_GOAL_DISTANCE)) {
             distance.removeGoalPace();
-            DbWriter.get(this).updateDistance(distance);
-
-            recyclerFragment.updateRecycler();
+            Distance edited = distance;
+            DbWriteExecutor.get(this).submit(writer -> writer.updateDistance(edited));
         }
     }
 
@@ -2,10 +2,13 @@ package me.felwal.trackfield.ui.groupdetail.distancedetail;
 
 import android.os.Bundle;
 
+import androidx.annotation.NonNull;
+
 import java.util.ArrayList;
 
 import me.felwal.android.util.ResourcesKt;
 import me.felwal.trackfield.R;
+import me.felwal.trackfield.data.db.DbChange;
 import me.felwal.trackfield.data.db.DbReader;
 import me.felwal.trackfield.data.db.model.Distance;
 import me.felwal.trackfield.data.db.model.Exercise;
@@ -83,6 +86,11 @@ public class DistanceDetailFragment extends GroupDetailFragment {
             Prefs.getSorterInversion(AppConsts.Layout.DISTANCE_DETAIL));
     }
 
+    @Override
+    protected boolean isAffectedBy(@NonNull DbChange change) {
+        return change.touchesDistance(distance) || change.hasExercises();
+    }
+
     @Override
     protected BaseListAdapter getAdapter() {
         return new DistanceDetailDelegationAdapter(a, this, items, getOriginId(), distance);
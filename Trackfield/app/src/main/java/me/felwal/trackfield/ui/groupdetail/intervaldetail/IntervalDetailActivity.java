@@ -13,10 +13,9 @@ import me.felwal.android.fragment.dialog.InputDialog;
 import me.felwal.android.widget.control.DialogOption;
 import me.felwal.android.widget.control.InputOption;
 import me.felwal.trackfield.R;
-import me.felwal.trackfield.data.db.DbWriter;
+import me.felwal.trackfield.data.db.DbWriteExecutor;
 import me.felwal.trackfield.data.db.model.Exercise;
 import me.felwal.trackfield.ui.groupdetail.GroupDetailActivity;
-import me.felwal.trackfield.ui.main.MainActivity;
 
 public class IntervalDetailActivity extends GroupDetailActivity implements InputDialog.DialogListener {
 
@@ -102,11 +101,13 @@ public class IntervalDetailActivity extends GroupDetailActivity implements Input
         if (tag.equals(DIALOG_RENAME_INTERVAL)) {
             if (input.equals("")) return;
 
-            DbWriter.get(this).updateInterval(interval, input);
+            String oldInterval = interval;
 
-            MainActivity.updateFragmentOnRestart = true;
-            finish();
-            startActivity(this, input, originId);
+            // restart once written, so that the restarted activity reads the new name
+            DbWriteExecutor.get(this).submit(writer -> writer.updateInterval(oldInterval, input), success -> {
+                finish();
+                startActivity(this, input, originId);
+            });
         }
     }
 
@@ -2,10 +2,13 @@ package me.felwal.trackfield.ui.groupdetail.intervaldetail;
 
 import android.os.Bundle;
 
+import androidx.annotation.NonNull;
+
 import java.util.ArrayList;
 
 import me.felwal.android.util.ResourcesKt;
 import me.felwal.trackfield.R;
+import me.felwal.trackfield.data.db.DbChange;
 import me.felwal.trackfield.data.db.model.Exercise;
 import me.felwal.trackfield.data.prefs.Prefs;
 import me.felwal.trackfield.ui.base.BaseListAdapter;
@@ -76,6 +79,11 @@ public class IntervalDetailFragment extends GroupDetailFragment {
             Prefs.getSorterInversion(AppConsts.Layout.INTERVAL_DETAIL));
     }
 
+    @Override
+    protected boolean isAffectedBy(@NonNull DbChange change) {
+        return change.hasExercises();
+    }
+
     @Override
     protected BaseListAdapter getAdapter() {
         return new IntervalDetailDelegationAdapter(a, this, items, getOriginId());
@@ -16,12 +16,11 @@ import me.felwal.android.widget.control.DialogOption;
 import me.felwal.android.widget.control.InputOption;
 import me.felwal.trackfield.R;
 import me.felwal.trackfield.data.db.DbReader;
-import me.felwal.trackfield.data.db.DbWriter;
+import me.felwal.trackfield.data.db.DbWriteExecutor;
 import me.felwal.trackfield.data.db.model.Exercise;
 import me.felwal.trackfield.data.db.model.Place;
 import me.felwal.trackfield.data.db.model.Route;
 import me.felwal.trackfield.ui.groupdetail.GroupDetailActivity;
-import me.felwal.trackfield.ui.main.MainActivity;
 import me.felwal.trackfield.ui.map.PlaceMapActivity;
 
 public class PlaceDetailActivity extends GroupDetailActivity implements InputDialog.DialogListener,
@@ -100,7 +99,8 @@ public class PlaceDetailActivity extends GroupDetailActivity implements InputDia
         }
         else if (itemId == R.id.action_hide_place) {
             place.invertHidden();
-            DbWriter.get(this).updatePlace(place);
+            Place edited = place;
+            DbWriteExecutor.get(this).submit(writer -> writer.updatePlace(edited));
             // to get immediate check feedback (before the menu closes), update it here,
             // instead of calling invalidateOptionsMenu(), since that also resets the optional icon colors.
             item.setChecked(place.isHidden());
@@ -165,27 +165,27 @@ public class PlaceDetailActivity extends GroupDetailActivity implements InputDia
             }
             else {
                 place.setName(input);
-                DbWriter.get(this).updatePlace(place);
+                Place renamed = place;
 
-                MainActivity.updateFragmentOnRestart = true;
-                finish();
-                startActivity(this, place.getId(), originId);
+                // restart once written, so that the restarted activity reads the new name
+                DbWriteExecutor.get(this).submit(writer -> writer.updatePlace(renamed), success -> {
+                    finish();
+                    startActivity(this, renamed.getId(), originId);
+                });
             }
         }
         else if (tag.equals(DIALOG_EDIT_RADIUS)) {
             place.setRadius(Integer.parseInt(input));
-            DbWriter.get(this).updatePlace(place);
-            recyclerFragment.updateRecycler();
+            Place edited = place;
+            DbWriteExecutor.get(this).submit(writer -> writer.updatePlace(edited));
         }
     }
 
     @Override
     public void onAlertDialogPositiveClick(String tag, String passValue) {
         if (tag.equals(DIALOG_DELETE_PLACE)) {
-            DbWriter.get(this).deletePlace(place);
-
-            MainActivity.updateFragmentOnRestart = true;
-            finish();
+            Place deleted = place;
+            DbWriteExecutor.get(this).submit(writer -> writer.deletePlace(deleted), success -> finish());
         }
     }
 
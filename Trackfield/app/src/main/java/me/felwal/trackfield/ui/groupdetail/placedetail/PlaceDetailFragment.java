@@ -2,10 +2,13 @@ package me.felwal.trackfield.ui.groupdetail.placedetail;
 
 import android.os.Bundle;
 
+import androidx.annotation.NonNull;
+
 import java.util.ArrayList;
 
 import me.felwal.android.util.ResourcesKt;
 import me.felwal.trackfield.R;
+import me.felwal.trackfield.data.db.DbChange;
 import me.felwal.trackfield.data.db.DbReader;
 import me.felwal.trackfield.data.db.model.Exercise;
 import me.felwal.trackfield.data.db.model.Place;
@@ -79,6 +82,11 @@ public class PlaceDetailFragment extends GroupDetailFragment {
             Prefs.getSorterInversion(AppConsts.Layout.PLACE_DETAIL));
     }
 
+    @Override
+    protected boolean isAffectedBy(@NonNull DbChange change) {
+        return change.touchesPlace(place.getId()) || change.hasExercises();
+    }
+
     @Override
     protected BaseListAdapter getAdapter() {
         return new PlaceDetailDelegationAdapter(a, this, items, getOriginId());
@@ -18,11 +18,10 @@ import me.felwal.android.widget.control.DialogOption;
 import me.felwal.android.widget.control.InputOption;
 import me.felwal.trackfield.R;
 import me.felwal.trackfield.data.db.DbReader;
-import me.felwal.trackfield.data.db.DbWriter;
+import me.felwal.trackfield.data.db.DbWriteExecutor;
 import me.felwal.trackfield.data.db.model.Exercise;
 import me.felwal.trackfield.data.db.model.Route;
 import me.felwal.trackfield.ui.groupdetail.GroupDetailActivity;
-import me.felwal.trackfield.ui.main.MainActivity;
 import me.felwal.trackfield.ui.map.RouteMapActivity;
 import me.felwal.trackfield.ui.widget.dialog.TimeDialog;
 import me.felwal.trackfield.utils.MathUtils;
@@ -112,7 +111,8 @@ public class RouteDetailActivity extends GroupDetailActivity implements InputDia
         }
         else if (itemId == R.id.action_hide_route) {
             route.invertHidden();
-            DbWriter.get(this).updateRoute(route, this);
+            Route edited = route;
+            DbWriteExecutor.get(this).submit(writer -> writer.updateRoute(edited, this));
             // to get immediate check feedback (before the menu closes), update it here,
             // instead of calling invalidateOptionsMenu(), since that also resets the optional icon colors.
             item.setChecked(route.isHidden());
@@ -167,13 +167,18 @@ public class RouteDetailActivity extends GroupDetailActivity implements InputDia
             }
             // rename
             else {
-                DbWriter.get(this).updateRouteName(route.getName(), input);
+                String oldName = route.getName();
                 route.setName(input);
-                DbWriter.get(this).updateRoute(route, this);
-
-                MainActivity.updateFragmentOnRestart = true;
-                finish();
-                startActivity(this, route.getId(), originId);
+                Route renamed = route;
+
+                // restart once written, so that the restarted activity reads the new name
+                DbWriteExecutor.get(this).submit(writer -> {
+                    writer.updateRouteName(oldName, input);
+                    return writer.updateRoute(renamed, this);
+                }, newId -> {
+                    finish();
+                    startActivity(this, renamed.getId(), originId);
+                });
             }
         }
     }
@@ -181,13 +186,18 @@ public class RouteDetailActivity extends GroupDetailActivity implements InputDia
     @Override
     public void onAlertDialogPositiveClick(String tag, String passValue) {
         if (tag.equals(DIALOG_MERGE_ROUTES)) {
-            DbWriter.get(this).updateRouteName(route.getName(), passValue);
+            String oldName = route.getName();
             route.setName(passValue);
-            int newId = DbWriter.get(this).updateRoute(route, this);
+            Route merged = route;
 
-            MainActivity.updateFragmentOnRestart = true;
-            finish();
-            startActivity(this, newId, originId);
+            // restart once written, with the id of the route merged into
+            DbWriteExecutor.get(this).submit(writer -> {
+                writer.updateRouteName(oldName, passValue);
+                return writer.updateRoute(merged, this);
+            }, newId -> {
+                finish();
+                startActivity(this, newId, originId);
+            });
         }
     }
 
@@ -199,9 +209,8 @@ public class RouteDetailActivity extends GroupDetailActivity implements InputDia
     public void onTimeDialogPositiveClick(int input1, int input2, String tag) {
         if (tag.equals(DIALOG_GOAL_ROUTE)) {
             route.setGoalPace(MathUtils.seconds(0, input1, input2));
-            DbWriter.get(this).updateRoute(route, this);
-
-            recyclerFragment.updateRecycler();
+            Route edited = route;
+            DbWriteExecutor.get(this).submit(writer -> writer.updateRoute(edited, this));
         }
     }
 
@@ -209,9 +218,8 @@ public class RouteDetailActivity extends GroupDetailActivity implements InputDia
     public void onTimeDialogNeutralClick(String tag) {
         if (tag.equals(DIALOG_GOAL_ROUTE)) {
             route.removeGoalPace();
-            DbWriter.get(this).updateRoute(route, this);
-
-            recyclerFragment.updateRecycler();
+            Route edited = route;
+            DbWriteExecutor.get(this).submit(writer -> writer.updateRoute(edited, this));
         }
     }
 
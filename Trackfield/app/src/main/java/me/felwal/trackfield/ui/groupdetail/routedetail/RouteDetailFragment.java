@@ -2,10 +2,13 @@ package me.felwal.trackfield.ui.groupdetail.routedetail;
 
 import android.os.Bundle;
 
+import androidx.annotation.NonNull;
+
 import java.util.ArrayList;
 
 import me.felwal.android.util.ResourcesKt;
 import me.felwal.trackfield.R;
+import me.felwal.trackfield.data.db.DbChange;
 import me.felwal.trackfield.data.db.DbReader;
 import me.felwal.trackfield.data.db.model.Exercise;
 import me.felwal.trackfield.data.db.model.Route;
@@ -82,6 +85,11 @@ public class RouteDetailFragment extends GroupDetailFragment {
             Prefs.getSorterInversion(AppConsts.Layout.ROUTE_DETAIL));
     }
 
+    @Override
+    protected boolean isAffectedBy(@NonNull DbChange change) {
+        return change.touchesRoute(route.getId());
+    }
+
     @Override
     protected BaseListAdapter getAdapter() {
         return new RouteDetailDelegationAdapter(a, this, items, getOriginId());
@@ -24,6 +24,7 @@ import me.felwal.android.widget.FloatingActionMenu;
 import me.felwal.android.widget.control.DialogOption;
 import me.felwal.android.widget.control.InputOption;
 import me.felwal.trackfield.R;
+import me.felwal.trackfield.data.db.DbWriteExecutor;
 import me.felwal.trackfield.data.db.DbWriter;
 import me.felwal.trackfield.data.db.model.Distance;
 import me.felwal.trackfield.data.network.StravaService;
@@ -160,6 +161,7 @@ public class MainActivity extends ExerciseFilterActivity implements InputDialog.
                 PermissionUtilsKt.askPermissions(this);
             }
             Prefs.setUpAndLoad(this);
+            DbWriteExecutor.get(this).submit(DbWriter::updateDistanceLimits);
             appInitialized = true;
         }
     }
@@ -278,8 +280,7 @@ public class MainActivity extends ExerciseFilterActivity implements InputDialog.
     public void onInputDialogPositiveClick(@NonNull String input, String tag, String passValue) {
         if (tag.equals(DIALOG_ADD_DISTANCE)) {
             int distance = (int) MathUtils.round(Float.parseFloat(input) * 1000, 0);
-            DbWriter.get(this).addDistance(new Distance(-1, distance));
-            mainFragment.updateFragment();
+            DbWriteExecutor.get(this).submit(writer -> writer.addDistance(new Distance(-1, distance)));
         }
     }
 
@@ -3,12 +3,20 @@ package me.felwal.trackfield.ui.main.exerciselist;
 import android.view.ScaleGestureDetector;
 import android.view.View;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Set;
 
 import me.felwal.android.util.ResourcesKt;
 import me.felwal.trackfield.R;
+import me.felwal.trackfield.data.db.DbChange;
 import me.felwal.trackfield.data.db.DbReader;
+import me.felwal.trackfield.data.db.Keyset;
+import me.felwal.trackfield.data.db.PeriodTotals;
 import me.felwal.trackfield.data.prefs.Prefs;
 import me.felwal.trackfield.ui.base.BaseListAdapter;
 import me.felwal.trackfield.ui.base.RecyclerFragment;
@@ -33,8 +41,34 @@ public class ExerciseListRecyclerFragment extends RecyclerFragment {
         SorterItem.sortByTime(),
         SorterItem.sortByPace()
     );
+    // offered while searching. relevance comes last, so that the other modes share their indices with sorter
+    private final SorterItem searchSorter = new SorterItem(
+        SorterItem.sortByDate(),
+        SorterItem.sortByDistance(),
+        SorterItem.sortByTime(),
+        SorterItem.sortByPace(),
+        SorterItem.sortByRelevance()
+    );
+
+    private static final int PAGE_SIZE = 50;
 
     private String search = "";
+    // only accessed while loading items, under the items lock of RecyclerFragment
+    @Nullable private Keyset keyset;
+    // published for hasNextPage, which is called on the main thread
+    private volatile boolean nextPageExists = false;
+    @Nullable private PeriodTotals totals;
+
+    // header state, carried over between pages
+    private Header yearHeader;
+    private Header monthHeader;
+    private Header weekHeader;
+    private int year;
+    private int month;
+    private int week;
+    private boolean notCurrentYear;
+    private LocalDate lastDate;
+    private int itemCount;
 
     // extends RecyclerFragment
 
@@ -59,6 +93,7 @@ public class ExerciseListRecyclerFragment extends RecyclerFragment {
         sorter.setSelection(
             Prefs.getSorterIndex(AppConsts.Layout.EXERCISE_LIST),
             Prefs.getSorterInversion(AppConsts.Layout.EXERCISE_LIST));
+        searchSorter.setSelection(sorter.getSelectedIndex(), sorter.getOrderReversed());
     }
 
     @Override
@@ -69,8 +104,24 @@ public class ExerciseListRecyclerFragment extends RecyclerFragment {
     @Override
     protected ArrayList<RecyclerItem> getRecyclerItems() {
         ArrayList<RecyclerItem> itemList = new ArrayList<>();
-        ArrayList<Exerlite> exerliteList = reader.getExerlitesBySearch(search, sorter.getMode(), sorter.getAscending(),
-            Prefs.getMainFilter());
+        ArrayList<Exerlite> exerliteList;
+        SorterItem activeSorter = getSorter();
+
+        // page when not searching; searches are matched in full
+        if (search.equals("")) {
+            keyset = Keyset.first();
+            totals = reader.getPeriodTotals(Prefs.getMainFilter());
+            exerliteList = reader.getExerlites(sorter.getMode(), sorter.getAscending(), Prefs.getMainFilter(), keyset,
+                PAGE_SIZE);
+            nextPageExists = !keyset.isExhausted();
+        }
+        else {
+            keyset = null;
+            nextPageExists = false;
+            totals = null;
+            exerliteList = reader.getExerlitesBySearch(search, activeSorter.getMode(), activeSorter.getAscending(),
+                Prefs.getMainFilter());
+        }
 
         // sorter & charts
         if (exerliteList.size() != 0) {
@@ -88,11 +139,12 @@ public class ExerciseListRecyclerFragment extends RecyclerFragment {
                 itemList.add(weekGraph);
             }
             else {
-                itemList.add(sorter.copy());
+                itemList.add(activeSorter.copy());
             }
 
-            if (sorter.getMode() != SorterItem.Mode.DATE) {
+            if (activeSorter.getMode() != SorterItem.Mode.DATE) {
                 itemList.addAll(exerliteList);
+                itemCount = itemList.size();
                 return itemList;
             }
             else fadeOutEmpty();
@@ -101,15 +153,56 @@ public class ExerciseListRecyclerFragment extends RecyclerFragment {
 
         // headers
 
-        Header yearHeader = new Header("", Header.Type.YEAR, itemList.size() + 1);
-        Header monthHeader = new Header("", Header.Type.MONTH, itemList.size() + 1);
-        Header weekHeader = new Header("", Header.Type.WEEK, itemList.size() + 1);
-        int year = -1;
-        int month = -1;
-        int week = -1;
+        yearHeader = new Header("", Header.Type.YEAR, itemList.size() + 1);
+        monthHeader = new Header("", Header.Type.MONTH, itemList.size() + 1);
+        weekHeader = new Header("", Header.Type.WEEK, itemList.size() + 1);
+        year = -1;
+        month = -1;
+        week = -1;
+        notCurrentYear = false;
+        lastDate = LocalDate.MIN;
+        itemCount = 0;
+
+        addHeadedItems(itemList, exerliteList);
+
+        return itemList;
+    }
+
+    @Override
+    protected boolean hasNextPage() {
+        return nextPageExists;
+    }
+
+    @Override
+    protected ArrayList<RecyclerItem> getNextPageItems() {
+        ArrayList<RecyclerItem> itemList = new ArrayList<>();
+        if (keyset == null || keyset.isExhausted()) return itemList;
+
+        ArrayList<Exerlite> exerliteList = reader.getExerlites(sorter.getMode(), sorter.getAscending(),
+            Prefs.getMainFilter(), keyset, PAGE_SIZE);
+        nextPageExists = !keyset.isExhausted();
+
+        if (sorter.getMode() != SorterItem.Mode.DATE) {
+            itemList.addAll(exerliteList);
+            itemCount += itemList.size();
+        }
+        else addHeadedItems(itemList, exerliteList);
+
+        return itemList;
+    }
+
+    /**
+     * Adds exerlites to the item list under year, month and week headers, continuing the headers of the previously
+     * added page. Header values are looked up in the {@link PeriodTotals} of the whole period when paging, since the
+     * period may span several pages, and summed over the added exerlites otherwise.
+     *
+     * @param itemList The list to add to, which continues after the {@link #itemCount} already added items
+     * @param exerliteList The exerlites to add, sorted by date
+     */
+    private void addHeadedItems(ArrayList<RecyclerItem> itemList, ArrayList<Exerlite> exerliteList) {
+        final boolean paged = keyset != null;
+        final int offset = itemCount;
         int newYear, newMonth, newWeek;
-        boolean notCurrentYear = false;
-        LocalDate lastDate = LocalDate.MIN;
 
         for (Exerlite e : exerliteList) {
             // add new year header
@@ -117,14 +210,15 @@ public class ExerciseListRecyclerFragment extends RecyclerFragment {
                 // conclude last headers
                 // concluding month header here makes sure it doesnt collapse the year header that comes before
                 // the next month header -- "January 2021" header should not collapse "2021" header
-                monthHeader.setLastIndex(itemList.size() - 1);
-                yearHeader.setLastIndex(itemList.size() - 1);
+                monthHeader.setLastIndex(offset + itemList.size() - 1);
+                yearHeader.setLastIndex(offset + itemList.size() - 1);
 
                 // create and add new header
-                yearHeader = new Header(newYear + "", Header.Type.YEAR, itemList.size() + 1,
+                yearHeader = new Header(newYear + "", Header.Type.YEAR, offset + itemList.size() + 1,
                     new HeaderValue("km", 0),
                     new HeaderValue("h", 1),
                     new HeaderValue("", 0));
+                if (paged) addPeriodValues(yearHeader, totals.getYear(e.getDate()));
                 itemList.add(yearHeader);
 
                 year = newYear;
@@ -139,29 +233,37 @@ public class ExerciseListRecyclerFragment extends RecyclerFragment {
                     // "August 2020" if the year is not 2020, otherwise "August"
                     title += " " + year;
                 }
-                monthHeader.setLastIndex(itemList.size() - 1);
+                monthHeader.setLastIndex(offset + itemList.size() - 1);
 
                 // create and add new header
-                monthHeader = new Header(title, Header.Type.MONTH, itemList.size() + 1,
+                monthHeader = new Header(title, Header.Type.MONTH, offset + itemList.size() + 1,
                     new HeaderValue("km", 0),
                     new HeaderValue("h", 1),
                     new HeaderValue("", 0));
+                if (paged) addPeriodValues(monthHeader, totals.getMonth(e.getDate()));
+                monthHeader.setCollapsedLevel(yearHeader.areChildrenExpanded() ? 0 : 1);
                 itemList.add(monthHeader);
 
                 month = newMonth;
             }
 
+            // items paged in under collapsed headers start out collapsed
+            int collapsedLevel = (yearHeader.areChildrenExpanded() ? 0 : 1)
+                + (monthHeader.areChildrenExpanded() ? 0 : 1);
+
             // add new week header
             if (Prefs.isWeekHeadersShown() &&
                 (((newWeek = e.getWeek()) != week) || Math.abs(e.getDate().toEpochDay() - lastDate.toEpochDay()) > 7)) {
                 // conclude last header
-                weekHeader.setLastIndex(itemList.size() - 1);
+                weekHeader.setLastIndex(offset + itemList.size() - 1);
 
                 // create and add new header
-                weekHeader = new Header("" + newWeek, Header.Type.WEEK, itemList.size() + 1,
+                weekHeader = new Header("" + newWeek, Header.Type.WEEK, offset + itemList.size() + 1,
                     new HeaderValue("km", 0),
                     new HeaderValue("h", 1),
                     new HeaderValue("", 0));
+                if (paged) addPeriodValues(weekHeader, totals.getWeek(e.getDate()));
+                weekHeader.setCollapsedLevel(collapsedLevel);
                 itemList.add(weekHeader);
 
                 week = newWeek;
@@ -170,30 +272,185 @@ public class ExerciseListRecyclerFragment extends RecyclerFragment {
             lastDate = e.getDate();
 
             // add values
-            yearHeader.addValues(e.getDistance() / 1000f, e.getTime() / 3600f, 1);
-            monthHeader.addValues(e.getDistance() / 1000f, e.getTime() / 3600f, 1);
-            weekHeader.addValues(e.getDistance() / 1000f, e.getTime() / 3600f, 1);
+            if (!paged) {
+                yearHeader.addValues(e.getDistance() / 1000f, e.getTime() / 3600f, 1);
+                monthHeader.addValues(e.getDistance() / 1000f, e.getTime() / 3600f, 1);
+                weekHeader.addValues(e.getDistance() / 1000f, e.getTime() / 3600f, 1);
+            }
+            e.setCollapsedLevel(collapsedLevel);
             itemList.add(e);
         }
 
-        // set last index for last headers
-        monthHeader.setLastIndex(itemList.size() - 1);
-        yearHeader.setLastIndex(itemList.size() - 1);
-        weekHeader.setLastIndex(itemList.size() - 1);
+        itemCount = offset + itemList.size();
 
-        return itemList;
+        // set last index for last headers; keep them open if more pages will follow
+        if (hasNextPage()) {
+            monthHeader.extendLastIndex(itemCount - 1);
+            yearHeader.extendLastIndex(itemCount - 1);
+            weekHeader.extendLastIndex(itemCount - 1);
+        }
+        else {
+            monthHeader.setLastIndex(itemCount - 1);
+            yearHeader.setLastIndex(itemCount - 1);
+            weekHeader.setLastIndex(itemCount - 1);
+        }
+    }
+
+    private void addPeriodValues(Header header, float[] periodTotals) {
+        header.addValues(periodTotals[0] / 1000f, periodTotals[1] / 3600f, periodTotals[2]);
+    }
+
+    private void setPeriodValues(Header header, float[] periodTotals) {
+        header.setValues(periodTotals[0] / 1000f, periodTotals[1] / 3600f, periodTotals[2]);
     }
 
     @Override
     public void onSortSheetDismiss(int selectedIndex) {
-        sorter.select(selectedIndex);
+        SorterItem selected = getSorter();
+        selected.select(selectedIndex);
+
+        // keep a selection made while searching, unless it is only offered while searching
+        if (selected == searchSorter && selected.getMode() != SorterItem.Mode.RELEVANCE) {
+            sorter.setSelection(selected.getSelectedIndex(), selected.getOrderReversed());
+        }
         Prefs.setSorter(AppConsts.Layout.EXERCISE_LIST, sorter.getSelectedIndex(), sorter.getOrderReversed());
         updateRecycler();
     }
 
+    /**
+     * @return The sorter offering relevance while searching, and the one without it otherwise
+     */
+    private SorterItem getSorter() {
+        return search.equals("") ? sorter : searchSorter;
+    }
+
+    // data changes
+
+    @Override
+    protected boolean isAffectedBy(@NonNull DbChange change) {
+        return change.hasExercises();
+    }
+
+    /**
+     * Replaces updated exercises in place, if all of them are shown and keep their date, and when sorting by anything
+     * else, also their distance and time, which decide their place. The values of their year, month and week headers
+     * are set anew from the period totals, and only the replaced rows and those headers are notified. Otherwise, and
+     * when searching or filtering, which other columns may decide, the items are reloaded.
+     */
+    @Override
+    protected void onDbChange(@NonNull DbChange change) {
+        if (!isAffectedBy(change)) return;
+        if (!change.hasOnlyUpdatedExercises() || !search.equals("") || Prefs.getMainFilter().isActive()) {
+            super.onDbChange(change);
+            return;
+        }
+
+        final int generation = getItemsGeneration();
+        final SorterItem.Mode mode = sorter.getMode();
+        final boolean byDate = mode == SorterItem.Mode.DATE;
+        final HashMap<Integer, Exerlite> shown = new HashMap<>();
+        for (RecyclerItem item : allItems) {
+            if (item instanceof Exerlite) shown.put(((Exerlite) item).getId(), (Exerlite) item);
+        }
+
+        new Thread(() -> {
+            ArrayList<Exerlite> replacements = new ArrayList<>();
+            boolean inPlace = true;
+
+            for (int id : change.getUpdatedExercises()) {
+                Exerlite old = shown.get(id);
+                Exerlite updated = reader.getExerlite(id);
+
+                // not paged in yet, or moved
+                if (old == null || updated == null || !updated.getDate().isEqual(old.getDate())
+                    || !isSortKeyEqual(mode, old, updated)) {
+                    inPlace = false;
+                    break;
+                }
+                replacements.add(updated);
+            }
+
+            // apply the changed days
+            final PeriodTotals periodTotals = inPlace && byDate ? reader.getPeriodTotals(Prefs.getMainFilter()) : null;
+
+            final boolean replace = inPlace;
+            a.runOnUiThread(() -> {
+                if (!replace) super.onDbChange(change);
+                else if (replaceRecyclerItems(generation, replacements) && periodTotals != null) {
+                    notifyRecyclerItemsChanged(setHeaderValues(change.getUpdatedExercises(), periodTotals));
+                }
+            });
+        }).start();
+    }
+
+    /**
+     * @return Whether an exercise keeps its position when sorted by a mode, or false if the mode is not known to
+     * sort by values of the exercise
+     */
+    private boolean isSortKeyEqual(SorterItem.Mode mode, Exerlite old, Exerlite updated) {
+        switch (mode) {
+            case DATE:
+                return updated.getDate().isEqual(old.getDate());
+            case DISTANCE:
+                return updated.getDistance() == old.getDistance();
+            case TIME:
+                return updated.getTime() == old.getTime();
+            case PACE:
+                return updated.getDistance() == old.getDistance() && updated.getTime() == old.getTime();
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Sets the values of the year, month and week headers of exercises anew.
+     *
+     * @param exerciseIds The exercises whose headers to set
+     * @param periodTotals The totals to set from
+     * @return The headers set
+     */
+    private ArrayList<Header> setHeaderValues(Set<Integer> exerciseIds, PeriodTotals periodTotals) {
+        ArrayList<Header> setHeaders = new ArrayList<>();
+        Header yearHeader = null;
+        Header monthHeader = null;
+        Header weekHeader = null;
+
+        // the headers of an exercise are the last of each type listed before it
+        for (RecyclerItem item : allItems) {
+            if (item instanceof Header) {
+                Header header = (Header) item;
+                if (header.isType(Header.Type.YEAR)) yearHeader = header;
+                else if (header.isType(Header.Type.MONTH)) monthHeader = header;
+                else if (header.isType(Header.Type.WEEK)) weekHeader = header;
+            }
+            else if (item instanceof Exerlite && exerciseIds.contains(((Exerlite) item).getId())) {
+                LocalDate date = ((Exerlite) item).getDate();
+
+                if (yearHeader != null && !setHeaders.contains(yearHeader)) {
+                    setPeriodValues(yearHeader, periodTotals.getYear(date));
+                    setHeaders.add(yearHeader);
+                }
+                if (monthHeader != null && !setHeaders.contains(monthHeader)) {
+                    setPeriodValues(monthHeader, periodTotals.getMonth(date));
+                    setHeaders.add(monthHeader);
+                }
+                if (Prefs.isWeekHeadersShown() && weekHeader != null && !setHeaders.contains(weekHeader)) {
+                    setPeriodValues(weekHeader, periodTotals.getWeek(date));
+                    setHeaders.add(weekHeader);
+                }
+            }
+        }
+
+        return setHeaders;
+    }
+
     //
 
     public void updateSearch(String search) {
+        // a new search starts out sorted as the list
+        if (this.search.equals("") && !search.equals("")) {
+            searchSorter.setSelection(sorter.getSelectedIndex(), sorter.getOrderReversed());
+        }
         this.search = search;
         if (isAdded()) setEmptyPage();
         updateRecycler();
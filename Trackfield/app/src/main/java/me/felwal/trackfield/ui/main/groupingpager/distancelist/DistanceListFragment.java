@@ -10,6 +10,7 @@ import java.util.ArrayList;
 
 import me.felwal.android.util.ResourcesKt;
 import me.felwal.trackfield.R;
+import me.felwal.trackfield.data.db.DbChange;
 import me.felwal.trackfield.data.prefs.Prefs;
 import me.felwal.trackfield.ui.base.BaseListAdapter;
 import me.felwal.trackfield.ui.common.model.RecyclerItem;
@@ -57,6 +58,11 @@ public class DistanceListFragment extends GroupListFragment {
             Prefs.getSorterInversion(AppConsts.Layout.DISTANCE_LIST));
     }
 
+    @Override
+    protected boolean isAffectedBy(@NonNull DbChange change) {
+        return change.hasDistances() || change.hasExercises();
+    }
+
     @Override
     protected BaseListAdapter getAdapter() {
         return new DistanceListDelegationAdapter(a, this, items);
@@ -10,6 +10,7 @@ import java.util.ArrayList;
 
 import me.felwal.android.util.ResourcesKt;
 import me.felwal.trackfield.R;
+import me.felwal.trackfield.data.db.DbChange;
 import me.felwal.trackfield.data.prefs.Prefs;
 import me.felwal.trackfield.ui.base.BaseListAdapter;
 import me.felwal.trackfield.ui.common.model.RecyclerItem;
@@ -56,6 +57,11 @@ public class IntervalListFragment extends GroupListFragment {
             Prefs.getSorterInversion(AppConsts.Layout.INTERVAL_LIST));
     }
 
+    @Override
+    protected boolean isAffectedBy(@NonNull DbChange change) {
+        return change.hasExercises();
+    }
+
     @Override
     protected BaseListAdapter getAdapter() {
         return new IntervalListDelegationAdapter(a, this, items);
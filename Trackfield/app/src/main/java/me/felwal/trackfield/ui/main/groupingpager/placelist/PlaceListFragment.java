@@ -10,6 +10,7 @@ import java.util.ArrayList;
 
 import me.felwal.android.util.ResourcesKt;
 import me.felwal.trackfield.R;
+import me.felwal.trackfield.data.db.DbChange;
 import me.felwal.trackfield.data.prefs.Prefs;
 import me.felwal.trackfield.ui.base.BaseListAdapter;
 import me.felwal.trackfield.ui.common.model.RecyclerItem;
@@ -58,6 +59,11 @@ public class PlaceListFragment extends GroupListFragment {
             Prefs.getSorterInversion(AppConsts.Layout.PLACE_LIST));
     }
 
+    @Override
+    protected boolean isAffectedBy(@NonNull DbChange change) {
+        return change.hasPlaces() || change.hasExercises();
+    }
+
     @Override
     protected BaseListAdapter getAdapter() {
         return new PlaceListDelegationAdapter(a, this, items);
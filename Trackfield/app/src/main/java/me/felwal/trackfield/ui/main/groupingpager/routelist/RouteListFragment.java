@@ -10,6 +10,7 @@ import java.util.ArrayList;
 
 import me.felwal.android.util.ResourcesKt;
 import me.felwal.trackfield.R;
+import me.felwal.trackfield.data.db.DbChange;
 import me.felwal.trackfield.data.prefs.Prefs;
 import me.felwal.trackfield.ui.base.BaseListAdapter;
 import me.felwal.trackfield.ui.common.model.RecyclerItem;
@@ -59,6 +60,11 @@ public class RouteListFragment extends GroupListFragment {
             Prefs.getSorterInversion(AppConsts.Layout.ROUTE_LIST));
     }
 
+    @Override
+    protected boolean isAffectedBy(@NonNull DbChange change) {
+        return change.hasRoutes();
+    }
+
     @Override
     protected BaseListAdapter getAdapter() {
         return new RouteListDelegationAdapter(a, this, items);
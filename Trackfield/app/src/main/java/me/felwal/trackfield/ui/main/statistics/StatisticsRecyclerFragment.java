@@ -10,7 +10,7 @@ import java.time.LocalDate;
 import java.util.ArrayList;
 
 import me.felwal.trackfield.R;
-import me.felwal.trackfield.data.db.DbReader;
+import me.felwal.trackfield.data.db.DbChange;
 import me.felwal.trackfield.data.prefs.Prefs;
 import me.felwal.trackfield.ui.base.BaseListAdapter;
 import me.felwal.trackfield.ui.base.RecyclerFragment;
@@ -42,6 +42,11 @@ public class StatisticsRecyclerFragment extends RecyclerFragment {
         // Statistics currently has no need for sorting
     }
 
+    @Override
+    protected boolean isAffectedBy(@NonNull DbChange change) {
+        return change.hasExercises();
+    }
+
     @Override
     protected BaseListAdapter getAdapter() {
         return new StatisticsDelegationAdapter(a, this, items);
@@ -50,16 +55,15 @@ public class StatisticsRecyclerFragment extends RecyclerFragment {
     @Override
     protected ArrayList<RecyclerItem> getRecyclerItems() {
         ArrayList<RecyclerItem> itemList = new ArrayList<>();
+        StatisticsSnapshot snapshot = StatisticsSnapshot.get(Prefs.getMainFilter(), LocalDate.now(), a);
 
         // month graph
 
         GraphData dataThisMonth = new GraphData(
-            a, DbReader.get(a).getMonthDailyIntegralDistance(Prefs.getMainFilter(), LocalDate.now()),
-            GraphData.GRAPH_LINE, false, false);
+            a, snapshot.thisMonth, GraphData.GRAPH_LINE, false, false);
 
         GraphData dataLastMonth = new GraphData(
-            a, DbReader.get(a).getMonthDailyIntegralDistance(Prefs.getMainFilter(), LocalDate.now().minusMonths(1)),
-            GraphData.GRAPH_LINE, false, false);
+            a, snapshot.lastMonth, GraphData.GRAPH_LINE, false, false);
         dataLastMonth.setPaint(android.R.attr.listDivider, a);
 
         Graph monthGraph = new Graph(false, Borders.all(), true);
@@ -72,12 +76,10 @@ public class StatisticsRecyclerFragment extends RecyclerFragment {
         // year graph
 
         GraphData dataThisYear = new GraphData(
-            a, DbReader.get(a).getYearWeeklyIntegralDistance(Prefs.getMainFilter(), LocalDate.now()),
-            GraphData.GRAPH_LINE, false, false);
+            a, snapshot.thisYear, GraphData.GRAPH_LINE, false, false);
 
         GraphData dataLastYear = new GraphData(
-            a, DbReader.get(a).getYearWeeklyIntegralDistance(Prefs.getMainFilter(), LocalDate.now().minusYears(1)),
-            GraphData.GRAPH_LINE, false, false);
+            a, snapshot.lastYear, GraphData.GRAPH_LINE, false, false);
         dataLastYear.setPaint(android.R.attr.listDivider, a);
 
         Graph yearGraph = new Graph(false, Borders.all(), true);
@@ -90,12 +92,10 @@ public class StatisticsRecyclerFragment extends RecyclerFragment {
         // year chart
 
         GraphData dataThisYearMonthly = new GraphData(
-            a, DbReader.get(a).getYearMonthlyDistance(Prefs.getMainFilter(), LocalDate.now()), GraphData.GRAPH_BAR,
-            false, false);
+            a, snapshot.thisYearMonthly, GraphData.GRAPH_BAR, false, false);
 
         GraphData dataLastYearMonthly = new GraphData(
-            a, DbReader.get(a).getYearMonthlyDistance(Prefs.getMainFilter(), LocalDate.now().minusYears(1)),
-            GraphData.GRAPH_BAR, false, false);
+            a, snapshot.lastYearMonthly, GraphData.GRAPH_BAR, false, false);
         dataLastYearMonthly.setPaint(android.R.attr.listDivider, a);
 
         Graph yearBarGraph = new Graph(false, Borders.all(), true);
@@ -0,0 +1,88 @@
+package me.felwal.trackfield.ui.main.statistics;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+
+import me.felwal.trackfield.data.db.DbReader;
+import me.felwal.trackfield.data.db.DbWriter;
+import me.felwal.trackfield.ui.base.ExerciseFilter;
+import me.felwal.trackfield.ui.widget.graph.Series;
+
+/**
+ * The graph series of the statistics tab, keyed by filter, anchor date and {@link DbWriter#getGeneration() write
+ * generation}. Showing the tab again reuses the last snapshot, and only recomputes after a write or when the filter or
+ * date has changed.
+ */
+class StatisticsSnapshot {
+
+    // written on a background thread and read on the main thread
+    @Nullable private static volatile StatisticsSnapshot cached;
+
+    // key
+    private final ExerciseFilter filter;
+    private final LocalDate date;
+    private final long generation;
+
+    // series
+    final Series thisMonth;
+    final Series lastMonth;
+    final Series thisYear;
+    final Series lastYear;
+    final Series thisYearMonthly;
+    final Series lastYearMonthly;
+
+    //
+
+    private StatisticsSnapshot(ExerciseFilter filter, LocalDate date, long generation, Context c) {
+        // copy, since the filter from prefs wraps lists that are mutated in place
+        this.filter = new ExerciseFilter(new ArrayList<>(filter.getVisibleTypes()),
+            new ArrayList<>(filter.getVisibleLabels()));
+        this.date = date;
+        this.generation = generation;
+
+        DbReader reader = DbReader.get(c);
+        thisMonth = reader.getMonthDailyIntegralDistance(filter, date);
+        lastMonth = reader.getMonthDailyIntegralDistance(filter, date.minusMonths(1));
+
+        // the years are compared, and aggregated concurrently
+        Series[] years = reader.getYearsWeeklyIntegralDistance(filter, date.getYear() - 1, date.getYear());
+        lastYear = years[0];
+        thisYear = years[1];
+        Series[] yearsMonthly = reader.getYearsMonthlyDistance(filter, date.getYear() - 1, date.getYear());
+        lastYearMonthly = yearsMonthly[0];
+        thisYearMonthly = yearsMonthly[1];
+    }
+
+    /**
+     * Gets the cached snapshot if its key matches, or computes and caches a new one. The generation is read before
+     * querying, so that a write during computation leaves the snapshot stale rather than wrongly current.
+     *
+     * @param filter The filter to apply
+     * @param date The date to anchor this month and year at
+     * @return A snapshot for the current database state
+     */
+    @NonNull
+    static StatisticsSnapshot get(ExerciseFilter filter, LocalDate date, Context c) {
+        long generation = DbWriter.getGeneration();
+
+        StatisticsSnapshot snapshot = cached;
+        if (snapshot == null || !snapshot.matches(filter, date, generation)) {
+            snapshot = new StatisticsSnapshot(filter, date, generation, c);
+            cached = snapshot;
+        }
+
+        return snapshot;
+    }
+
+    // tools
+
+    private boolean matches(ExerciseFilter filter, LocalDate date, long generation) {
+        return this.generation == generation && this.date.equals(date) && this.filter.equals(filter);
+    }
+
+}
@@ -14,7 +14,8 @@ import me.felwal.android.fragment.dialog.AlertDialog
 import me.felwal.android.fragment.dialog.InputDialog
 import me.felwal.android.fragment.dialog.SingleChoiceDialog
 import me.felwal.trackfield.R
-import me.felwal.trackfield.data.db.DbWriter
+import me.felwal.trackfield.data.db.DbReader
+import me.felwal.trackfield.data.db.DbWriteExecutor
 import me.felwal.trackfield.data.prefs.Prefs
 import me.felwal.trackfield.data.storage.BackupManager
 import me.felwal.trackfield.databinding.ActivitySettingsBinding
@@ -140,6 +141,7 @@ class SettingsActivity :
                     value = Prefs.preferSameTypeWhenDriving(),
                     onSwitch = {
                         Prefs.setPreferSameTypeWhenDriving(it)
+                        DbWriteExecutor.get(this).submit { writer -> writer.rebuildDrivenDistances() }
                         MainActivity.recreateOnRestart = true;
                     },
                     iconRes = R.drawable.ic_drive
@@ -150,6 +152,7 @@ class SettingsActivity :
                     value = Prefs.fallBackToRouteWhenDriving(),
                     onSwitch = {
                         Prefs.setFallBackToRouteWhenDriving(it)
+                        DbWriteExecutor.get(this).submit { writer -> writer.rebuildDrivenDistances() }
                         MainActivity.recreateOnRestart = true;
                     },
                     iconRes = R.drawable.ic_drive
@@ -212,10 +215,7 @@ class SettingsActivity :
                 ),
                 ActionItem(
                     title = getString(R.string.tv_text_settings_title_generate_places),
-                    onClick = {
-                        DbWriter.get(this).regeneratePlaces(this)
-                        MainActivity.recreateOnRestart = true;
-                    }
+                    onClick = { generatePlaces() }
                 ),
                 ConfirmationItem(
                     title = getString(R.string.tv_text_settings_title_recreate),
@@ -273,6 +273,32 @@ class SettingsActivity :
         picker.show()
     }
 
+    private fun generatePlaces() {
+        LayoutUtils.toast(R.string.toast_places_generating, this)
+        // generate off the write thread, so that other writes are not held up meanwhile
+        Thread {
+            var lastPercent = -1
+            val places = DbReader.get(this).generatePlaces { progress, max ->
+                // only post when the shown percentage changes
+                val percent = progress * 100 / max
+                if (percent != lastPercent) {
+                    lastPercent = percent
+                    runOnUiThread {
+                        supportActionBar?.subtitle = getString(R.string.tv_text_settings_subtitle_generating, percent)
+                    }
+                }
+            }
+            DbWriteExecutor.get(this).submit({ it.addPlaces(places) }) { success ->
+                supportActionBar?.subtitle = null
+                if (success) {
+                    LayoutUtils.toast(R.plurals.toast_places_generate_successful, places.size, this)
+                }
+                else LayoutUtils.toast(R.string.toast_places_generate_err, this)
+                MainActivity.recreateOnRestart = true
+            }
+        }.start()
+    }
+
     //
 
     private fun selectFileLocation() {
@@ -338,7 +364,7 @@ class SettingsActivity :
                 }.start()
             }
             DIALOG_RECREATE_DB -> {
-                DbWriter.get(this).recreate()
+                DbWriteExecutor.get(this).submit { writer -> writer.recreate() }
                 MainActivity.recreateOnRestart = true;
             }
         }
@@ -14,7 +14,6 @@ import me.felwal.trackfield.R
 import me.felwal.trackfield.data.network.StravaService
 import me.felwal.trackfield.data.prefs.Prefs
 import me.felwal.trackfield.databinding.ActivitySettingsBinding
-import me.felwal.trackfield.ui.main.MainActivity
 import me.felwal.trackfield.utils.LayoutUtils
 import me.felwal.trackfield.utils.ScreenUtils
 
@@ -176,7 +175,6 @@ class StravaSettingsActivity :
                 reflateViews()
             }
             DIALOG_REQUEST_SPECIFIC -> strava.requestActivity(input.toLong()) {
-                MainActivity.updateFragmentOnRestart = true
                 LayoutUtils.toast(R.string.toast_strava_req_activity_successful, this)
             }
         }
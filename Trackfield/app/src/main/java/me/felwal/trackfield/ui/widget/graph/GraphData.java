@@ -2,17 +2,12 @@ package me.felwal.trackfield.ui.widget.graph;
 
 import android.content.Context;
 import android.graphics.Paint;
-import android.graphics.PointF;
 
 import androidx.annotation.AttrRes;
 
-import java.util.ArrayList;
-import java.util.TreeMap;
-
 import me.felwal.android.util.ResourcesKt;
 import me.felwal.trackfield.R;
 import me.felwal.trackfield.utils.ScreenUtils;
-import me.felwal.trackfield.utils.TypeUtils;
 
 public class GraphData {
 
@@ -24,13 +19,13 @@ public class GraphData {
     public static final int GRAPH_POINTS = 4;
 
     // value nodes
-    private final TreeMap<Float, Float> nodes;
+    private final Series nodes;
     private float min, max;
 
     // surface points
-    private ArrayList<PointF> surPoints = new ArrayList<>();
-    private final ArrayList<PointF> surFirstConPoints = new ArrayList<>();
-    private final ArrayList<PointF> surSecondConPoints = new ArrayList<>();
+    private Series surPoints = new Series();
+    private final Series surFirstConPoints = new Series();
+    private final Series surSecondConPoints = new Series();
 
     private final int graphType;
     private final boolean showPoints;
@@ -44,7 +39,7 @@ public class GraphData {
 
     //
 
-    public GraphData(Context c, TreeMap<Float, Float> nodes, int graphType, boolean showPoints, boolean showArea) {
+    public GraphData(Context c, Series nodes, int graphType, boolean showPoints, boolean showArea) {
         this.nodes = nodes;
         this.graphType = graphType;
         this.showPoints = showPoints;
@@ -61,7 +56,7 @@ public class GraphData {
 
     // set
 
-    public void setSurfacePoints(ArrayList<PointF> surPoints) {
+    public void setSurfacePoints(Series surPoints) {
         this.surPoints = surPoints;
         calcConPoints();
     }
@@ -75,11 +70,11 @@ public class GraphData {
     private void calcMinAndMax() {
         if (getPointCount() == 0) return;
 
-        min = nodes.firstEntry().getValue();
-        max = nodes.firstEntry().getValue();
+        min = nodes.firstY();
+        max = nodes.firstY();
 
-        for (TreeMap.Entry<Float, Float> entry : nodes.entrySet()) {
-            float y = entry.getValue();
+        for (int i = 0; i < nodes.size(); i++) {
+            float y = nodes.getY(i);
             if (y < min) min = y;
             if (y > max) max = y;
         }
@@ -97,30 +92,33 @@ public class GraphData {
     private void calcConPoints() {
         if (graphType != GRAPH_BEZIER) return;
 
+        surFirstConPoints.clear();
+        surSecondConPoints.clear();
+
+        // the midpoints are ordered as the surface points, but repeat where those coincide
         for (int i = 1; i < surPoints.size(); i++) {
-            PointF firstPoint = new PointF((surPoints.get(i).x + surPoints.get(i - 1).x) / 2, surPoints.get(i - 1).y);
-            PointF secondPoint = new PointF((surPoints.get(i).x + surPoints.get(i - 1).x) / 2, surPoints.get(i).y);
+            float x = (surPoints.getX(i) + surPoints.getX(i - 1)) / 2;
 
-            surFirstConPoints.add(firstPoint);
-            surSecondConPoints.add(secondPoint);
+            surFirstConPoints.append(x, surPoints.getY(i - 1));
+            surSecondConPoints.append(x, surPoints.getY(i));
         }
     }
 
     // get points
 
-    public TreeMap<Float, Float> getNodes() {
+    public Series getNodes() {
         return nodes;
     }
 
-    public ArrayList<PointF> getSurPoints() {
+    public Series getSurPoints() {
         return surPoints;
     }
 
-    public ArrayList<PointF> getSurFirstConPoints() {
+    public Series getSurFirstConPoints() {
         return surFirstConPoints;
     }
 
-    public ArrayList<PointF> getSurSecondConPoints() {
+    public Series getSurSecondConPoints() {
         return surSecondConPoints;
     }
 
@@ -156,12 +154,11 @@ public class GraphData {
     }
 
     public boolean isEmpty() {
-        return nodes == null || nodes.size() == 0;
+        return nodes == null || nodes.isEmpty();
     }
 
     public boolean sameDataPointsAs(GraphData data) {
-        //return dataPoints.equals(data.dataPoints);
-        return TypeUtils.treeMapsEquals(nodes, data.nodes);
+        return nodes.equals(data.nodes);
     }
 
     public float getPointCount() {
@@ -172,11 +169,11 @@ public class GraphData {
     // get domain and range
 
     public float getStart() {
-        return nodes.firstKey();
+        return nodes.firstX();
     }
 
     public float getEnd() {
-        return nodes.lastKey();
+        return nodes.lastX();
     }
 
     public float getMin() {
@@ -188,7 +185,7 @@ public class GraphData {
     }
 
     public float getDomainSize() {
-        return nodes.lastKey() - nodes.firstKey();
+        return nodes.lastX() - nodes.firstX();
     }
 
 }
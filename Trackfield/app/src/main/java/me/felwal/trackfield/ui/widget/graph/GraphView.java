@@ -4,15 +4,11 @@ import android.content.Context;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Path;
-import android.graphics.PointF;
 import android.util.AttributeSet;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
 
-import java.util.ArrayList;
-import java.util.TreeMap;
-
 import me.felwal.android.util.ResourcesKt;
 import me.felwal.trackfield.utils.ScreenUtils;
 import me.felwal.trackfield.utils.annotation.Unfinished;
@@ -132,12 +128,13 @@ public class GraphView extends View implements View.OnTouchListener {
 
         for (Axis axis : graph.getAxes()) {
             for (GraphData datum : axis.getData()) {
-                ArrayList<PointF> surPoints = new ArrayList<>();
+                Series nodes = datum.getNodes();
+                Series surPoints = new Series(nodes.size());
 
-                for (TreeMap.Entry<Float, Float> entry : datum.getNodes().entrySet()) {
-                    float y = height + getPaddingTop() - axis.bias(entry.getValue()) * height;
-                    float x = (entry.getKey() - graph.getStart()) * unitWidth + (hasBars ? barRadius : 0);
-                    surPoints.add(new PointF(x, y));
+                for (int i = 0; i < nodes.size(); i++) {
+                    float y = height + getPaddingTop() - axis.bias(nodes.getY(i)) * height;
+                    float x = (nodes.getX(i) - graph.getStart()) * unitWidth + (hasBars ? barRadius : 0);
+                    surPoints.append(x, y);
                 }
                 datum.setSurfacePoints(surPoints);
             }
@@ -191,18 +188,19 @@ public class GraphView extends View implements View.OnTouchListener {
     // draw curves
 
     private void drawLineCurve(Canvas canvas, GraphData data) {
-        ArrayList<PointF> points = data.getSurPoints();
+        Series points = data.getSurPoints();
         if (points.isEmpty()) return;
 
         Path path = new Path();
         path.reset();
 
         for (int i = 0; i < points.size(); i++) {
-            PointF p = points.get(i);
+            float x = points.getX(i);
+            float y = points.getY(i);
 
-            if (i == 0) path.moveTo(p.x, p.y);
-            else path.lineTo(p.x, p.y);
-            drawPointIfEnabled(canvas, p, data);
+            if (i == 0) path.moveTo(x, y);
+            else path.lineTo(x, y);
+            drawPointIfEnabled(canvas, x, y, data);
         }
 
         canvas.drawPath(path, data.getPaint());
@@ -210,24 +208,25 @@ public class GraphView extends View implements View.OnTouchListener {
     }
 
     private void drawBezierCurve(Canvas canvas, GraphData data) {
-        ArrayList<PointF> points = data.getSurPoints();
-        ArrayList<PointF> firstConPoints = data.getSurFirstConPoints();
-        ArrayList<PointF> secondConPoints = data.getSurSecondConPoints();
+        Series points = data.getSurPoints();
+        Series firstConPoints = data.getSurFirstConPoints();
+        Series secondConPoints = data.getSurSecondConPoints();
         if (points.isEmpty() && firstConPoints.isEmpty() && secondConPoints.isEmpty()) return;
 
         Path path = new Path();
         path.reset();
 
         for (int i = 0; i < points.size(); i++) {
-            PointF p = points.get(i);
+            float x = points.getX(i);
+            float y = points.getY(i);
 
-            if (i == 0) path.moveTo(p.x, p.y);
+            if (i == 0) path.moveTo(x, y);
             else path.cubicTo(
-                firstConPoints.get(i - 1).x, firstConPoints.get(i - 1).y,
-                secondConPoints.get(i - 1).x, secondConPoints.get(i - 1).y,
-                p.x, p.y
+                firstConPoints.getX(i - 1), firstConPoints.getY(i - 1),
+                secondConPoints.getX(i - 1), secondConPoints.getY(i - 1),
+                x, y
             );
-            drawPointIfEnabled(canvas, p, data);
+            drawPointIfEnabled(canvas, x, y, data);
         }
 
         canvas.drawPath(path, data.getPaint());
@@ -244,47 +243,52 @@ public class GraphView extends View implements View.OnTouchListener {
         float cornerRadius = ScreenUtils.px(1);
         float zeroHeight = ScreenUtils.px(1);
 
-        ArrayList<PointF> points = data.getSurPoints();
+        Series points = data.getSurPoints();
         if (points.isEmpty()) return;
 
-        for (PointF p : points) {
-            canvas.drawRoundRect(p.x - barRadius, p.y == bottom ? bottom - zeroHeight : p.y, p.x + barRadius, bottom,
+        for (int i = 0; i < points.size(); i++) {
+            float x = points.getX(i);
+            float y = points.getY(i);
+
+            canvas.drawRoundRect(x - barRadius, y == bottom ? bottom - zeroHeight : y, x + barRadius, bottom,
                 cornerRadius, cornerRadius, data.getPaint());
-            drawPointIfEnabled(canvas, p, data);
+            drawPointIfEnabled(canvas, x, y, data);
         }
     }
 
     private void drawPoints(Canvas canvas, GraphData data) {
-        ArrayList<PointF> points = data.getSurPoints();
+        Series points = data.getSurPoints();
         if (points.isEmpty()) return;
 
         Path path = new Path();
         path.reset();
 
         for (int i = 0; i < points.size(); i++) {
-            PointF p = points.get(i);
-            path.moveTo(p.x, p.y);
-            drawPoint(canvas, p, data.getPaint());
+            float x = points.getX(i);
+            float y = points.getY(i);
+
+            path.moveTo(x, y);
+            drawPoint(canvas, x, y, data.getPaint());
         }
     }
 
     // draw single
 
-    private void drawPoint(Canvas canvas, PointF p, Paint paint) {
-        canvas.drawCircle(p.x, p.y, ScreenUtils.px(4), paint);
+    private void drawPoint(Canvas canvas, float x, float y, Paint paint) {
+        canvas.drawCircle(x, y, ScreenUtils.px(4), paint);
     }
 
-    private void drawPointIfEnabled(Canvas canvas, PointF p, GraphData data) {
-        if (data.arePointsShown()) drawPoint(canvas, p, data.getPaint());
+    private void drawPointIfEnabled(Canvas canvas, float x, float y, GraphData data) {
+        if (data.arePointsShown()) drawPoint(canvas, x, y, data.getPaint());
     }
 
     private void drawAreaIfEnabled(Canvas canvas, Path path, GraphData data) {
-        ArrayList<PointF> points = data.getSurPoints();
+        Series points = data.getSurPoints();
         if (!data.isAreaShown()) return;
 
-        path.lineTo(points.get(points.size() - 1).x, getHeight() - getPaddingBottom());
-        path.lineTo(points.get(0).x, getHeight() - getPaddingBottom());
-        path.lineTo(points.get(0).x, points.get(0).y);
+        path.lineTo(points.lastX(), getHeight() - getPaddingBottom());
+        path.lineTo(points.firstX(), getHeight() - getPaddingBottom());
+        path.lineTo(points.firstX(), points.firstY());
         canvas.drawPath(path, data.getAreaPaint());
     }
 
@@ -0,0 +1,130 @@
+package me.felwal.trackfield.ui.widget.graph;
+
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * A series of nodes sorted by x, backed by parallel primitive arrays. Replaces the boxed keys, values and tree entries
+ * of a sorted map with two floats per node.
+ */
+public class Series {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private float[] xs;
+    private float[] ys;
+    private int size = 0;
+
+    //
+
+    public Series() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public Series(int capacity) {
+        xs = new float[capacity];
+        ys = new float[capacity];
+    }
+
+    // set
+
+    /**
+     * Appends a node. Nodes must be added in ascending order of x, which keeps the series sorted without searching.
+     *
+     * @param x Greater than the x of the last node
+     * @param y Value of the node
+     * @throws IllegalArgumentException if x is not greater than the x of the last node
+     */
+    public void add(float x, float y) {
+        if (size > 0 && x <= xs[size - 1]) {
+            throw new IllegalArgumentException("Nodes must be added in ascending order of x: " + x);
+        }
+
+        append(x, y);
+    }
+
+    /**
+     * Appends a node without checking the order. Used for points derived from a sorted series, such as surface
+     * points, which may coincide or be NaN when the view has no width yet or the domain is empty.
+     *
+     * @param x X of the node
+     * @param y Value of the node
+     */
+    public void append(float x, float y) {
+        if (size == xs.length) {
+            int capacity = Math.max(DEFAULT_CAPACITY, size * 2);
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+        }
+
+        xs[size] = x;
+        ys[size] = y;
+        size++;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    // get
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public float getX(int index) {
+        return xs[index];
+    }
+
+    public float getY(int index) {
+        return ys[index];
+    }
+
+    public float firstX() {
+        return xs[0];
+    }
+
+    public float lastX() {
+        return xs[size - 1];
+    }
+
+    public float firstY() {
+        return ys[0];
+    }
+
+    public float lastY() {
+        return ys[size - 1];
+    }
+
+    // extends
+
+    @Override
+    public boolean equals(@Nullable Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof Series)) return false;
+
+        Series other = (Series) obj;
+        if (size != other.size) return false;
+
+        for (int i = 0; i < size; i++) {
+            if (xs[i] != other.xs[i] || ys[i] != other.ys[i]) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = size;
+        for (int i = 0; i < size; i++) {
+            hash = 31 * hash + Float.floatToIntBits(xs[i]);
+            hash = 31 * hash + Float.floatToIntBits(ys[i]);
+        }
+        return hash;
+    }
+
+}
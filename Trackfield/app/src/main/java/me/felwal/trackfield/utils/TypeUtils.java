@@ -7,7 +7,6 @@ import androidx.annotation.NonNull;
 import com.mapbox.mapboxsdk.geometry.LatLng;
 
 import java.util.ArrayList;
-import java.util.TreeMap;
 
 public class TypeUtils {
 
@@ -57,18 +56,6 @@ public class TypeUtils {
 
     // lists
 
-    public static boolean treeMapsEquals(TreeMap<Float, Float> map1, TreeMap<Float, Float> map2) {
-        if (map1.size() != map2.size()) return false;
-
-        for (TreeMap.Entry<Float, Float> entry : map1.entrySet()) {
-            float key = entry.getKey();
-            if (!map2.containsKey(key) || map2.get(key).floatValue() != entry.getValue().floatValue()) {
-                return false;
-            }
-        }
-        return true;
-    }
-
     @NonNull
     public static <T> ArrayList<T> createList(T valueToAdd) {
         ArrayList<T> list = new ArrayList<>();
@@ -0,0 +1,142 @@
+package me.felwal.trackfield.ui.widget.graph;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the heap allocated when building and reading a 5,000 point route pace graph as a {@link TreeMap} and as a
+ * {@link Series}. Measured with the per-thread allocation counter of the host JVM, and reported rather than asserted,
+ * since allocation differs between JVMs.
+ */
+public class SeriesAllocationBenchmark {
+
+    private static final Logger LOG = Logger.getLogger(SeriesAllocationBenchmark.class.getSimpleName());
+
+    private static final int POINT_COUNT = 5_000;
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int ROUNDS = 50;
+
+    @Test
+    public void series_allocationAgainstTreeMap() {
+        com.sun.management.ThreadMXBean bean = threadBean();
+        Assume.assumeTrue("allocation counter unavailable", bean != null);
+
+        // warm up, so that class loading and compilation are not counted
+        float checksum = 0;
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            checksum += readTreeMap(buildTreeMap()) + readSeries(buildSeries());
+        }
+
+        long treeMapBytes = 0;
+        long seriesBytes = 0;
+        long threadId = Thread.currentThread().getId();
+
+        for (int i = 0; i < ROUNDS; i++) {
+            long before = bean.getThreadAllocatedBytes(threadId);
+            checksum += readTreeMap(buildTreeMap());
+            long between = bean.getThreadAllocatedBytes(threadId);
+            checksum += readSeries(buildSeries());
+            long after = bean.getThreadAllocatedBytes(threadId);
+
+            treeMapBytes += between - before;
+            seriesBytes += after - between;
+        }
+
+        treeMapBytes /= ROUNDS;
+        seriesBytes /= ROUNDS;
+        LOG.info("pace graph of " + POINT_COUNT + " points: TreeMap " + treeMapBytes + " B, Series " +
+            seriesBytes + " B (checksum " + checksum + ")");
+    }
+
+    @Test
+    public void series_readsAsTreeMap() {
+        TreeMap<Float, Float> map = buildTreeMap();
+        Series series = buildSeries();
+
+        assertEquals(map.size(), series.size());
+        int i = 0;
+        for (Map.Entry<Float, Float> entry : map.entrySet()) {
+            assertEquals(entry.getKey(), series.getX(i), 0);
+            assertEquals(entry.getValue(), series.getY(i), 0);
+            i++;
+        }
+    }
+
+    @Test
+    public void append_acceptsCoincidingAndNaNX() {
+        // surface points of a graph without width or domain
+        Series surPoints = new Series();
+        surPoints.append(0, 1);
+        surPoints.append(0, 2);
+        surPoints.append(Float.NaN, 3);
+
+        assertEquals(3, surPoints.size());
+        assertEquals(2, surPoints.getY(1), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void add_rejectsCoincidingX() {
+        Series nodes = new Series();
+        nodes.add(0, 1);
+        nodes.add(0, 2);
+    }
+
+    // build
+
+    private static TreeMap<Float, Float> buildTreeMap() {
+        TreeMap<Float, Float> nodes = new TreeMap<>();
+        for (int rowNum = 0; rowNum < POINT_COUNT; rowNum++) {
+            nodes.put((float) rowNum, pace(rowNum));
+        }
+        return nodes;
+    }
+
+    private static Series buildSeries() {
+        Series nodes = new Series(POINT_COUNT);
+        for (int rowNum = 0; rowNum < POINT_COUNT; rowNum++) {
+            nodes.add(rowNum, pace(rowNum));
+        }
+        return nodes;
+    }
+
+    // read, as when calculating surface points
+
+    private static float readTreeMap(TreeMap<Float, Float> nodes) {
+        float sum = 0;
+        for (Map.Entry<Float, Float> entry : nodes.entrySet()) {
+            sum += entry.getKey() * entry.getValue();
+        }
+        return sum;
+    }
+
+    private static float readSeries(Series nodes) {
+        float sum = 0;
+        for (int i = 0; i < nodes.size(); i++) {
+            sum += nodes.getX(i) * nodes.getY(i);
+        }
+        return sum;
+    }
+
+    // tools
+
+    private static float pace(int rowNum) {
+        // seconds per km, varying around 5:00
+        return 300 + (rowNum * 7919 % 120) - 60;
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) return null;
+
+        com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+        return sunBean.isThreadAllocatedMemorySupported() ? sunBean : null;
+    }
+
+}